@@ -0,0 +1,110 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.benchmark;
+
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.beam.Beam;
+import net.jaxonbrown.guardianBeam.beam.LocationTargetBeam;
+import net.jaxonbrown.guardianBeam.protocol.BeamPacketPool;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating and releasing beams, with and without the BeamPacketPool.
+ * @author Jaxon A Brown
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeamCreationBenchmark {
+    @Param({"0", "256"})
+    public int poolCapacity;
+
+    /**
+     * Players standing next to the beam, who are shown and then sent the removal of every beam.
+     */
+    @Param({"0", "10", "100"})
+    public int playerCount;
+
+    @Param({"false"})
+    public boolean countBytes;
+
+    private StandInServer server;
+    private Location start;
+    private Location end;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.server = StandInServer.get();
+        this.server.getPacketCounter().setCountingBytes(this.countBytes);
+        World world = this.server.getWorld();
+        this.start = new Location(world, 8.0D, 64.0D, 8.0D);
+        this.end = new Location(world, 12.0D, 70.0D, 8.0D);
+        for(int i = 0; i < this.playerCount; i++) {
+            this.server.addPlayer(new Location(world, 8.0D + i % 10, 64.0D, 4.0D + i / 10));
+        }
+        this.server.enable();
+        BeamPacketPool.setCapacity(this.poolCapacity);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.reset();
+    }
+
+    /**
+     * Builds the packets of a beam and releases them. The flush lets released packets return to the pool.
+     */
+    @Benchmark
+    public void createPackets() {
+        new LocationTargetBeam(this.start, this.end).release();
+        GuardianBeamAPI.getInstance().getPacketDispatcher().flush();
+    }
+
+    /**
+     * A short-lived effect beam: created, shown to nearby players, removed and released within one tick.
+     * @param emitted packets and bytes sent.
+     */
+    @Benchmark
+    public void effectBeam(PacketCounter.Emitted emitted) {
+        Beam beam = new Beam(this.start, this.end);
+        beam.start();
+        this.server.tick();
+        beam.release();
+        this.server.tick();
+        this.server.getPacketCounter().drainTo(emitted);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.benchmark;
+
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.protocol.EntityIdAllocator;
+import net.jaxonbrown.guardianBeam.protocol.MovementEncoder;
+import net.jaxonbrown.guardianBeam.protocol.PacketDispatcher;
+import net.jaxonbrown.guardianBeam.protocol.PacketFactory;
+import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and changing the packets behind a beam.
+ * @author Jaxon A Brown
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBuildingBenchmark {
+    private StandInServer server;
+    private PacketDispatcher dispatcher;
+    private Location[] nearLocations;
+    private Location[] farLocations;
+    private WrappedBeamPacket squidSpawn;
+    private WrappedBeamPacket teleport;
+    private MovementEncoder encoder;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.server = StandInServer.get();
+        this.server.enable();
+        this.dispatcher = GuardianBeamAPI.getInstance().getPacketDispatcher();
+        World world = this.server.getWorld();
+        this.nearLocations = new Location[] {new Location(world, 8.0D, 64.0D, 8.0D), new Location(world, 8.5D, 64.25D, 8.0D)};
+        this.farLocations = new Location[] {new Location(world, 8.0D, 64.0D, 8.0D), new Location(world, 108.0D, 64.0D, 8.0D)};
+        this.squidSpawn = PacketFactory.createPacketSquidSpawn(this.nearLocations[0]);
+        this.teleport = PacketFactory.createPacketEntityMove(this.squidSpawn);
+        this.encoder = new MovementEncoder(this.squidSpawn, this.nearLocations[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.reset();
+    }
+
+    /**
+     * Builds a squid spawn packet. Its entity id is released again, so long runs do not run out of ids.
+     */
+    @Benchmark
+    public WrappedBeamPacket createSquidSpawn() {
+        return recycle(PacketFactory.createPacketSquidSpawn(this.nearLocations[0]));
+    }
+
+    /**
+     * Builds a guardian spawn packet. Its entity id is released again, so long runs do not run out of ids.
+     */
+    @Benchmark
+    public WrappedBeamPacket createGuardianSpawn() {
+        return recycle(PacketFactory.createPacketGuardianSpawn(this.nearLocations[0], this.squidSpawn));
+    }
+
+    @Benchmark
+    public WrappedBeamPacket modifySpawn() {
+        return PacketFactory.modifyPacketEntitySpawn(this.squidSpawn, this.nearLocations[++this.index & 1]);
+    }
+
+    @Benchmark
+    public WrappedBeamPacket modifyTeleport() {
+        return PacketFactory.modifyPacketEntityMove(this.teleport, this.farLocations[++this.index & 1]);
+    }
+
+    /**
+     * Small moves, which the encoder sends as relative moves.
+     */
+    @Benchmark
+    public WrappedBeamPacket encodeRelativeMove() {
+        return this.encoder.move(this.nearLocations[++this.index & 1]);
+    }
+
+    /**
+     * Large jumps, which the encoder sends as teleports.
+     */
+    @Benchmark
+    public WrappedBeamPacket encodeTeleport() {
+        return this.encoder.move(this.farLocations[++this.index & 1]);
+    }
+
+    @Benchmark
+    public WrappedBeamPacket createRemoveEntities() {
+        return PacketFactory.createPacketRemoveEntities(this.index, this.index + 1);
+    }
+
+    private WrappedBeamPacket recycle(WrappedBeamPacket spawnPacket) {
+        EntityIdAllocator.release(spawnPacket.getHandle().getIntegers().read(0));
+        this.dispatcher.flush();
+        return spawnPacket;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.benchmark;
+
+import com.comphenix.protocol.events.PacketContainer;
+import net.jaxonbrown.guardianBeam.protocol.PacketSizes;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Counts the packets the stand-in ProtocolManager was asked to send, instead of sending them.
+ * @author Jaxon A Brown
+ */
+public class PacketCounter {
+    private boolean countingBytes;
+    private long packets;
+    private long bytes;
+    private Map<UUID, long[]> players;
+
+    /**
+     * Sets whether the size of each packet is measured. Measuring serializes every packet, which slows the benchmark.
+     * @param countingBytes True to measure sizes.
+     */
+    public void setCountingBytes(boolean countingBytes) {
+        this.countingBytes = countingBytes;
+    }
+
+    /**
+     * Sets whether packets are also counted for each player, for #drainPlayers.
+     * @param countingPlayers True to count each player's packets.
+     */
+    public void setCountingPlayers(boolean countingPlayers) {
+        this.players = countingPlayers ? new HashMap<UUID, long[]>() : null;
+    }
+
+    void count(Player player, PacketContainer packet) {
+        int size = this.countingBytes ? PacketSizes.sizeOf(packet) : 0;
+        this.packets++;
+        this.bytes += size;
+        if(this.players != null) {
+            long[] counts = this.players.get(player.getUniqueId());
+            if(counts == null) {
+                this.players.put(player.getUniqueId(), counts = new long[2]);
+            }
+            counts[0]++;
+            counts[1] += size;
+        }
+    }
+
+    /**
+     * Takes the packets and bytes counted for each player since the last call, if counting players.
+     * @return packets and bytes sent to each player, by unique id.
+     */
+    public Map<UUID, long[]> drainPlayers() {
+        if(this.players == null) {
+            return new HashMap<>();
+        }
+        Map<UUID, long[]> counted = this.players;
+        this.players = new HashMap<>();
+        return counted;
+    }
+
+    /**
+     * Moves everything counted since the last call into the benchmark's counters.
+     * @param emitted counters reported by JMH.
+     */
+    public void drainTo(Emitted emitted) {
+        emitted.packets += this.packets;
+        emitted.bytes += this.bytes;
+        this.packets = 0;
+        this.bytes = 0;
+    }
+
+    /**
+     * Packets and bytes sent, reported by JMH at the same rate as the operations.
+     * Divide them by the score of the benchmark to get packets and bytes per operation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Emitted {
+        public long packets;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.packets = 0;
+            this.bytes = 0;
+        }
+    }
+}
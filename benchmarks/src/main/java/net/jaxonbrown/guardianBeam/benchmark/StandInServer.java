@@ -0,0 +1,447 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.benchmark;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.utility.MinecraftVersion;
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.beam.BeamManager;
+import net.jaxonbrown.guardianBeam.protocol.PacketDispatcher;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * An in-process stand-in for the server, so the library can be benchmarked without one running.
+ * Players, the world, the scheduler and the plugin manager are dynamic proxies that do just enough for the library.
+ * Repeating tasks run when #tick is called, events are delivered to registered listeners directly, and packets are
+ * counted by the PacketCounter instead of being sent. Packets themselves are real, so the server jar must be on the
+ * classpath.
+ * @author Jaxon A Brown
+ */
+public final class StandInServer {
+    private static final String MINECRAFT_PACKAGE = "net.minecraft.server.v1_12_R1";
+    private static final String CRAFTBUKKIT_PACKAGE = "org.bukkit.craftbukkit.v1_12_R1";
+    private static final String MINECRAFT_VERSION = "1.12";
+
+    private static StandInServer instance;
+
+    private final Logger logger;
+    private final Server server;
+    private final Plugin plugin;
+    private final PacketCounter packetCounter;
+    private final Map<Integer, Runnable> tasks;
+    private final List<Listener> listeners;
+    private final Map<UUID, Player> players;
+    private final Map<UUID, Location> locations;
+    private final World world;
+    private final UUID worldUID;
+    private int nextTaskId;
+
+    private StandInServer() {
+        this.logger = Logger.getLogger("StandInServer");
+        this.packetCounter = new PacketCounter();
+        this.tasks = new LinkedHashMap<>();
+        this.listeners = new ArrayList<>();
+        this.players = new LinkedHashMap<>();
+        this.locations = new LinkedHashMap<>();
+        this.worldUID = UUID.randomUUID();
+        this.server = proxy(Server.class, new ServerHandler());
+        this.plugin = proxy(Plugin.class, new PluginHandler());
+        this.world = proxy(World.class, new WorldHandler());
+    }
+
+    /**
+     * Get the stand-in server, installing it into Bukkit, ProtocolLib and the library on first use.
+     * Bukkit only accepts one server per JVM, so every benchmark in a fork shares it; call #reset between trials.
+     * @return the stand-in server.
+     */
+    public static synchronized StandInServer get() {
+        if(instance == null) {
+            instance = new StandInServer();
+            instance.install();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the library's BeamManager and PacketDispatcher, as enabling the plugin would.
+     * Players must be added first, as the manager indexes the players online when it starts.
+     */
+    public void enable() {
+        BeamManager beamManager = new BeamManager(this.plugin);
+        PacketDispatcher packetDispatcher = new PacketDispatcher(this.plugin);
+        try {
+            Object library = allocate(GuardianBeamAPI.class);
+            setField(GuardianBeamAPI.class, "beamManager", library, beamManager);
+            setField(GuardianBeamAPI.class, "packetDispatcher", library, packetDispatcher);
+            setField(GuardianBeamAPI.class, "instance", null, library);
+        } catch(ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not create the library instance", ex);
+        }
+        beamManager.start();
+        packetDispatcher.start();
+    }
+
+    /**
+     * Stops the library and forgets every player, task and listener.
+     */
+    public void reset() {
+        GuardianBeamAPI library = GuardianBeamAPI.getInstance();
+        if(library != null) {
+            library.onDisable();
+        }
+        this.tasks.clear();
+        this.listeners.clear();
+        this.players.clear();
+        this.locations.clear();
+        this.packetCounter.drainTo(new PacketCounter.Emitted());
+        this.packetCounter.setCountingPlayers(false);
+    }
+
+    /**
+     * Runs every repeating task once, in the order they were scheduled, like one server tick.
+     */
+    public void tick() {
+        for(Runnable task : new ArrayList<>(this.tasks.values())) {
+            task.run();
+        }
+    }
+
+    /**
+     * Adds a player to the world. If the library is enabled, they join as they would on a real server.
+     * @param location where the player stands.
+     * @return the new player.
+     */
+    public Player addPlayer(Location location) {
+        UUID uuid = UUID.randomUUID();
+        Player player = proxy(Player.class, new PlayerHandler(uuid));
+        this.players.put(uuid, player);
+        this.locations.put(uuid, location.clone());
+        callEvent(new PlayerJoinEvent(player, null));
+        return player;
+    }
+
+    /**
+     * Removes a player, as if they quit.
+     * @param player player to remove.
+     */
+    public void removePlayer(Player player) {
+        callEvent(new PlayerQuitEvent(player, null));
+        this.players.remove(player.getUniqueId());
+        this.locations.remove(player.getUniqueId());
+    }
+
+    /**
+     * Moves a player, reporting the move to listeners like the server does.
+     * @param player player to move.
+     * @param to where the player moves to.
+     */
+    public void movePlayer(Player player, Location to) {
+        Location from = this.locations.get(player.getUniqueId());
+        callEvent(new PlayerMoveEvent(player, from, to));
+        this.locations.put(player.getUniqueId(), to);
+    }
+
+    /**
+     * Delivers an event to every listener method accepting it.
+     * @param event event to deliver.
+     */
+    public void callEvent(Event event) {
+        for(Listener listener : new ArrayList<>(this.listeners)) {
+            for(Method method : listener.getClass().getMethods()) {
+                if(method.isAnnotationPresent(EventHandler.class) && method.getParameterTypes().length == 1
+                        && method.getParameterTypes()[0].isInstance(event)) {
+                    try {
+                        method.invoke(listener, event);
+                    } catch(IllegalAccessException | InvocationTargetException ex) {
+                        throw new IllegalStateException("Listener failed to handle " + event.getEventName(), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public PacketCounter getPacketCounter() {
+        return this.packetCounter;
+    }
+
+    private void install() {
+        Bukkit.setServer(this.server);
+        MinecraftReflection.setMinecraftPackage(MINECRAFT_PACKAGE, CRAFTBUKKIT_PACKAGE);
+        try {
+            //Registers blocks, items and entities, which the fake entities behind the spawn packets need
+            MinecraftReflection.getMinecraftClass("DispenserRegistry").getMethod("c").invoke(null);
+            setField(ProtocolLibrary.class, "protocolManager", null, proxy(ProtocolManager.class, new ProtocolManagerHandler()));
+        } catch(ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not set up the server classes", ex);
+        }
+    }
+
+    private static Object allocate(Class<?> type) throws ReflectiveOperationException {
+        //JavaPlugin refuses to be constructed outside of a plugin class loader, so the constructor is skipped
+        Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        Object unsafe = unsafeField.get(null);
+        return unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, type);
+    }
+
+    private static void setField(Class<?> owner, String name, Object target, Object value) throws ReflectiveOperationException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StandInServer.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * Answers the methods of Object, and returns the default value of anything it was not taught.
+     */
+    private abstract static class StandInHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "equals":
+                    if(args != null && args.length == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "hashCode":
+                    if(args == null) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "toString":
+                    if(args == null) {
+                        return getClass().getSimpleName();
+                    }
+                    break;
+            }
+            Object result = handle(method.getName(), args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        }
+
+        abstract Object handle(String method, Object[] args);
+
+        private static Object defaultValue(Class<?> type) {
+            if(!type.isPrimitive() || type == void.class) {
+                return null;
+            } else if(type == boolean.class) {
+                return false;
+            } else if(type == char.class) {
+                return '\0';
+            } else if(type == long.class) {
+                return 0L;
+            } else if(type == float.class) {
+                return 0.0F;
+            } else if(type == double.class) {
+                return 0.0D;
+            } else if(type == byte.class) {
+                return (byte) 0;
+            } else if(type == short.class) {
+                return (short) 0;
+            }
+            return 0;
+        }
+    }
+
+    private class ServerHandler extends StandInHandler {
+        private final BukkitScheduler scheduler = proxy(BukkitScheduler.class, new SchedulerHandler());
+        private final PluginManager pluginManager = proxy(PluginManager.class, new PluginManagerHandler());
+
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "getName":
+                    return "StandInServer";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "1.12-R0.1-SNAPSHOT";
+                case "getLogger":
+                    return StandInServer.this.logger;
+                case "getOnlinePlayers":
+                    return Collections.unmodifiableCollection(new ArrayList<>(StandInServer.this.players.values()));
+                case "getPlayer":
+                    return args[0] instanceof UUID ? StandInServer.this.players.get(args[0]) : null;
+                case "getWorld":
+                    return StandInServer.this.worldUID.equals(args[0]) ? StandInServer.this.world : null;
+                case "getWorlds":
+                    return Collections.singletonList(StandInServer.this.world);
+                case "getScheduler":
+                    return this.scheduler;
+                case "getPluginManager":
+                    return this.pluginManager;
+                case "isPrimaryThread":
+                    return true;
+            }
+            return null;
+        }
+    }
+
+    private class PluginHandler extends StandInHandler {
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "getServer":
+                    return StandInServer.this.server;
+                case "getName":
+                    return "GuardianBeamAPI";
+                case "getLogger":
+                    return StandInServer.this.logger;
+                case "isEnabled":
+                    return true;
+            }
+            return null;
+        }
+    }
+
+    private class SchedulerHandler extends StandInHandler {
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "runTaskTimer":
+                    final int taskId = ++StandInServer.this.nextTaskId;
+                    StandInServer.this.tasks.put(taskId, (Runnable) args[1]);
+                    return proxy(BukkitTask.class, new StandInHandler() {
+                        @Override
+                        Object handle(String method, Object[] args) {
+                            switch(method) {
+                                case "getTaskId":
+                                    return taskId;
+                                case "cancel":
+                                    StandInServer.this.tasks.remove(taskId);
+                                    return null;
+                            }
+                            return null;
+                        }
+                    });
+                case "cancelTask":
+                    StandInServer.this.tasks.remove(args[0]);
+                    return null;
+            }
+            return null;
+        }
+    }
+
+    private class PluginManagerHandler extends StandInHandler {
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "registerEvents":
+                    StandInServer.this.listeners.add((Listener) args[0]);
+                    return null;
+                case "callEvent":
+                    callEvent((Event) args[0]);
+                    return null;
+            }
+            return null;
+        }
+    }
+
+    private class WorldHandler extends StandInHandler {
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "getUID":
+                    return StandInServer.this.worldUID;
+                case "getName":
+                    return "world";
+                case "getPlayers":
+                    return new ArrayList<>(StandInServer.this.players.values());
+            }
+            return null;
+        }
+    }
+
+    private class PlayerHandler extends StandInHandler {
+        private final UUID uuid;
+
+        private PlayerHandler(UUID uuid) {
+            this.uuid = uuid;
+        }
+
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "getUniqueId":
+                    return this.uuid;
+                case "getName":
+                case "getDisplayName":
+                    return this.uuid.toString().substring(0, 16);
+                case "getWorld":
+                    return StandInServer.this.world;
+                case "getLocation":
+                    Location location = StandInServer.this.locations.get(this.uuid);
+                    return location != null ? location.clone() : null;
+                case "isOnline":
+                    return StandInServer.this.players.containsKey(this.uuid);
+            }
+            return null;
+        }
+    }
+
+    private class ProtocolManagerHandler extends StandInHandler {
+        private final MinecraftVersion version = new MinecraftVersion(MINECRAFT_VERSION);
+
+        @Override
+        Object handle(String method, Object[] args) {
+            switch(method) {
+                case "sendServerPacket":
+                    StandInServer.this.packetCounter.count((Player) args[0], (PacketContainer) args[1]);
+                    return null;
+                case "getMinecraftVersion":
+                    return this.version;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.benchmark;
+
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.beam.Beam;
+import net.jaxonbrown.guardianBeam.beam.BeamManager;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a server tick of visibility updates: moving some beams and players, then running the BeamManager and
+ * the PacketDispatcher. The layout parameter compares beams spread over a large area with beams packed into a few
+ * chunks around the players, which is the worst case for the spatial index.
+ * @author Jaxon A Brown
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisibilityBenchmark {
+    private static final double SPREAD_SIZE = 1024.0D;
+    private static final double CLUSTERED_SIZE = 64.0D;
+    private static final double BEAM_STEP = 1.5D;
+    private static final double PLAYER_STEP = 20.0D;
+
+    @Param({"100", "1000", "10000"})
+    public int beamCount;
+
+    @Param({"10", "100"})
+    public int playerCount;
+
+    /**
+     * Share of the beams and players which move every tick.
+     */
+    @Param({"0.0", "0.1", "1.0"})
+    public double movementRate;
+
+    @Param({"SPREAD", "CLUSTERED"})
+    public Layout layout;
+
+    @Param({"EVENTS", "POLLING"})
+    public BeamManager.UpdateMode updateMode;
+
+    @Param({"false"})
+    public boolean countBytes;
+
+    private StandInServer server;
+    private Beam[] beams;
+    private Location[][] beamEnds;
+    private Player[] players;
+    private Location[][] playerPositions;
+    private int beamsMoved;
+    private int playersMoved;
+    private int beamCursor;
+    private int playerCursor;
+    private int tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.server = StandInServer.get();
+        this.server.getPacketCounter().setCountingBytes(this.countBytes);
+        World world = this.server.getWorld();
+        Random random = new Random(42);
+        double size = this.layout == Layout.SPREAD ? SPREAD_SIZE : CLUSTERED_SIZE;
+
+        this.players = new Player[this.playerCount];
+        this.playerPositions = new Location[this.playerCount][2];
+        for(int i = 0; i < this.playerCount; i++) {
+            Location position = new Location(world, random.nextDouble() * SPREAD_SIZE, 64.0D, random.nextDouble() * SPREAD_SIZE);
+            this.playerPositions[i][0] = position;
+            this.playerPositions[i][1] = position.clone().add(PLAYER_STEP, 0.0D, 0.0D);
+            this.players[i] = this.server.addPlayer(position);
+        }
+
+        this.server.enable();
+        GuardianBeamAPI.getInstance().getBeamManager().setUpdateMode(this.updateMode);
+
+        this.beams = new Beam[this.beamCount];
+        this.beamEnds = new Location[this.beamCount][2];
+        for(int i = 0; i < this.beamCount; i++) {
+            Location start = new Location(world, random.nextDouble() * size, 64.0D, random.nextDouble() * size);
+            Location end = start.clone().add(random.nextDouble() * 16.0D - 8.0D, 4.0D, random.nextDouble() * 16.0D - 8.0D);
+            this.beamEnds[i][0] = end;
+            this.beamEnds[i][1] = end.clone().add(BEAM_STEP, 0.0D, 0.0D);
+            this.beams[i] = new Beam(start, end);
+            this.beams[i].start();
+        }
+
+        this.beamsMoved = (int) Math.round(this.beamCount * this.movementRate);
+        this.playersMoved = (int) Math.round(this.playerCount * this.movementRate);
+        this.server.tick();
+        this.server.getPacketCounter().drainTo(new PacketCounter.Emitted());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.reset();
+    }
+
+    /**
+     * One tick: the moving share of beams and players take a step, then the library's tasks run.
+     * @param emitted packets and bytes sent during the tick.
+     */
+    @Benchmark
+    public void tick(PacketCounter.Emitted emitted) {
+        int side = ++this.tick & 1;
+        for(int i = 0; i < this.beamsMoved; i++) {
+            int beam = this.beamCursor++ % this.beamCount;
+            this.beams[beam].setEndingPosition(this.beamEnds[beam][side]);
+        }
+        for(int i = 0; i < this.playersMoved; i++) {
+            int player = this.playerCursor++ % this.playerCount;
+            this.server.movePlayer(this.players[player], this.playerPositions[player][side]);
+        }
+        this.server.tick();
+        this.server.getPacketCounter().drainTo(emitted);
+    }
+
+    /**
+     * The public Beam#update entry point, checking every beam against every online player, then one tick.
+     * @param emitted packets and bytes sent.
+     */
+    @Benchmark
+    public void updateAll(PacketCounter.Emitted emitted) {
+        for(Beam beam : this.beams) {
+            beam.update();
+        }
+        this.server.tick();
+        this.server.getPacketCounter().drainTo(emitted);
+    }
+
+    public enum Layout {
+        /**
+         * Beams are spread over the same area as the players.
+         */
+        SPREAD,
+        /**
+         * Beams are packed into a few chunks, so the players near them are offered every one.
+         */
+        CLUSTERED
+    }
+}
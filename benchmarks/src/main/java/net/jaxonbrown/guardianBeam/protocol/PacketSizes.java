@@ -17,18 +17,30 @@
  */
 package net.jaxonbrown.guardianBeam.protocol;
 
+import com.comphenix.protocol.events.PacketContainer;
+import io.netty.buffer.ByteBuf;
+
 /**
- * The function of this class is a bit shaky. It is mostly to avoid use of NMS code to create a proper EID.
- * This class creates Entity IDs that are used by minecraft to identify entities in the protocol.
- * There are two ways to break the function of this class and risk server errors or client crashing:
- *  - A world with 2 billion entites at once might cause client crashes.
- *  - A user of this library creating 147,483,647 entities with this class would beak something. I think the server would
- *      crash, but I'm not 100% sure. Java would wrap the entity ids back to negative max value, which is likely to cause trouble.
+ * Measures packets the way the PacketDispatcher serializes them, for the benchmarks.
  * @author Jaxon A Brown
  */
-class EIDGen {
-    private static int lastIssuedEID = 2000000000;//2 billion
-    static int generateEID() {
-        return lastIssuedEID++;
+public final class PacketSizes {
+    private PacketSizes() {}
+
+    /**
+     * Get the size of a packet on the wire, before compression and the length prefix.
+     * @param container packet to measure.
+     * @return size in bytes, or 0 if packets cannot be serialized.
+     */
+    public static int sizeOf(PacketContainer container) {
+        ByteBuf buffer = PacketSerializer.serialize(container);
+        if(buffer == null) {
+            return 0;
+        }
+        try {
+            return buffer.readableBytes();
+        } finally {
+            buffer.release();
+        }
     }
 }
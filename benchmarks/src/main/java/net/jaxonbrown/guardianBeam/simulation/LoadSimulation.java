@@ -0,0 +1,256 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.simulation;
+
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.beam.Beam;
+import net.jaxonbrown.guardianBeam.beam.BeamManager;
+import net.jaxonbrown.guardianBeam.beam.ClientBeam;
+import net.jaxonbrown.guardianBeam.benchmark.PacketCounter;
+import net.jaxonbrown.guardianBeam.benchmark.StandInServer;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Runs a scripted workload against the real library on the stand-in server for thousands of ticks, and reports how
+ * long the ticks took, the packets and bytes each player was sent, and how much the heap grew. Meant for finding out
+ * how many beams and players a server can take before it has to, without one running.
+ * <p>
+ * Options are given as key=value arguments:
+ * <ul>
+ *     <li>players: number of simulated players (100)</li>
+ *     <li>beams: number of beams anyone can see (1000)</li>
+ *     <li>moving: share of the beams whose end circles around every tick (0.1)</li>
+ *     <li>clientBeams: beams each player sees alone, around where they start (0)</li>
+ *     <li>size: length of the sides of the square area used (512)</li>
+ *     <li>speed: blocks walked per tick by players on random paths (0.2)</li>
+ *     <li>paths: file of recorded paths, see PlayerPath#load, or random (random)</li>
+ *     <li>warmup: ticks run before measuring (1000)</li>
+ *     <li>ticks: ticks measured (6000)</li>
+ *     <li>mode: update mode of the BeamManager, EVENTS or POLLING (EVENTS)</li>
+ *     <li>budget: packets each player may be sent per tick, or 0 for no limit (0)</li>
+ *     <li>countBytes: measure the size of every packet, which slows the simulation down (false)</li>
+ *     <li>seed: seed of the random layout and paths (42)</li>
+ * </ul>
+ * @author Jaxon A Brown
+ */
+public final class LoadSimulation {
+    private static final double TICKS_PER_SECOND = 20.0D;
+    private static final double BEAM_ORBIT = 6.0D;
+    private static final double CLIENT_BEAM_SPREAD = 64.0D;
+    private static final int HEAP_SAMPLE_INTERVAL = 1000;
+
+    private final Map<String, String> options;
+    private final StandInServer server;
+    private final Random random;
+
+    private Player[] players;
+    private Location[] positions;
+    private PlayerPath[] paths;
+    private Beam[] movingBeams;
+    private Location[] movingCentres;
+    private Location[] movingEnds;
+
+    private LoadSimulation(Map<String, String> options) {
+        this.options = options;
+        this.server = StandInServer.get();
+        this.random = new Random(getLong("seed", 42));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            int split = arg.indexOf('=');
+            if(split < 0) {
+                System.err.println("Options are given as key=value, but got: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        LoadSimulation simulation = new LoadSimulation(options);
+        simulation.setUp();
+        simulation.run().print(System.out);
+        simulation.server.reset();
+    }
+
+    private void setUp() throws IOException {
+        World world = this.server.getWorld();
+        double size = getDouble("size", 512.0D);
+        int playerCount = (int) getLong("players", 100);
+
+        String pathOption = getString("paths", "random");
+        List<PlayerPath> recorded = pathOption.equals("random") ? null : PlayerPath.load(new File(pathOption));
+        if(recorded != null && recorded.isEmpty()) {
+            throw new IllegalArgumentException("No paths were recorded in " + pathOption);
+        }
+
+        this.players = new Player[playerCount];
+        this.positions = new Location[playerCount];
+        this.paths = new PlayerPath[playerCount];
+        for(int i = 0; i < playerCount; i++) {
+            this.positions[i] = new Location(world, this.random.nextDouble() * size, 64.0D, this.random.nextDouble() * size);
+            if(recorded != null) {
+                this.paths[i] = recorded.get(i % recorded.size()).copy();
+                this.paths[i].advance(this.positions[i]);
+            } else {
+                this.paths[i] = PlayerPath.random(new Random(this.random.nextLong()), size, getDouble("speed", 0.2D));
+            }
+            this.players[i] = this.server.addPlayer(this.positions[i]);
+        }
+
+        this.server.enable();
+        this.server.getPacketCounter().setCountingBytes(getBoolean("countBytes", false));
+        this.server.getPacketCounter().setCountingPlayers(true);
+        BeamManager manager = GuardianBeamAPI.getInstance().getBeamManager();
+        manager.setUpdateMode(BeamManager.UpdateMode.valueOf(getString("mode", "EVENTS").toUpperCase()));
+        manager.setPlayerPacketBudget((int) getLong("budget", 0));
+
+        int beamCount = (int) getLong("beams", 1000);
+        int movingCount = (int) Math.round(beamCount * getDouble("moving", 0.1D));
+        this.movingBeams = new Beam[movingCount];
+        this.movingCentres = new Location[movingCount];
+        this.movingEnds = new Location[movingCount];
+        for(int i = 0; i < beamCount; i++) {
+            Location start = new Location(world, this.random.nextDouble() * size, 64.0D, this.random.nextDouble() * size);
+            Location end = start.clone().add(this.random.nextDouble() * 16.0D - 8.0D, 4.0D, this.random.nextDouble() * 16.0D - 8.0D);
+            Beam beam = new Beam(start, end);
+            beam.start();
+            if(i < movingCount) {
+                this.movingBeams[i] = beam;
+                this.movingCentres[i] = start.clone().add(0.0D, 4.0D, 0.0D);
+                this.movingEnds[i] = end;
+            }
+        }
+
+        int clientBeams = (int) getLong("clientBeams", 0);
+        for(int i = 0; i < playerCount; i++) {
+            for(int j = 0; j < clientBeams; j++) {
+                Location start = this.positions[i].clone().add(spread(), 0.0D, spread());
+                new ClientBeam(this.players[i], start, start.clone().add(spread() / 8.0D, 4.0D, spread() / 8.0D)).start();
+            }
+        }
+    }
+
+    private SimulationReport run() {
+        int warmup = (int) getLong("warmup", 1000);
+        int ticks = (int) getLong("ticks", 6000);
+        PacketCounter counter = this.server.getPacketCounter();
+
+        for(int tick = 0; tick < warmup; tick++) {
+            tick(tick);
+        }
+        counter.drainTo(new PacketCounter.Emitted());
+        counter.drainPlayers();
+
+        SimulationReport report = new SimulationReport(this.players.length, ticks, TICKS_PER_SECOND);
+        report.recordHeap(usedHeapAfterGc());
+        PacketCounter.Emitted emitted = new PacketCounter.Emitted();
+        Map<UUID, long[]> perPlayer = new HashMap<>();
+        for(int tick = 0; tick < ticks; tick++) {
+            long start = System.nanoTime();
+            tick(warmup + tick);
+            report.recordTick(System.nanoTime() - start);
+
+            for(Map.Entry<UUID, long[]> entry : counter.drainPlayers().entrySet()) {
+                long[] total = perPlayer.get(entry.getKey());
+                if(total == null) {
+                    perPlayer.put(entry.getKey(), entry.getValue());
+                } else {
+                    total[0] += entry.getValue()[0];
+                    total[1] += entry.getValue()[1];
+                }
+            }
+            if(tick % HEAP_SAMPLE_INTERVAL == HEAP_SAMPLE_INTERVAL - 1) {
+                report.recordHeap(usedHeap());
+            }
+        }
+        counter.drainTo(emitted);
+        report.recordTraffic(emitted.packets, emitted.bytes, new ArrayList<>(perPlayer.values()));
+        report.recordHeap(usedHeapAfterGc());
+        return report;
+    }
+
+    /**
+     * One tick: every player takes a step, the moving beams turn a little, then the library's tasks run.
+     * @param tick number of the tick.
+     */
+    private void tick(int tick) {
+        for(int i = 0; i < this.players.length; i++) {
+            this.paths[i].advance(this.positions[i]);
+            this.server.movePlayer(this.players[i], this.positions[i].clone());
+        }
+
+        double angle = tick * 0.1D;
+        for(int i = 0; i < this.movingBeams.length; i++) {
+            Location centre = this.movingCentres[i];
+            Location end = this.movingEnds[i];
+            end.setX(centre.getX() + Math.cos(angle + i) * BEAM_ORBIT);
+            end.setZ(centre.getZ() + Math.sin(angle + i) * BEAM_ORBIT);
+            this.movingBeams[i].setEndingPosition(end);
+        }
+
+        this.server.tick();
+    }
+
+    private double spread() {
+        return (this.random.nextDouble() * 2.0D - 1.0D) * CLIENT_BEAM_SPREAD;
+    }
+
+    private static long usedHeapAfterGc() {
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return usedHeap();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String getString(String key, String defaultValue) {
+        String value = this.options.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = this.options.get(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private double getDouble(String key, double defaultValue) {
+        String value = this.options.get(key);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = this.options.get(key);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.simulation;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Location;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Where a simulated player goes, one tick at a time.
+ * @author Jaxon A Brown
+ */
+public abstract class PlayerPath {
+    /**
+     * Moves the location to where the player stands on the next tick.
+     * @param location the player's location, changed in place.
+     */
+    public abstract void advance(Location location);
+
+    /**
+     * Create a path for another player, which keeps its own place along the way.
+     * @return a new path, starting where this path started.
+     */
+    public abstract PlayerPath copy();
+
+    /**
+     * Create a path which walks to random points of a square area, one after another.
+     * @param random source of the points.
+     * @param size length of the sides of the area, which starts at the origin.
+     * @param speed blocks walked per tick.
+     * @return a new path.
+     */
+    public static PlayerPath random(Random random, double size, double speed) {
+        return new RandomWalk(random, size, speed);
+    }
+
+    /**
+     * Loads recorded paths. Each line of the file holds the x, y and z of one tick, separated by spaces,
+     * and blank lines separate the paths of different players. Players replay their path in a loop.
+     * @param file the recording.
+     * @return the paths in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<PlayerPath> load(File file) throws IOException {
+        List<PlayerPath> paths = new ArrayList<>();
+        List<double[]> points = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty()) {
+                    if(!points.isEmpty()) {
+                        paths.add(new RecordedPath(points));
+                        points = new ArrayList<>();
+                    }
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                Preconditions.checkArgument(parts.length == 3, "Expected x y z but got: " + line);
+                points.add(new double[] {Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2])});
+            }
+        }
+        if(!points.isEmpty()) {
+            paths.add(new RecordedPath(points));
+        }
+        return paths;
+    }
+
+    private static class RandomWalk extends PlayerPath {
+        private final Random random;
+        private final double size;
+        private final double speed;
+        private double targetX, targetZ;
+        private boolean hasTarget;
+
+        private RandomWalk(Random random, double size, double speed) {
+            this.random = random;
+            this.size = size;
+            this.speed = speed;
+        }
+
+        @Override
+        public void advance(Location location) {
+            if(!this.hasTarget) {
+                this.targetX = this.random.nextDouble() * this.size;
+                this.targetZ = this.random.nextDouble() * this.size;
+                this.hasTarget = true;
+            }
+
+            double dx = this.targetX - location.getX();
+            double dz = this.targetZ - location.getZ();
+            double distance = Math.sqrt(dx * dx + dz * dz);
+            if(distance <= this.speed) {
+                location.setX(this.targetX);
+                location.setZ(this.targetZ);
+                this.hasTarget = false;
+            } else {
+                location.setX(location.getX() + dx / distance * this.speed);
+                location.setZ(location.getZ() + dz / distance * this.speed);
+            }
+        }
+
+        @Override
+        public PlayerPath copy() {
+            return new RandomWalk(new Random(this.random.nextLong()), this.size, this.speed);
+        }
+    }
+
+    private static class RecordedPath extends PlayerPath {
+        private final double[][] points;
+        private int next;
+
+        private RecordedPath(List<double[]> points) {
+            this.points = points.toArray(new double[points.size()][]);
+        }
+
+        private RecordedPath(double[][] points) {
+            this.points = points;
+        }
+
+        @Override
+        public void advance(Location location) {
+            double[] point = this.points[this.next];
+            this.next = (this.next + 1) % this.points.length;
+            location.setX(point[0]);
+            location.setY(point[1]);
+            location.setZ(point[2]);
+        }
+
+        @Override
+        public PlayerPath copy() {
+            return new RecordedPath(this.points);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.simulation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What a LoadSimulation measured: the time of every tick, the traffic to the players and the used heap over time.
+ * @author Jaxon A Brown
+ */
+public class SimulationReport {
+    private static final double[] PERCENTILES = {0.5D, 0.9D, 0.99D, 0.999D, 1.0D};
+    private static final double NANOS_PER_MILLI = 1000000.0D;
+    private static final double BYTES_PER_MEGABYTE = 1024.0D * 1024.0D;
+
+    private final int players;
+    private final double seconds;
+    private final long[] tickTimes;
+    private final List<Long> heapSamples;
+    private int recordedTicks;
+    private long packets;
+    private long bytes;
+    private long busiestPackets;
+    private long busiestBytes;
+
+    /**
+     * Create an empty report.
+     * @param players number of simulated players.
+     * @param ticks number of ticks measured.
+     * @param ticksPerSecond ticks in a second of the simulated server.
+     */
+    SimulationReport(int players, int ticks, double ticksPerSecond) {
+        this.players = players;
+        this.seconds = ticks / ticksPerSecond;
+        this.tickTimes = new long[ticks];
+        this.heapSamples = new ArrayList<>();
+    }
+
+    void recordTick(long nanos) {
+        this.tickTimes[this.recordedTicks++] = nanos;
+    }
+
+    void recordHeap(long bytes) {
+        this.heapSamples.add(bytes);
+    }
+
+    /**
+     * Records the traffic of the measured ticks.
+     * @param packets packets sent to every player.
+     * @param bytes bytes sent to every player, or 0 if sizes were not measured.
+     * @param perPlayer packets and bytes sent to each player.
+     */
+    void recordTraffic(long packets, long bytes, List<long[]> perPlayer) {
+        this.packets = packets;
+        this.bytes = bytes;
+        for(long[] counts : perPlayer) {
+            this.busiestPackets = Math.max(this.busiestPackets, counts[0]);
+            this.busiestBytes = Math.max(this.busiestBytes, counts[1]);
+        }
+    }
+
+    /**
+     * Get the tick time below which the given share of the measured ticks fall.
+     * @param percentile share between 0 and 1, such as 0.99.
+     * @return tick time in nanoseconds.
+     */
+    public long getTickTime(double percentile) {
+        long[] sorted = Arrays.copyOf(this.tickTimes, this.recordedTicks);
+        Arrays.sort(sorted);
+        if(sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * Get the growth of the heap still in use after garbage collection, from before the measured ticks to after them.
+     * @return growth in bytes.
+     */
+    public long getHeapGrowth() {
+        return this.heapSamples.size() < 2 ? 0 : this.heapSamples.get(this.heapSamples.size() - 1) - this.heapSamples.get(0);
+    }
+
+    public void print(PrintStream out) {
+        out.println("Simulated " + this.recordedTicks + " ticks (" + this.seconds + " seconds) with " + this.players + " players");
+
+        StringBuilder times = new StringBuilder("Tick time:");
+        for(double percentile : PERCENTILES) {
+            times.append(String.format(" p%s %.3f ms", formatPercentile(percentile), getTickTime(percentile) / NANOS_PER_MILLI));
+        }
+        out.println(times);
+
+        double playerSeconds = this.players * this.seconds;
+        out.println(String.format("Packets: %.1f per player per second, %.1f for the busiest player",
+                playerSeconds == 0 ? 0 : this.packets / playerSeconds, this.busiestPackets / this.seconds));
+        if(this.bytes > 0) {
+            out.println(String.format("Bytes: %.1f per player per second, %.1f for the busiest player",
+                    this.bytes / playerSeconds, this.busiestBytes / this.seconds));
+        }
+
+        StringBuilder heap = new StringBuilder("Used heap (MB):");
+        for(long sample : this.heapSamples) {
+            heap.append(String.format(" %.1f", sample / BYTES_PER_MEGABYTE));
+        }
+        out.println(heap);
+        out.println(String.format("Heap growth after GC: %.2f MB", getHeapGrowth() / BYTES_PER_MEGABYTE));
+    }
+
+    private static String formatPercentile(double percentile) {
+        String formatted = Double.toString(percentile * 100.0D);
+        return formatted.endsWith(".0") ? formatted.substring(0, formatted.length() - 2) : formatted;
+    }
+}
@@ -17,15 +17,25 @@
  */
 package net.jaxonbrown.guardianBeam;
 
+import com.comphenix.protocol.PacketType;
 import lombok.Getter;
+import net.jaxonbrown.guardianBeam.beam.BeamManager;
+import net.jaxonbrown.guardianBeam.beam.BeamMetrics;
+import net.jaxonbrown.guardianBeam.beam.BeamStore;
+import net.jaxonbrown.guardianBeam.protocol.BeamProtocolCodecs;
+import net.jaxonbrown.guardianBeam.protocol.PacketDispatcher;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.util.UUID;
+
 /**
  * GuardianBeamAPI containing plugin.
  * @author Jaxon A Brown
@@ -35,6 +45,12 @@ public class GuardianBeamAPI extends JavaPlugin {
     private static GuardianBeamAPI instance;
 
     private String protocolLibVersion;
+    @Getter
+    private BeamManager beamManager;
+    @Getter
+    private PacketDispatcher packetDispatcher;
+    @Getter
+    private BeamStore beamStore;
 
     public void onEnable() {
         GuardianBeamAPI.instance = this;
@@ -46,6 +62,37 @@ public class GuardianBeamAPI extends JavaPlugin {
             this.getLogger().severe(ChatColor.RED + "GuardianBeamAPI could not start because " +
                     ChatColor.YELLOW + "ProtocolLib" + ChatColor.RED + " was not installed.");
             Bukkit.getPluginManager().disablePlugin(this);
+            return;
+        }
+
+        try {
+            BeamProtocolCodecs.get();
+        } catch(IllegalStateException ex) {
+            this.getLogger().severe(ChatColor.RED + "GuardianBeamAPI could not start because " + ex.getMessage() + ".");
+            Bukkit.getPluginManager().disablePlugin(this);
+            return;
+        }
+
+        this.beamManager = new BeamManager(this);
+        this.beamManager.start();
+        this.packetDispatcher = new PacketDispatcher(this, this.beamManager.getMetrics());
+        this.packetDispatcher.start();
+        this.beamStore = new BeamStore(this, new File(this.getDataFolder(), "beams"));
+        this.beamStore.start();
+    }
+
+    public void onDisable() {
+        if(this.beamStore != null) {
+            this.beamStore.shutdown();
+            this.beamStore = null;
+        }
+        if(this.beamManager != null) {
+            this.beamManager.shutdown();
+            this.beamManager = null;
+        }
+        if(this.packetDispatcher != null) {
+            this.packetDispatcher.shutdown();
+            this.packetDispatcher = null;
         }
     }
 
@@ -53,6 +100,15 @@ public class GuardianBeamAPI extends JavaPlugin {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if(command.getName().equalsIgnoreCase("GuardianBeamAPI")) {
             if(sender instanceof Player && sender.isOp() || sender instanceof ConsoleCommandSender) {
+                if(args.length > 0 && args[0].equalsIgnoreCase("stats") && this.beamManager != null) {
+                    if(args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                        this.beamManager.getMetrics().reset();
+                        sender.sendMessage(ChatColor.RED + "GuardianBeamAPI stats were reset.");
+                    } else {
+                        sendStats(sender, this.beamManager.getMetrics());
+                    }
+                    return true;
+                }
                 sender.sendMessage(ChatColor.RED + "GuardianBeamAPI v" + this.getDescription().getVersion() + " by " +
                         this.getDescription().getAuthors().get(0) + " is enabled and linked with Protocol Library v" +
                         this.protocolLibVersion + ".");
@@ -61,4 +117,36 @@ public class GuardianBeamAPI extends JavaPlugin {
         }
         return false;
     }
+
+    private void sendStats(CommandSender sender, BeamMetrics metrics) {
+        long ticks = Math.max(1, metrics.getTicks());
+        sender.sendMessage(ChatColor.RED + "GuardianBeamAPI stats over the last " + metrics.getTicks() + " ticks:");
+        sender.sendMessage(ChatColor.YELLOW + "All worlds: " + ChatColor.WHITE + metrics.getActiveBeams() + " beams, " +
+                metrics.getViewers() + " viewers, update time p50 " + metrics.getUpdateTime(0.5D) + "ns, p99 " +
+                metrics.getUpdateTime(0.99D) + "ns, tick time p50 " + metrics.getTickTime(0.5D) + "ns, p99 " +
+                metrics.getTickTime(0.99D) + "ns");
+        for(PacketType type : metrics.getPacketTypes()) {
+            sender.sendMessage(ChatColor.YELLOW + "  " + type.name() + ": " + ChatColor.WHITE +
+                    perTick(metrics.getPackets(type), ticks) + " packets, " + perTick(metrics.getBytes(type), ticks) + " bytes per tick");
+        }
+
+        for(UUID worldUID : metrics.getWorlds()) {
+            long packets = 0;
+            long bytes = 0;
+            for(PacketType type : metrics.getPacketTypes()) {
+                packets += metrics.getPackets(worldUID, type);
+                bytes += metrics.getBytes(worldUID, type);
+            }
+            World world = Bukkit.getWorld(worldUID);
+            sender.sendMessage(ChatColor.YELLOW + (world != null ? world.getName() : worldUID.toString()) + ": " +
+                    ChatColor.WHITE + metrics.getActiveBeams(worldUID) + " beams, " + metrics.getViewers(worldUID) +
+                    " viewers, update time p50 " + metrics.getUpdateTime(worldUID, 0.5D) + "ns, p99 " +
+                    metrics.getUpdateTime(worldUID, 0.99D) + "ns, " + perTick(packets, ticks) + " packets, " +
+                    perTick(bytes, ticks) + " bytes per tick");
+        }
+    }
+
+    private static String perTick(long total, long ticks) {
+        return String.format("%.1f", (double) total / ticks);
+    }
 }
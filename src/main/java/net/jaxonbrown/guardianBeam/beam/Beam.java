@@ -18,34 +18,71 @@
 package net.jaxonbrown.guardianBeam.beam;
 
 import com.google.common.base.Preconditions;
+import com.comphenix.protocol.ProtocolLibrary;
 import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.UUID;
 
 /**
  * Creates a guardian beam between two locations.
  * This uses ProtocolLib to send two entities: A guardian and a squid.
  * The guardian is then set to target the squid.
+ * While running, beams starting at the same position share a single squid, and beams starting at an entity target
+ * the entity itself instead.
  * @author Jaxon A Brown
  */
 public class Beam {
+    /**
+     * Default exit radius, as a multiple of the viewing radius.
+     */
+    static final double DEFAULT_EXIT_FACTOR = 1.1D;
+    private static final int[] DETAIL_INTERVALS = {1, 2, 4};
+
     private final UUID worldUID;
+    private final double viewingRadius;
     private final double viewingRadiusSquared;
     private final long updateDelay;
+    private double exitRadius;
+    private double exitRadiusSquared;
 
     private boolean isActive;
+    private boolean isReleased;
     private final LocationTargetBeam beam;
     private Location startingPosition, endingPosition;
-    private final Set<UUID> viewers;
+    private BitSet viewers;
+    private BitSet nextViewers;
+    private BitSet staleViewers;
+    private byte[] viewerTiers;
+    private double seenDistanceSquared;
+    private boolean isSyncScheduled;
+    private boolean isDirty;
+    private boolean isQueued;
+
+    private boolean isDeferred;
+    private boolean isFlushScheduled;
+    private Location pendingStartingPosition, pendingEndingPosition;
+
+    private BeamAnimation animation;
+    private int animationFrame;
+    private Location animatedStartingPosition, animatedEndingPosition;
+    private boolean isAnimationScheduled;
 
-    private BukkitRunnable runnable;
+    private BeamManager manager;
+    private PlayerIndex playerIndex;
+
+    private final LivingEntity startingEntity;
+    private final Endpoint entityEndpoint;
+    private final BitSet entityTrackers;
+    private long entityTrackersTick;
+    private boolean isFollowScheduled;
 
     /**
      * Create a guardian beam for anyone to see. This sets up the packets.
@@ -60,10 +97,50 @@ public class Beam {
      * Create a guardian beam for anyone to see. This sets up the packets.
      * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
      * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
-     * @param viewingRadius Radius from either node of the beam from which it can be seen.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
      * @param updateDelay Delay between checking if the beam should be hidden or shown to potentially applicable players.
      */
     public Beam(Location startingPosition, Location endingPosition, double viewingRadius, long updateDelay) {
+        this(null, startingPosition, null, endingPosition, viewingRadius, updateDelay);
+    }
+
+    /**
+     * Create a guardian beam which starts at an entity, for anyone to see.
+     * The guardian targets the entity itself, so the beam follows it on the client without any packets being sent.
+     * The beam is only shown to players whose client is tracking the entity, and is hidden while the entity is dead.
+     * @param startingEntity Entity to start the beam at, or the entity which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     */
+    public Beam(LivingEntity startingEntity, Location endingPosition) {
+        this(startingEntity, endingPosition, 100D, 5);
+    }
+
+    /**
+     * Create a guardian beam which starts at an entity, for anyone to see.
+     * The guardian targets the entity itself, so the beam follows it on the client without any packets being sent.
+     * The beam is only shown to players whose client is tracking the entity, and is hidden while the entity is dead.
+     * @param startingEntity Entity to start the beam at, or the entity which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
+     * @param updateDelay Delay between checking if the beam should be hidden or shown to potentially applicable players.
+     */
+    public Beam(LivingEntity startingEntity, Location endingPosition, double viewingRadius, long updateDelay) {
+        this(null, Preconditions.checkNotNull(startingEntity, "startingEntity cannot be null").getLocation(), startingEntity, endingPosition, viewingRadius, updateDelay);
+    }
+
+    /**
+     * Create a guardian beam around packets which were set up elsewhere.
+     * @param beam packets of the beam.
+     * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
+     * @param updateDelay Delay between checking if the beam should be hidden or shown to potentially applicable players.
+     */
+    Beam(LocationTargetBeam beam, Location startingPosition, Location endingPosition, double viewingRadius, long updateDelay) {
+        this(Preconditions.checkNotNull(beam, "beam cannot be null"), startingPosition, null, endingPosition, viewingRadius, updateDelay);
+    }
+
+    private Beam(LocationTargetBeam beam, Location startingPosition, LivingEntity startingEntity, Location endingPosition, double viewingRadius, long updateDelay) {
         Preconditions.checkNotNull(startingPosition, "startingPosition cannot be null");
         Preconditions.checkNotNull(endingPosition, "endingPosition cannot be null");
         Preconditions.checkState(startingPosition.getWorld().equals(endingPosition.getWorld()), "startingPosition and endingPosition must be in the same world");
@@ -71,116 +148,261 @@ public class Beam {
         Preconditions.checkArgument(updateDelay >= 1, "viewingRadius must be a natural number");
 
         this.worldUID = startingPosition.getWorld().getUID();
+        this.viewingRadius = viewingRadius;
         this.viewingRadiusSquared = viewingRadius * viewingRadius;
         this.updateDelay = updateDelay;
+        this.exitRadius = viewingRadius * DEFAULT_EXIT_FACTOR;
+        this.exitRadiusSquared = this.exitRadius * this.exitRadius;
 
         this.isActive = false;
-        this.beam = new LocationTargetBeam(startingPosition, endingPosition);
+        this.beam = beam != null ? beam : new LocationTargetBeam(startingPosition, endingPosition);
+        this.beam.setOwner(this);
         this.startingPosition = startingPosition;
         this.endingPosition = endingPosition;
-        this.viewers = new HashSet<>();
+        this.viewers = new BitSet();
+        this.nextViewers = new BitSet();
+        this.staleViewers = new BitSet();
+        this.viewerTiers = new byte[0];
+
+        this.startingEntity = startingEntity;
+        this.entityEndpoint = startingEntity != null ? new Endpoint(startingEntity) : null;
+        this.entityTrackers = startingEntity != null ? new BitSet() : null;
+        this.entityTrackersTick = -1;
     }
 
     /**
      * Send the packets to create the beam to applicable players.
-     * This also starts the runnable which will make the effect visible if it becomes applicable to a player.
+     * This also registers the beam with the BeamManager, which will make the effect visible if it becomes applicable to a player.
      */
     public void start() {
+        activate();
+        update(this.startingPosition.getWorld().getPlayers());
+    }
+
+    /**
+     * Registers the beam with the BeamManager without checking who should see it, for callers who check many beams
+     * at once.
+     */
+    void activate() {
         Preconditions.checkState(!this.isActive, "The beam must be disabled in order to start it");
+        Preconditions.checkState(!this.isReleased, "The beam has been released");
 
         this.isActive = true;
-        (this.runnable = new BeamUpdater()).runTaskTimer(GuardianBeamAPI.getInstance(), 0, this.updateDelay);
+        (this.manager = GuardianBeamAPI.getInstance().getBeamManager()).register(this);
+        this.playerIndex = this.manager.getPlayerIndex();
+        scheduleAnimation();
+        scheduleFollow();
+    }
+
+    /**
+     * Checks if the beam was released.
+     * @return True if released.
+     */
+    boolean isReleased() {
+        return this.isReleased;
     }
 
     /**
      * Send the packets to remove the beam from the player, if applicable.
-     * This also stops the runnable.
+     * This also unregisters the beam from the BeamManager.
      */
     public void stop() {
         Preconditions.checkState(this.isActive, "The beam must be enabled in order to stop it");
 
         this.isActive = false;
-        for(UUID uuid : viewers) {
-            Player player = Bukkit.getPlayer(uuid);
-            if(player != null && player.getWorld().getUID().equals(this.worldUID) && isCloseEnough(player.getLocation())) {
-                this.beam.cleanup(player);
-            }
+        for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+            hide(index);
         }
         this.viewers.clear();
-        this.runnable.cancel();
-        this.runnable = null;
+        this.staleViewers.clear();
+        this.manager.unregister(this);
+        this.manager = null;
+    }
+
+    /**
+     * Stops the beam if it is running and frees its entity ids for other beams.
+     * The beam cannot be started again afterwards.
+     */
+    public void release() {
+        Preconditions.checkState(!this.isReleased, "The beam has already been released");
+
+        if(this.isActive) {
+            stop();
+        }
+        this.isReleased = true;
+        this.beam.release();
     }
 
     /**
      * Sets the starting position of the beam, or the position which the effect 'moves towards'.
+     * Viewers who are no longer close enough are removed on the beam's next update.
      * @param location the starting position.
      */
     public void setStartingPosition(Location location) {
+        Preconditions.checkState(this.startingEntity == null, "The beam starts at an entity");
         Preconditions.checkArgument(location.getWorld().getUID().equals(this.worldUID), "location must be in the same world as this beam");
 
         this.startingPosition = location;
-        Iterator<UUID> iterator = this.viewers.iterator();
-        while(iterator.hasNext()) {
-            UUID uuid = iterator.next();
-            Player player = Bukkit.getPlayer(uuid);
-
-            if(player == null || !player.isOnline() || !player.getWorld().getUID().equals(this.worldUID) || !isCloseEnough(player.getLocation())) {
-                iterator.remove();
-                continue;
-            }
-
-            this.beam.setStartingPosition(player, location);
+        moved();
+        if(this.isDeferred && this.isActive) {
+            this.pendingStartingPosition = location;
+            scheduleFlush();
+            return;
         }
+
+        this.pendingStartingPosition = null;
+        sendStartingPosition(location);
     }
 
     /**
      * Sets the ending position of the beam, or the position which the effect 'moves away from'.
+     * Viewers who are no longer close enough are removed on the beam's next update.
      * @param location the ending position.
      */
     public void setEndingPosition(Location location) {
         Preconditions.checkArgument(location.getWorld().getUID().equals(this.worldUID), "location must be in the same world as this beam");
 
         this.endingPosition = location;
-        Iterator<UUID> iterator = this.viewers.iterator();
-        while(iterator.hasNext()) {
-            UUID uuid = iterator.next();
-            Player player = Bukkit.getPlayer(uuid);
+        moved();
+        if(this.isDeferred && this.isActive) {
+            this.pendingEndingPosition = location;
+            scheduleFlush();
+            return;
+        }
 
-            if(!player.isOnline() || !player.getWorld().getUID().equals(this.worldUID) || !isCloseEnough(player.getLocation())) {
-                iterator.remove();
-                continue;
-            }
+        this.pendingEndingPosition = null;
+        sendEndingPosition(location);
+    }
 
-            this.beam.setEndingPosition(player, location);
+    /**
+     * Sets the radius beyond which viewers stop seeing the beam. Players start seeing the beam within the viewing
+     * radius, so those standing between the two radii are neither shown nor hidden the beam as they move about.
+     * @param exitRadius the exit radius, no smaller than the viewing radius.
+     */
+    public void setExitRadius(double exitRadius) {
+        Preconditions.checkArgument(exitRadius >= this.viewingRadius, "exitRadius cannot be smaller than the viewing radius");
+
+        this.exitRadius = exitRadius;
+        this.exitRadiusSquared = exitRadius * exitRadius;
+        if(this.isActive) {
+            this.manager.updateBounds(this);
         }
     }
 
+    /**
+     * Get the radius beyond which viewers stop seeing the beam.
+     * @return the exit radius.
+     */
+    public double getExitRadius() {
+        return this.exitRadius;
+    }
+
+    /**
+     * Plays an animation on the beam, replacing any animation already playing.
+     * The BeamManager moves every animated beam once per tick while the beam is active. Setting a position which is
+     * animated only lasts until the next frame.
+     * @param animation animation to play.
+     */
+    public void animate(BeamAnimation animation) {
+        Preconditions.checkNotNull(animation, "animation cannot be null");
+        Preconditions.checkArgument(animation.getStartingPath() == null || this.startingEntity == null, "The beam starts at an entity");
+        Preconditions.checkArgument(animation.getStartingPath() == null || animation.getStartingPath().getWorld().getUID().equals(this.worldUID),
+                "animation must be in the same world as this beam");
+        Preconditions.checkArgument(animation.getEndingPath() == null || animation.getEndingPath().getWorld().getUID().equals(this.worldUID),
+                "animation must be in the same world as this beam");
+
+        this.animation = animation;
+        this.animationFrame = 0;
+        if(animation.getStartingPath() != null) {
+            this.animatedStartingPosition = this.startingPosition.clone();
+        }
+        if(animation.getEndingPath() != null) {
+            this.animatedEndingPosition = this.endingPosition.clone();
+        }
+        scheduleAnimation();
+    }
+
+    /**
+     * Stops the animation playing on the beam. The beam stays where the animation left it.
+     */
+    public void stopAnimation() {
+        this.animation = null;
+    }
+
+    /**
+     * Checks if an animation is playing on the beam.
+     * @return True if animating.
+     */
+    public boolean isAnimating() {
+        return this.animation != null;
+    }
+
+    /**
+     * Sets whether changes to the beam are sent straight away, or collected and sent once by the BeamManager at the end
+     * of the tick. While deferred, only the last position set during a tick is sent.
+     * Showing and hiding the beam is always settled once per tick by each player's BeamTracker.
+     * @param deferred True to collect changes until the end of the tick.
+     */
+    public void setDeferred(boolean deferred) {
+        this.isDeferred = deferred;
+        if(!deferred && this.isFlushScheduled) {
+            flush();
+        }
+    }
+
+    /**
+     * Checks if changes to the beam are collected until the end of the tick.
+     * @return True if deferred.
+     */
+    public boolean isDeferred() {
+        return this.isDeferred;
+    }
+
     /**
      * Checks if any packets need to be sent to show or hide the beam to any applicable player.
      */
     public void update() {
+        update(Bukkit.getOnlinePlayers());
+    }
+
+    /**
+     * Checks if any packets need to be sent to show or hide the beam to any of the given players.
+     * @param players players to check, usually those in the beam's world.
+     */
+    void update(Collection<? extends Player> players) {
         if(this.isActive) {
-            for(Player player : Bukkit.getOnlinePlayers()) {
-                UUID uuid = player.getUniqueId();
+            for(Player player : players) {
+                int index = this.playerIndex.indexOf(player);
+                if(index < 0) {
+                    continue;
+                }
 
                 if(!player.getWorld().getUID().equals(this.worldUID)) {
-                    this.viewers.remove(uuid);
-                    return;
+                    this.viewers.clear(index);
+                    continue;
                 }
 
-                if(isCloseEnough(player.getLocation())) {
-                    if(!this.viewers.contains(uuid)) {
-                        this.beam.start(player);
-                        this.viewers.add(uuid);
+                if(canSee(index, player.getLocation())) {
+                    if(!this.viewers.get(index)) {
+                        show(index);
+                        this.viewers.set(index);
                     }
-                } else if(this.viewers.contains(uuid)) {
-                    this.beam.cleanup(player);
-                    this.viewers.remove(uuid);
+                } else if(this.viewers.get(index)) {
+                    hide(index);
+                    this.viewers.clear(index);
                 }
             }
         }
     }
 
+    /**
+     * Get the entity the beam starts at.
+     * @return the entity, or null if the beam starts at a position.
+     */
+    public LivingEntity getStartingEntity() {
+        return this.startingEntity;
+    }
+
     /**
      * Checks if the beam is active (will show when applicable).
      * @return True if active.
@@ -195,18 +417,521 @@ public class Beam {
      * @return True if viewing.
      */
     public boolean isViewing(Player player) {
-        return this.viewers.contains(player.getUniqueId());
+        if(this.playerIndex == null) {
+            return false;
+        }
+        int index = this.playerIndex.indexOf(player);
+        return index >= 0 && this.viewers.get(index);
+    }
+
+    /**
+     * Starts a grid-driven update. Players are then offered to the beam with #offer, and #finishUpdate hides it from
+     * any viewer who was not offered.
+     */
+    void prepareUpdate() {
+        this.nextViewers.clear();
+    }
+
+    /**
+     * Offers a nearby player during a grid-driven update. The beam is shown to them if they are close enough.
+     * @param index index of a player near the beam.
+     * @param location the player's location.
+     */
+    void offer(int index, Location location) {
+        if(this.isActive && !this.nextViewers.get(index) && canSee(index, location)) {
+            this.nextViewers.set(index);
+            if(!this.viewers.get(index)) {
+                show(index);
+            }
+        }
+    }
+
+    /**
+     * Finishes a grid-driven update, hiding the beam from every viewer who was not offered.
+     */
+    void finishUpdate() {
+        this.isDirty = false;
+        if(this.isActive) {
+            for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+                if(!this.nextViewers.get(index)) {
+                    hide(index);
+                }
+            }
+
+            BitSet previous = this.viewers;
+            this.viewers = this.nextViewers;
+            this.nextViewers = previous;
+        }
+        this.nextViewers.clear();
+    }
+
+    /**
+     * Starts an update worked out on the visibility pool. The beam counts as up to date from here, so moves made while
+     * the job runs queue it again.
+     * @return a copy of the viewers, for the job to work from.
+     */
+    BitSet prepareSnapshot() {
+        this.isDirty = false;
+        return (BitSet) this.viewers.clone();
+    }
+
+    /**
+     * Applies the viewers worked out on the visibility pool. Players whose view of the beam changed on the main thread
+     * since the snapshot was taken keep what the main thread decided, and so do players who took over the index of
+     * a player from the snapshot.
+     * @param snapshot the viewers when the snapshot was taken.
+     * @param unchanged indices which still belong to the same player as when the snapshot was taken.
+     * @param indices indices of the players who can see the beam, by the snapshot.
+     * @param distancesSquared squared distances of those players to the beam.
+     * @param count number of players who can see the beam.
+     */
+    void applySnapshot(BitSet snapshot, BitSet unchanged, int[] indices, double[] distancesSquared, int count) {
+        if(!this.isActive) {
+            return;
+        }
+
+        this.nextViewers.clear();
+        for(int i = 0; i < count; i++) {
+            int index = indices[i];
+            this.nextViewers.set(index);
+            if(this.viewers.get(index) != snapshot.get(index) || !unchanged.get(index) || getViewer(index) == null) {
+                continue;
+            }
+            setTier(index, distancesSquared[i]);
+            if(!this.viewers.get(index)) {
+                this.viewers.set(index);
+                this.seenDistanceSquared = distancesSquared[i];
+                show(index);
+            }
+        }
+        for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+            if(!this.nextViewers.get(index) && snapshot.get(index) && unchanged.get(index)) {
+                this.viewers.clear(index);
+                hide(index);
+            }
+        }
+        this.nextViewers.clear();
+    }
+
+    /**
+     * Shows or hides the beam for a single player, as if they stood at the given location.
+     * @param index index of the player to check.
+     * @param location location of the player, which may be where they are about to move to.
+     */
+    void refresh(int index, Location location) {
+        if(this.isActive) {
+            if(canSee(index, location)) {
+                if(!this.viewers.get(index)) {
+                    this.viewers.set(index);
+                    show(index);
+                }
+            } else if(this.viewers.get(index)) {
+                this.viewers.clear(index);
+                hide(index);
+            }
+        }
+    }
+
+    /**
+     * Forgets a viewer without sending any packets, used when they leave the world or the server.
+     * @param index the viewer's index.
+     */
+    void removeViewer(int index) {
+        this.viewers.clear(index);
+        this.staleViewers.clear(index);
+    }
+
+    /**
+     * Moves the beam to the next frame of its animation. Both ends reuse their own location, so nothing is allocated.
+     * @return True if the animation goes on, false if it ended or the beam is no longer active.
+     */
+    boolean advanceAnimation() {
+        BeamAnimation animation = this.animation;
+        if(!this.isActive || animation == null) {
+            this.isAnimationScheduled = false;
+            return false;
+        }
+
+        int frame = this.animationFrame++;
+        BeamPath startingPath = animation.getStartingPath();
+        if(startingPath != null) {
+            startingPath.apply(frameOf(startingPath, frame, animation.isRepeating()), this.animatedStartingPosition);
+            setStartingPosition(this.animatedStartingPosition);
+        }
+        BeamPath endingPath = animation.getEndingPath();
+        if(endingPath != null) {
+            endingPath.apply(frameOf(endingPath, frame, animation.isRepeating()), this.animatedEndingPosition);
+            setEndingPosition(this.animatedEndingPosition);
+        }
+
+        if(!animation.isRepeating() && this.animationFrame > animation.getDuration()) {
+            this.animation = null;
+            this.isAnimationScheduled = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the starting position of the beam to its entity, for working out who can see it. Nothing is sent, as the
+     * client moves the beam with the entity. The beam is checked again on its update delay, as players may have started
+     * or stopped tracking the entity without anyone moving.
+     * @return True if the beam goes on following its entity, false if it is no longer active.
+     */
+    boolean followEntity() {
+        if(!this.isActive) {
+            this.isFollowScheduled = false;
+            return false;
+        }
+
+        if(this.startingEntity.isValid() && this.startingEntity.getWorld().getUID().equals(this.worldUID)) {
+            this.startingEntity.getLocation(this.startingPosition);
+            this.manager.updateBounds(this);
+        }
+        this.isDirty = true;
+        return true;
+    }
+
+    /**
+     * Sends the last positions collected while deferred to the viewers.
+     */
+    void flush() {
+        this.isFlushScheduled = false;
+
+        if(this.pendingStartingPosition != null) {
+            sendStartingPosition(this.pendingStartingPosition);
+            this.pendingStartingPosition = null;
+        }
+        if(this.pendingEndingPosition != null) {
+            sendEndingPosition(this.pendingEndingPosition);
+            this.pendingEndingPosition = null;
+        }
+    }
+
+    /**
+     * Teleports the beam for viewers who skipped some of its moves, on a tick which suits their level of detail and
+     * if their packet budget allows.
+     * @return True if some viewers are still waiting.
+     */
+    boolean syncViewers() {
+        if(!this.isActive) {
+            this.staleViewers.clear();
+            this.isSyncScheduled = false;
+            return false;
+        }
+
+        long tick = this.manager.getCurrentTick();
+        for(int index = this.staleViewers.nextSetBit(0); index >= 0; index = this.staleViewers.nextSetBit(index + 1)) {
+            Player player = getViewer(index);
+            if(player == null || !this.viewers.get(index)) {
+                this.staleViewers.clear(index);
+                continue;
+            }
+
+            int interval = getDetailInterval(index);
+            BeamTracker tracker = this.playerIndex.getTracker(index);
+            if(tick % interval == 0 && (tracker == null || tracker.spend(2, interval == 1))) {
+                Endpoint endpoint = this.beam.getEndpoint();
+                if(endpoint != null && !endpoint.isEntity() && tracker != null && tracker.hasEndpoint(endpoint)) {
+                    endpoint.sync().send(player);
+                }
+                this.beam.sync(player, endpoint == null);
+                this.staleViewers.clear(index);
+            }
+        }
+
+        if(this.staleViewers.isEmpty()) {
+            this.isSyncScheduled = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the beam moved since it was last updated.
+     * @return True if the beam moved.
+     */
+    boolean isDirty() {
+        return this.isDirty;
+    }
+
+    /**
+     * Checks if the beam is waiting in its world's update queue.
+     * @return True if queued.
+     */
+    boolean isQueued() {
+        return this.isQueued;
+    }
+
+    void setQueued(boolean queued) {
+        this.isQueued = queued;
+    }
+
+    /**
+     * Get the endpoint of the entity the beam starts at.
+     * @return the endpoint, or null if the beam starts at a position.
+     */
+    Endpoint getEntityEndpoint() {
+        return this.entityEndpoint;
+    }
+
+    Endpoint getEndpoint() {
+        return this.beam.getEndpoint();
+    }
+
+    /**
+     * Sets the shared squid which the beam starts at. Only done while the beam has no viewers.
+     * @param endpoint the endpoint, or null for the beam's own squid.
+     */
+    void setEndpoint(Endpoint endpoint) {
+        this.beam.setEndpoint(endpoint);
+    }
+
+    UUID getWorldUID() {
+        return this.worldUID;
+    }
+
+    long getUpdateDelay() {
+        return this.updateDelay;
     }
 
-    private boolean isCloseEnough(Location location) {
-        return startingPosition.distanceSquared(location) <= viewingRadiusSquared ||
-                endingPosition.distanceSquared(location) <= viewingRadiusSquared;
+    double getViewingRadius() {
+        return this.viewingRadius;
     }
 
-    private class BeamUpdater extends BukkitRunnable {
-        @Override
-        public void run() {
-            Beam.this.update();
+    Location getStartingPosition() {
+        return this.startingPosition;
+    }
+
+    Location getEndingPosition() {
+        return this.endingPosition;
+    }
+
+    /**
+     * Deactivates the beam without sending any packets, used when its world is unloaded.
+     */
+    void deactivate() {
+        this.isActive = false;
+        this.viewers.clear();
+        this.staleViewers.clear();
+        this.manager = null;
+    }
+
+    private void show(int index) {
+        BeamTracker tracker = this.playerIndex.getTracker(index);
+        if(tracker != null) {
+            tracker.setVisible(this.beam, true, this.seenDistanceSquared);
+        }
+    }
+
+    private void hide(int index) {
+        this.staleViewers.clear(index);
+        BeamTracker tracker = this.playerIndex.getTracker(index);
+        if(tracker != null) {
+            tracker.setVisible(this.beam, false);
+        }
+    }
+
+    /**
+     * Moves the starting position for the viewers. The beam's own squid is moved while no other beam is at the new
+     * position. A shared endpoint is moved if only this beam uses it, or once every beam using it has moved to the
+     * same position. Otherwise the beam switches to the endpoint at the new position and each viewer's guardian is
+     * pointed at it, see EndpointRegistry#move.
+     * @param location the starting position.
+     */
+    private void sendStartingPosition(Location location) {
+        this.beam.setStartingPosition(location);
+        Endpoint endpoint = this.beam.getEndpoint();
+        Endpoint next = this.isActive ? this.manager.getEndpoints(this.worldUID).move(this, endpoint, location) : endpoint;
+        if(next != endpoint) {
+            switchEndpoint(next);
+        } else if(endpoint == null) {
+            WrappedBeamPacket move = this.beam.getStartingMove();
+            if(move != null) {
+                for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+                    sendMove(index, move);
+                }
+            }
+        } else {
+            WrappedBeamPacket move = endpoint.takeLastMove();
+            if(move != null) {
+                sendEndpointMove(endpoint, move, new BitSet());
+            }
+        }
+    }
+
+    /**
+     * Sends the move of a shared endpoint to the viewers who have its squid, skipping those it was already sent to
+     * for another beam.
+     * @param endpoint the endpoint which moved.
+     * @param move the move packet.
+     * @param sent indices of the players the move was sent to, which is added to.
+     */
+    void sendEndpointMove(Endpoint endpoint, WrappedBeamPacket move, BitSet sent) {
+        for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+            BeamTracker tracker = this.playerIndex.getTracker(index);
+            if(tracker != null && tracker.hasEndpoint(endpoint) && !sent.get(index)) {
+                sent.set(index);
+                sendMove(index, move);
+            }
+        }
+    }
+
+    /**
+     * Switches the beam to another endpoint and points each viewer's guardian at it.
+     * @param endpoint the new endpoint, or null for the beam's own squid.
+     */
+    void switchEndpoint(Endpoint endpoint) {
+        this.beam.setEndpoint(endpoint);
+        for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+            BeamTracker tracker = this.playerIndex.getTracker(index);
+            if(tracker != null) {
+                tracker.retarget(this.beam);
+            }
+        }
+    }
+
+    /**
+     * Moves the ending position for the viewers.
+     * @param location the ending position.
+     */
+    private void sendEndingPosition(Location location) {
+        this.beam.setEndingPosition(location);
+        WrappedBeamPacket move = this.beam.getEndingMove();
+        if(move != null) {
+            for(int index = this.viewers.nextSetBit(0); index >= 0; index = this.viewers.nextSetBit(index + 1)) {
+                sendMove(index, move);
+            }
+        }
+    }
+
+    /**
+     * Sends a move to a viewer if it is due at their level of detail and fits their packet budget. Otherwise the viewer
+     * skips every move until they are teleported to the latest position by #syncViewers.
+     * @param index index of the viewer.
+     * @param move the move packet.
+     */
+    private void sendMove(int index, WrappedBeamPacket move) {
+        Player player = getViewer(index);
+        if(player == null || this.staleViewers.get(index)) {
+            return;
+        }
+
+        int interval = getDetailInterval(index);
+        BeamTracker tracker = this.playerIndex.getTracker(index);
+        if(this.manager.getCurrentTick() % interval == 0 && (tracker == null || tracker.spend(1, interval == 1))) {
+            move.send(player);
+            return;
+        }
+
+        this.staleViewers.set(index);
+        if(!this.isSyncScheduled) {
+            this.isSyncScheduled = true;
+            this.manager.scheduleSync(this);
+        }
+    }
+
+    /**
+     * Get how often a viewer is sent moves, from how far they were when last checked.
+     * Viewers in the nearest third of the viewing radius get every move, those further away every second or fourth.
+     * @param index index of the viewer.
+     * @return the number of ticks between moves.
+     */
+    private int getDetailInterval(int index) {
+        if(!this.manager.isLevelOfDetail() || index >= this.viewerTiers.length) {
+            return 1;
+        }
+        return DETAIL_INTERVALS[this.viewerTiers[index]];
+    }
+
+    /**
+     * Records how far a viewer is, for their level of detail.
+     * @param index index of the viewer.
+     * @param distanceSquared squared distance of the viewer to the beam.
+     */
+    private void setTier(int index, double distanceSquared) {
+        if(index >= this.viewerTiers.length) {
+            this.viewerTiers = Arrays.copyOf(this.viewerTiers, Math.max(index + 1, this.viewerTiers.length * 2));
+        }
+        this.viewerTiers[index] = (byte) (distanceSquared * 9 < this.viewingRadiusSquared ? 0
+                : distanceSquared * 9 < this.viewingRadiusSquared * 4 ? 1 : 2);
+    }
+
+    private Player getViewer(int index) {
+        Player player = this.playerIndex.get(index);
+        return player != null && player.getWorld().getUID().equals(this.worldUID) ? player : null;
+    }
+
+    private void scheduleAnimation() {
+        if(this.isActive && this.animation != null && !this.isAnimationScheduled) {
+            this.isAnimationScheduled = true;
+            this.manager.animate(this);
+        }
+    }
+
+    private static int frameOf(BeamPath path, int frame, boolean repeat) {
+        return repeat ? frame % path.getDuration() : Math.min(frame, path.getDuration());
+    }
+
+    private void scheduleFollow() {
+        if(this.isActive && this.startingEntity != null && !this.isFollowScheduled) {
+            this.isFollowScheduled = true;
+            this.manager.follow(this);
+        }
+    }
+
+    private void scheduleFlush() {
+        if(!this.isFlushScheduled && this.manager != null) {
+            this.isFlushScheduled = true;
+            this.manager.scheduleFlush(this);
+        }
+    }
+
+    private void moved() {
+        if(this.isActive) {
+            this.isDirty = true;
+            this.manager.updateBounds(this);
+        }
+    }
+
+    /**
+     * Checks if a player should see the beam from a location. Beams starting at an entity also need the player's client
+     * to be tracking the entity, or the guardian would have nothing to target.
+     * @param index index of the player.
+     * @param location location of the player.
+     * @return True if the beam should be shown.
+     */
+    private boolean canSee(int index, Location location) {
+        double distanceSquared = BeamGeometry.distanceSquaredToSegment(this.startingPosition, this.endingPosition, location);
+        if(distanceSquared > (this.viewers.get(index) ? this.exitRadiusSquared : this.viewingRadiusSquared)) {
+            return false;
+        }
+        this.seenDistanceSquared = distanceSquared;
+        setTier(index, distanceSquared);
+
+        if(this.startingEntity == null) {
+            return true;
+        }
+
+        long tick = this.manager.getCurrentTick();
+        if(this.entityTrackersTick != tick) {
+            this.entityTrackersTick = tick;
+            this.entityTrackers.clear();
+            if(this.startingEntity.isValid() && this.startingEntity.getWorld().getUID().equals(this.worldUID)) {
+                for(Player tracker : ProtocolLibrary.getProtocolManager().getEntityTrackers(this.startingEntity)) {
+                    int trackerIndex = this.playerIndex.indexOf(tracker);
+                    if(trackerIndex >= 0) {
+                        this.entityTrackers.set(trackerIndex);
+                    }
+                }
+                if(this.startingEntity instanceof Player) {
+                    int selfIndex = this.playerIndex.indexOf((Player) this.startingEntity);
+                    if(selfIndex >= 0) {
+                        this.entityTrackers.set(selfIndex);
+                    }
+                }
+            }
         }
+        return this.entityTrackers.get(index);
     }
 }
\ No newline at end of file
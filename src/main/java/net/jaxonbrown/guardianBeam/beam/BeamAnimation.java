@@ -0,0 +1,80 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Moves either or both ends of a beam along precomputed paths, one frame per tick.
+ * Animations are immutable and may be shared by any number of beams.
+ * @author Jaxon A Brown
+ */
+public class BeamAnimation {
+    private final BeamPath startingPath;
+    private final BeamPath endingPath;
+    private final boolean repeat;
+
+    /**
+     * Create an animation.
+     * @param startingPath path for the starting position, or null to leave it where it is.
+     * @param endingPath path for the ending position, or null to leave it where it is.
+     * @param repeat whether each path starts over once it ends. Otherwise the animation ends with the longest path.
+     */
+    public BeamAnimation(BeamPath startingPath, BeamPath endingPath, boolean repeat) {
+        Preconditions.checkArgument(startingPath != null || endingPath != null, "at least one path is needed");
+        Preconditions.checkArgument(startingPath == null || endingPath == null || startingPath.getWorld().equals(endingPath.getWorld()),
+                "startingPath and endingPath must be in the same world");
+
+        this.startingPath = startingPath;
+        this.endingPath = endingPath;
+        this.repeat = repeat;
+    }
+
+    /**
+     * Get the path of the starting position.
+     * @return the path, or null if the starting position does not move.
+     */
+    public BeamPath getStartingPath() {
+        return this.startingPath;
+    }
+
+    /**
+     * Get the path of the ending position.
+     * @return the path, or null if the ending position does not move.
+     */
+    public BeamPath getEndingPath() {
+        return this.endingPath;
+    }
+
+    /**
+     * Checks if the paths start over once they end.
+     * @return True if repeating.
+     */
+    public boolean isRepeating() {
+        return this.repeat;
+    }
+
+    /**
+     * Get the length of the animation.
+     * @return length of the longest path, in ticks.
+     */
+    public int getDuration() {
+        return Math.max(this.startingPath == null ? 0 : this.startingPath.getDuration(),
+                this.endingPath == null ? 0 : this.endingPath.getDuration());
+    }
+}
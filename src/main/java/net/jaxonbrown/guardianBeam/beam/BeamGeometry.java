@@ -0,0 +1,67 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+
+/**
+ * Geometry helpers for deciding who is close enough to a beam.
+ * @author Jaxon A Brown
+ */
+final class BeamGeometry {
+    private BeamGeometry() {}
+
+    /**
+     * Get the squared distance from a point to the segment between two locations.
+     * @param start one end of the segment.
+     * @param end the other end of the segment.
+     * @param point the point to measure from.
+     * @return squared distance to the closest point on the segment.
+     */
+    static double distanceSquaredToSegment(Location start, Location end, Location point) {
+        return distanceSquaredToSegment(start.getX(), start.getY(), start.getZ(), end.getX(), end.getY(), end.getZ(),
+                point.getX(), point.getY(), point.getZ());
+    }
+
+    /**
+     * Get the squared distance from a point to the segment between (x1, y1, z1) and (x2, y2, z2).
+     * @return squared distance to the closest point on the segment.
+     */
+    static double distanceSquaredToSegment(double x1, double y1, double z1, double x2, double y2, double z2,
+                                           double px, double py, double pz) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double dz = z2 - z1;
+        double lengthSquared = dx * dx + dy * dy + dz * dz;
+
+        double t = 0;
+        if(lengthSquared > 0) {
+            t = ((px - x1) * dx + (py - y1) * dy + (pz - z1) * dz) / lengthSquared;
+            if(t < 0) {
+                t = 0;
+            } else if(t > 1) {
+                t = 1;
+            }
+        }
+
+        double cx = x1 + t * dx - px;
+        double cy = y1 + t * dy - py;
+        double cz = z1 + t * dz - pz;
+        return cx * cx + cy * cy + cz * cz;
+    }
+}
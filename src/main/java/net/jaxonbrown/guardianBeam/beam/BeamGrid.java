@@ -0,0 +1,176 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index of the beams in one world.
+ * Each beam is stored in every chunk-sized cell touched by its bounding box, grown by its viewing radius,
+ * so a player only has to look at the beams indexed in the cell they are standing in.
+ * @param <T> type of the indexed beams.
+ * @author Jaxon A Brown
+ */
+class BeamGrid<T> {
+    static final int CELL_SHIFT = 4;
+
+    private final Map<Long, Set<T>> cells;
+    private final Map<T, int[]> bounds;
+
+    BeamGrid() {
+        this.cells = new HashMap<>();
+        this.bounds = new HashMap<>();
+    }
+
+    /**
+     * Indexes the beam, or re-indexes it if its bounds changed. Only cells which entered or left the bounds are touched.
+     * @param beam beam to index.
+     * @param start starting position of the beam.
+     * @param end ending position of the beam.
+     * @param radius distance from the beam at which it may still be seen.
+     */
+    void update(T beam, Location start, Location end, double radius) {
+        int minX = Location.locToBlock(Math.min(start.getX(), end.getX()) - radius) >> CELL_SHIFT;
+        int minZ = Location.locToBlock(Math.min(start.getZ(), end.getZ()) - radius) >> CELL_SHIFT;
+        int maxX = Location.locToBlock(Math.max(start.getX(), end.getX()) + radius) >> CELL_SHIFT;
+        int maxZ = Location.locToBlock(Math.max(start.getZ(), end.getZ()) + radius) >> CELL_SHIFT;
+
+        int[] previous = this.bounds.get(beam);
+        if(previous != null && previous[0] == minX && previous[1] == minZ && previous[2] == maxX && previous[3] == maxZ) {
+            return;
+        }
+        int[] next = new int[] {minX, minZ, maxX, maxZ};
+        this.bounds.put(beam, next);
+
+        if(previous != null) {
+            for(int x = previous[0]; x <= previous[2]; x++) {
+                for(int z = previous[1]; z <= previous[3]; z++) {
+                    if(!contains(next, x, z)) {
+                        removeFromCell(beam, x, z);
+                    }
+                }
+            }
+        }
+        for(int x = next[0]; x <= next[2]; x++) {
+            for(int z = next[1]; z <= next[3]; z++) {
+                if(previous == null || !contains(previous, x, z)) {
+                    addToCell(beam, x, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the beam from the index.
+     * @param beam beam to remove.
+     */
+    void remove(T beam) {
+        int[] previous = this.bounds.remove(beam);
+        if(previous != null) {
+            for(int x = previous[0]; x <= previous[2]; x++) {
+                for(int z = previous[1]; z <= previous[3]; z++) {
+                    removeFromCell(beam, x, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cells a beam is indexed in.
+     * @param beam the beam.
+     * @return the lowest x and z, then the highest x and z of its cells, or null if it is not indexed. Do not modify.
+     */
+    int[] getBounds(T beam) {
+        return this.bounds.get(beam);
+    }
+
+    /**
+     * Get the beams which might be visible from a location. This is a superset of the visible beams.
+     * @param location location of the viewer.
+     * @return beams indexed in the location's cell. Do not modify.
+     */
+    Set<T> getNearby(Location location) {
+        Set<T> cell = this.cells.get(key(Location.locToBlock(location.getX()) >> CELL_SHIFT, Location.locToBlock(location.getZ()) >> CELL_SHIFT));
+        return cell == null ? Collections.<T>emptySet() : cell;
+    }
+
+    /**
+     * Checks if any of the given cells is within the beam's bounds, meaning someone standing in it might see the beam.
+     * @param beam beam to check.
+     * @param cellX x coordinates of the cells.
+     * @param cellZ z coordinates of the cells.
+     * @param count number of cells to check.
+     * @return True if at least one cell is within the bounds.
+     */
+    boolean touchesAny(T beam, int[] cellX, int[] cellZ, int count) {
+        int[] bounds = this.bounds.get(beam);
+        if(bounds != null) {
+            for(int i = 0; i < count; i++) {
+                if(contains(bounds, cellX[i], cellZ[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the cell coordinate of a block coordinate.
+     * @param coordinate x or z coordinate.
+     * @return the cell coordinate.
+     */
+    static int toCell(double coordinate) {
+        return Location.locToBlock(coordinate) >> CELL_SHIFT;
+    }
+
+    void clear() {
+        this.cells.clear();
+        this.bounds.clear();
+    }
+
+    private void addToCell(T beam, int x, int z) {
+        long key = key(x, z);
+        Set<T> cell = this.cells.get(key);
+        if(cell == null) {
+            this.cells.put(key, cell = new HashSet<>());
+        }
+        cell.add(beam);
+    }
+
+    private void removeFromCell(T beam, int x, int z) {
+        long key = key(x, z);
+        Set<T> cell = this.cells.get(key);
+        if(cell != null && cell.remove(beam) && cell.isEmpty()) {
+            this.cells.remove(key);
+        }
+    }
+
+    private static boolean contains(int[] bounds, int x, int z) {
+        return x >= bounds[0] && x <= bounds[2] && z >= bounds[1] && z <= bounds[3];
+    }
+
+    static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
+import org.bukkit.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Many beams which are started, stopped and moved as a unit, such as the decoration of an arena.
+ * Starting the group checks all of its beams in one pass over each world's players, rather than a pass per beam.
+ * Every beam stopped during a tick is removed by each player's BeamTracker with one packet, so stopping the group costs
+ * each viewer a single packet listing every entity of the group.
+ * @author Jaxon A Brown
+ */
+public class BeamGroup {
+    private final List<Beam> beams;
+    private boolean isActive;
+
+    /**
+     * Create an empty group of beams.
+     */
+    public BeamGroup() {
+        this.beams = new ArrayList<>();
+    }
+
+    /**
+     * Creates a beam in the group. It is started straight away if the group is running.
+     * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     * @return the new beam.
+     */
+    public Beam add(Location startingPosition, Location endingPosition) {
+        return add(new Beam(startingPosition, endingPosition));
+    }
+
+    /**
+     * Creates a beam in the group. It is started straight away if the group is running.
+     * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
+     * @param updateDelay Delay between checking if the beam should be hidden or shown to potentially applicable players.
+     * @return the new beam.
+     */
+    public Beam add(Location startingPosition, Location endingPosition, double viewingRadius, long updateDelay) {
+        return add(new Beam(startingPosition, endingPosition, viewingRadius, updateDelay));
+    }
+
+    /**
+     * Adds a beam to the group. It is started straight away if the group is running.
+     * @param beam beam to add.
+     * @return the beam.
+     */
+    public Beam add(Beam beam) {
+        Preconditions.checkNotNull(beam, "beam cannot be null");
+        Preconditions.checkState(!beam.isReleased(), "The beam has been released");
+
+        this.beams.add(beam);
+        if(this.isActive && !beam.isActive()) {
+            beam.start();
+        }
+        return beam;
+    }
+
+    /**
+     * Removes a beam from the group, leaving it running or stopped as it is.
+     * @param beam beam to remove.
+     * @return True if the beam was in the group.
+     */
+    public boolean remove(Beam beam) {
+        return this.beams.remove(beam);
+    }
+
+    /**
+     * Starts every beam of the group, then checks who should see them in a single pass. Beams already released
+     * elsewhere are skipped. The group only counts as started once every other beam is running, so a failed start
+     * can be retried.
+     */
+    public void start() {
+        Preconditions.checkState(!this.isActive, "The group must be stopped in order to start it");
+
+        for(Beam beam : this.beams) {
+            if(!beam.isActive() && !beam.isReleased()) {
+                beam.activate();
+            }
+        }
+        this.isActive = true;
+        GuardianBeamAPI.getInstance().getBeamManager().updateNow(this.beams);
+    }
+
+    /**
+     * Stops every beam of the group. Each viewer is sent one packet removing them all at the end of the tick.
+     */
+    public void stop() {
+        Preconditions.checkState(this.isActive, "The group must be started in order to stop it");
+
+        this.isActive = false;
+        for(Beam beam : this.beams) {
+            if(beam.isActive()) {
+                beam.stop();
+            }
+        }
+    }
+
+    /**
+     * Stops the group if it is running and releases every beam, emptying the group. Beams already released elsewhere
+     * are skipped.
+     */
+    public void release() {
+        if(this.isActive) {
+            stop();
+        }
+        for(Beam beam : this.beams) {
+            if(!beam.isReleased()) {
+                beam.release();
+            }
+        }
+        this.beams.clear();
+    }
+
+    /**
+     * Moves every beam of the group by the same offset. Ends which follow an entity stay with it.
+     * @param x offset along the x axis.
+     * @param y offset along the y axis.
+     * @param z offset along the z axis.
+     */
+    public void move(double x, double y, double z) {
+        for(Beam beam : this.beams) {
+            if(beam.getStartingEntity() == null) {
+                beam.setStartingPosition(beam.getStartingPosition().clone().add(x, y, z));
+            }
+            beam.setEndingPosition(beam.getEndingPosition().clone().add(x, y, z));
+        }
+    }
+
+    /**
+     * Sets whether changes to the beams of the group are collected and sent once at the end of the tick.
+     * @param deferred True to collect changes until the end of the tick.
+     */
+    public void setDeferred(boolean deferred) {
+        for(Beam beam : this.beams) {
+            beam.setDeferred(deferred);
+        }
+    }
+
+    /**
+     * Checks if the group is running.
+     * @return True if started.
+     */
+    public boolean isActive() {
+        return this.isActive;
+    }
+
+    /**
+     * Get the beams of the group.
+     * @return an unmodifiable view of the beams.
+     */
+    public List<Beam> getBeams() {
+        return Collections.unmodifiableList(this.beams);
+    }
+
+    /**
+     * Get the number of beams in the group.
+     * @return number of beams.
+     */
+    public int size() {
+        return this.beams.size();
+    }
+}
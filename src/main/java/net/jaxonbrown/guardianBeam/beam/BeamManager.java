@@ -0,0 +1,579 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Drives the visibility updates of every running beam from a single scheduled task.
+ * Beams are grouped by world and update delay, so each world's players are only looked up once per tick
+ * no matter how many beams are running.
+ * @author Jaxon A Brown
+ */
+public class BeamManager implements Listener {
+    /**
+     * Default time, in microseconds, which visibility updates may take each tick.
+     */
+    public static final long DEFAULT_UPDATE_BUDGET = 5000;
+
+    private final Plugin plugin;
+    private final Map<UUID, WorldBeams> worlds;
+    private final List<Beam> pendingFlushes;
+    private final List<Beam> animatedBeams;
+    private final List<Beam> followingBeams;
+    private final List<BeamTracker> pendingReconciles;
+    private final List<Beam> pendingSyncs;
+    private final List<WorldBeams> updateOrder;
+    private final PlayerIndex playerIndex;
+    private final BeamMetrics metrics;
+
+    private BukkitRunnable runnable;
+    private long currentTick;
+    private UpdateMode updateMode;
+    private long updateBudget;
+    private boolean isLevelOfDetail;
+    private int playerPacketBudget;
+    private int parallelism;
+    private ForkJoinPool visibilityPool;
+
+    /**
+     * Create a beam manager. It does nothing until it is started.
+     * @param plugin plugin which owns the update task.
+     */
+    public BeamManager(Plugin plugin) {
+        Preconditions.checkNotNull(plugin, "plugin cannot be null");
+
+        this.plugin = plugin;
+        this.worlds = new HashMap<>();
+        this.pendingFlushes = new ArrayList<>();
+        this.animatedBeams = new ArrayList<>();
+        this.followingBeams = new ArrayList<>();
+        this.pendingReconciles = new ArrayList<>();
+        this.pendingSyncs = new ArrayList<>();
+        this.updateOrder = new ArrayList<>();
+        this.playerIndex = new PlayerIndex(this);
+        this.metrics = new BeamMetrics();
+        this.updateMode = UpdateMode.EVENTS;
+        this.updateBudget = DEFAULT_UPDATE_BUDGET;
+        this.isLevelOfDetail = true;
+    }
+
+    /**
+     * Starts the shared update task and listens for worlds being unloaded.
+     */
+    public void start() {
+        Preconditions.checkState(this.runnable == null, "The manager must be stopped in order to start it");
+
+        for(Player player : this.plugin.getServer().getOnlinePlayers()) {
+            this.playerIndex.add(player);
+        }
+
+        this.plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+        this.plugin.getServer().getPluginManager().registerEvents(new ViewerListener(this), this.plugin);
+        (this.runnable = new ManagerUpdater()).runTaskTimer(this.plugin, 1, 1);
+    }
+
+    /**
+     * Stops every running beam, removing them from their viewers, and cancels the shared update task.
+     */
+    public void shutdown() {
+        if(this.runnable != null) {
+            this.runnable.cancel();
+            this.runnable = null;
+        }
+
+        for(WorldBeams world : new ArrayList<>(this.worlds.values())) {
+            world.stopAll();
+        }
+        this.worlds.clear();
+        flushDeferred();
+        reconcileTrackers();
+        this.pendingSyncs.clear();
+        this.playerIndex.clear();
+        if(this.visibilityPool != null) {
+            this.visibilityPool.shutdownNow();
+            this.visibilityPool = null;
+        }
+        this.parallelism = 0;
+    }
+
+    /**
+     * Deactivates every beam in a world at once. No packets are sent, as nobody is left in the world to receive them.
+     * @param worldUID world whose beams should be deactivated.
+     */
+    public void unloadWorld(UUID worldUID) {
+        WorldBeams world = this.worlds.remove(worldUID);
+        if(world != null) {
+            world.deactivateAll();
+        }
+        this.metrics.removeWorld(worldUID);
+    }
+
+    /**
+     * Get the number of beams currently registered with the manager.
+     * @return number of running beams.
+     */
+    public int getBeamCount() {
+        int count = 0;
+        for(WorldBeams world : this.worlds.values()) {
+            count += world.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the runtime metrics of the beams driven by this manager and of the packets they send.
+     * @return metrics of the library.
+     */
+    public BeamMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get how the manager notices players moving in and out of range of beams.
+     * @return the current update mode.
+     */
+    public UpdateMode getUpdateMode() {
+        return this.updateMode;
+    }
+
+    /**
+     * Sets how the manager notices players moving in and out of range of beams.
+     * @param updateMode the new update mode.
+     */
+    public void setUpdateMode(UpdateMode updateMode) {
+        Preconditions.checkNotNull(updateMode, "updateMode cannot be null");
+
+        this.updateMode = updateMode;
+    }
+
+    /**
+     * Get the time which visibility updates may take each tick.
+     * @return the budget in microseconds, or 0 if unlimited.
+     */
+    public long getUpdateBudget() {
+        return this.updateBudget;
+    }
+
+    /**
+     * Sets the time which visibility updates may take each tick. Beams which are due but do not fit are updated on the
+     * following ticks, with beams near players going first.
+     * @param updateBudget the budget in microseconds, or 0 for no limit.
+     */
+    public void setUpdateBudget(long updateBudget) {
+        Preconditions.checkArgument(updateBudget >= 0, "updateBudget cannot be negative");
+
+        this.updateBudget = updateBudget;
+    }
+
+    /**
+     * Checks if viewers far from a beam are sent its moves less often than those nearby.
+     * @return True if the level of detail depends on distance.
+     */
+    public boolean isLevelOfDetail() {
+        return this.isLevelOfDetail;
+    }
+
+    /**
+     * Sets whether viewers far from a beam are sent its moves less often than those nearby. Viewers within a third of
+     * the viewing radius get every move, those within two thirds every second tick, and the rest every fourth tick.
+     * Skipped moves are made up for with a single teleport.
+     * @param levelOfDetail True to send moves less often to distant viewers.
+     */
+    public void setLevelOfDetail(boolean levelOfDetail) {
+        this.isLevelOfDetail = levelOfDetail;
+    }
+
+    /**
+     * Get the number of beam packets each player may be sent per tick.
+     * @return the budget in packets, or 0 if unlimited.
+     */
+    public int getPlayerPacketBudget() {
+        return this.playerPacketBudget;
+    }
+
+    /**
+     * Sets the number of beam packets each player may be sent per tick. Beams to show beyond the budget wait for later
+     * ticks, nearest first, and moves of beams outside the nearest third of their viewing radius are skipped and made up
+     * for later. Hiding beams and moves of nearby beams are always sent.
+     * @param playerPacketBudget the budget in packets, or 0 for no limit.
+     */
+    public void setPlayerPacketBudget(int playerPacketBudget) {
+        Preconditions.checkArgument(playerPacketBudget >= 0, "playerPacketBudget cannot be negative");
+
+        this.playerPacketBudget = playerPacketBudget;
+    }
+
+    /**
+     * Get the number of threads which work out who can see each beam.
+     * @return the number of threads, or 0 if visibility is worked out on the main thread.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Sets the number of threads which work out who can see each beam. With threads, the positions of the players are
+     * copied once per tick and the viewers of queued beams are worked out on a pool, then applied on a later tick.
+     * Beams starting at an entity, client beams and players who move are still handled on the main thread.
+     * @param parallelism the number of threads, or 0 to work out visibility on the main thread.
+     */
+    public void setParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism >= 0, "parallelism cannot be negative");
+
+        if(parallelism == this.parallelism) {
+            return;
+        }
+        if(this.visibilityPool != null) {
+            this.visibilityPool.shutdown();
+        }
+        this.parallelism = parallelism;
+        this.visibilityPool = parallelism == 0 ? null : new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Get the number of ticks the shared update task has run for.
+     * @return the current tick.
+     */
+    public long getCurrentTick() {
+        return this.currentTick;
+    }
+
+    void register(Beam beam) {
+        getWorld(beam.getWorldUID()).add(beam);
+    }
+
+    void unregister(Beam beam) {
+        WorldBeams world = this.worlds.get(beam.getWorldUID());
+        if(world != null) {
+            world.remove(beam);
+        }
+    }
+
+    void updateBounds(Beam beam) {
+        WorldBeams world = this.worlds.get(beam.getWorldUID());
+        if(world != null) {
+            world.updateBounds(beam);
+        }
+    }
+
+    /**
+     * Checks who should see each of the beams straight away, with one pass over the players of each world.
+     * @param beams running beams.
+     */
+    void updateNow(List<Beam> beams) {
+        Map<UUID, List<Beam>> byWorld = new HashMap<>();
+        for(Beam beam : beams) {
+            List<Beam> worldBeams = byWorld.get(beam.getWorldUID());
+            if(worldBeams == null) {
+                byWorld.put(beam.getWorldUID(), worldBeams = new ArrayList<>());
+            }
+            worldBeams.add(beam);
+        }
+        for(Map.Entry<UUID, List<Beam>> entry : byWorld.entrySet()) {
+            WorldBeams world = this.worlds.get(entry.getKey());
+            if(world != null) {
+                world.updateNow(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Get the shared endpoints of the beams in a world.
+     * @param worldUID world of the beams.
+     * @return the endpoints of the world.
+     */
+    EndpointRegistry getEndpoints(UUID worldUID) {
+        return getWorld(worldUID).getEndpoints();
+    }
+
+    /**
+     * Has the beam's deferred changes sent at the end of this tick.
+     * @param beam beam with deferred changes.
+     */
+    void scheduleFlush(Beam beam) {
+        this.pendingFlushes.add(beam);
+    }
+
+    /**
+     * Moves the beam along its animation every tick until the animation ends or the beam stops.
+     * @param beam beam with an animation.
+     */
+    void animate(Beam beam) {
+        this.animatedBeams.add(beam);
+    }
+
+    /**
+     * Moves the beam along with the entity it starts at every tick until the beam stops.
+     * @param beam beam starting at an entity.
+     */
+    void follow(Beam beam) {
+        this.followingBeams.add(beam);
+    }
+
+    /**
+     * Has the tracker send its changes at the end of this tick.
+     * @param tracker tracker of a player who should be shown or hidden beams.
+     */
+    void scheduleReconcile(BeamTracker tracker) {
+        this.pendingReconciles.add(tracker);
+    }
+
+    /**
+     * Has the beam teleported for viewers who skipped its moves, at the end of this tick or once it suits them.
+     * @param beam beam with viewers who skipped moves.
+     */
+    void scheduleSync(Beam beam) {
+        this.pendingSyncs.add(beam);
+    }
+
+    void register(ClientBeam beam) {
+        getWorld(beam.getWorldUID()).add(beam);
+    }
+
+    void unregister(ClientBeam beam) {
+        WorldBeams world = this.worlds.get(beam.getWorldUID());
+        if(world != null) {
+            world.remove(beam);
+        }
+    }
+
+    /**
+     * Indexes a player who joined, so they can be kept in the viewer sets of beams.
+     * @param player player who joined.
+     */
+    void addPlayer(Player player) {
+        this.playerIndex.add(player);
+    }
+
+    /**
+     * Forgets a player who left the server. They are removed from the viewers of the beams in their world, then their
+     * index is freed straight away and may be given to the next player who joins.
+     * @param player player who quit.
+     */
+    void quitPlayer(Player player) {
+        removePlayer(player, player.getWorld().getUID());
+        this.playerIndex.remove(player.getUniqueId());
+    }
+
+    PlayerIndex getPlayerIndex() {
+        return this.playerIndex;
+    }
+
+    /**
+     * Shows or hides the beams around a player who moved, if the manager is driven by events.
+     * @param player player who moved.
+     * @param from where the player moved from, or null if they just appeared in the world.
+     * @param to where the player is moving to.
+     */
+    void refreshPlayer(Player player, Location from, Location to) {
+        if(this.updateMode == UpdateMode.EVENTS) {
+            WorldBeams world = this.worlds.get(to.getWorld().getUID());
+            if(world != null) {
+                world.refresh(player, from, to);
+            }
+        }
+    }
+
+    /**
+     * Forgets a player who left a world or the server. Their client drops the beams on its own, so their tracker
+     * is cleared without sending anything.
+     * @param player the player.
+     * @param worldUID world which the player left.
+     */
+    void removePlayer(Player player, UUID worldUID) {
+        WorldBeams world = this.worlds.get(worldUID);
+        if(world != null) {
+            world.removePlayer(player);
+        }
+
+        BeamTracker tracker = this.playerIndex.getTracker(player);
+        if(tracker != null) {
+            tracker.clear();
+        }
+    }
+
+    private WorldBeams getWorld(UUID worldUID) {
+        WorldBeams world = this.worlds.get(worldUID);
+        if(world == null) {
+            this.worlds.put(worldUID, world = new WorldBeams(worldUID, this.playerIndex));
+        }
+        return world;
+    }
+
+    private void tick() {
+        long tickStart = System.nanoTime();
+        this.currentTick++;
+
+        int animating = 0;
+        for(int i = 0; i < this.animatedBeams.size(); i++) {
+            Beam beam = this.animatedBeams.get(i);
+            if(beam.advanceAnimation()) {
+                this.animatedBeams.set(animating++, beam);
+            }
+        }
+        for(int i = this.animatedBeams.size() - 1; i >= animating; i--) {
+            this.animatedBeams.remove(i);
+        }
+
+        int following = 0;
+        for(int i = 0; i < this.followingBeams.size(); i++) {
+            Beam beam = this.followingBeams.get(i);
+            if(beam.followEntity()) {
+                this.followingBeams.set(following++, beam);
+            }
+        }
+        for(int i = this.followingBeams.size() - 1; i >= following; i--) {
+            this.followingBeams.remove(i);
+        }
+
+        Iterator<WorldBeams> iterator = this.worlds.values().iterator();
+        while(iterator.hasNext()) {
+            WorldBeams world = iterator.next();
+            if(world.isEmpty()) {
+                iterator.remove();
+            } else {
+                this.updateOrder.add(world);
+            }
+        }
+
+        // Worlds take turns going first, so one busy world cannot use up the budget of the others every tick.
+        boolean polling = this.updateMode == UpdateMode.POLLING;
+        long budget = this.updateBudget == 0 ? Long.MAX_VALUE : this.updateBudget * 1000;
+        long updateTime = 0;
+        for(int i = 0; i < this.updateOrder.size(); i++) {
+            WorldBeams world = this.updateOrder.get((int) ((this.currentTick + i) % this.updateOrder.size()));
+            long worldStart = System.nanoTime();
+            world.schedule(this.currentTick, polling);
+            long spent = world.update(budget, this.visibilityPool);
+            if(budget != Long.MAX_VALUE) {
+                budget -= spent;
+            }
+            long worldTime = System.nanoTime() - worldStart;
+            this.metrics.recordUpdateTime(world.getWorldUID(), worldTime);
+            updateTime += worldTime;
+        }
+        this.updateOrder.clear();
+
+        flushDeferred();
+        reconcileTrackers();
+        syncViewers();
+        this.metrics.recordTick(System.nanoTime() - tickStart, updateTime);
+        updateGauges();
+    }
+
+    /**
+     * Counts the running beams of each world, and the beams shown to the players in each world.
+     */
+    private void updateGauges() {
+        this.metrics.resetGauges();
+        for(Map.Entry<UUID, WorldBeams> entry : this.worlds.entrySet()) {
+            this.metrics.addBeams(entry.getKey(), entry.getValue().size());
+        }
+        for(int i = 0; i < this.playerIndex.getIndexLimit(); i++) {
+            BeamTracker tracker = this.playerIndex.getTracker(i);
+            if(tracker != null && tracker.getShownCount() > 0) {
+                this.metrics.addViewers(tracker.getPlayer().getWorld().getUID(), tracker.getShownCount());
+            }
+        }
+        this.metrics.publishGauges();
+    }
+
+    /**
+     * Sends the positions collected while deferred, then switches the beams whose shared endpoints could not be moved
+     * with them.
+     */
+    private void flushDeferred() {
+        for(int i = 0; i < this.pendingFlushes.size(); i++) {
+            this.pendingFlushes.get(i).flush();
+        }
+        this.pendingFlushes.clear();
+        for(WorldBeams world : this.worlds.values()) {
+            world.getEndpoints().resolveMoves();
+        }
+    }
+
+    /**
+     * Reconciles the trackers scheduled so far. Trackers which defer some of their beams schedule themselves again,
+     * and are left for the next tick.
+     */
+    private void reconcileTrackers() {
+        int count = this.pendingReconciles.size();
+        for(int i = 0; i < count; i++) {
+            this.pendingReconciles.get(i).reconcile();
+        }
+        this.pendingReconciles.subList(0, count).clear();
+    }
+
+    private void syncViewers() {
+        int waiting = 0;
+        for(int i = 0; i < this.pendingSyncs.size(); i++) {
+            Beam beam = this.pendingSyncs.get(i);
+            if(beam.syncViewers()) {
+                this.pendingSyncs.set(waiting++, beam);
+            }
+        }
+        for(int i = this.pendingSyncs.size() - 1; i >= waiting; i--) {
+            this.pendingSyncs.remove(i);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        unloadWorld(event.getWorld().getUID());
+    }
+
+    /**
+     * How players moving in and out of range of beams are noticed.
+     */
+    public enum UpdateMode {
+        /**
+         * Players are checked when they join, teleport, change worlds or move to another block, against the beams
+         * indexed in their chunk-sized grid cell. Beams are checked on their update delay only after they move.
+         * Idle players and beams cost nothing.
+         */
+        EVENTS,
+        /**
+         * Every player is checked against nearby beams on each beam's update delay.
+         */
+        POLLING
+    }
+
+    private class ManagerUpdater extends BukkitRunnable {
+        @Override
+        public void run() {
+            BeamManager.this.tick();
+        }
+    }
+}
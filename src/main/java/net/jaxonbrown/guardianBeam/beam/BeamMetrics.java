@@ -0,0 +1,326 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.comphenix.protocol.PacketType;
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of the library, globally and per world: running beams, viewers, packets and bytes sent by packet
+ * type, how long visibility updates take and how long each tick of the BeamManager takes as a whole. Counters are striped and cheap to update; beam and viewer counts are
+ * refreshed once per tick. Everything can be read from any thread.
+ * @author Jaxon A Brown
+ */
+public class BeamMetrics {
+    private final Counters global;
+    private final Map<UUID, Counters> worlds;
+    private final LongAdder ticks;
+    private final LatencyHistogram tickTimes;
+
+    BeamMetrics() {
+        this.global = new Counters();
+        this.worlds = new ConcurrentHashMap<>();
+        this.ticks = new LongAdder();
+        this.tickTimes = new LatencyHistogram();
+    }
+
+    /**
+     * Counts a packet queued for a player.
+     * @param worldUID world of the player.
+     * @param type type of the packet.
+     * @param bytes serialized size of the packet, or -1 if it was not serialized.
+     */
+    public void recordPacket(UUID worldUID, PacketType type, int bytes) {
+        this.global.getTraffic(type).record(bytes);
+        getWorld(worldUID).getTraffic(type).record(bytes);
+    }
+
+    /**
+     * Get the number of ticks of the BeamManager since the metrics were reset, to turn the totals into rates.
+     * @return number of ticks.
+     */
+    public long getTicks() {
+        return this.ticks.sum();
+    }
+
+    /**
+     * Get the worlds for which metrics were recorded.
+     * @return unique ids of the worlds.
+     */
+    public Set<UUID> getWorlds() {
+        return Collections.unmodifiableSet(this.worlds.keySet());
+    }
+
+    /**
+     * Get the number of running beams, as of the last tick.
+     * @return number of beams.
+     */
+    public int getActiveBeams() {
+        return this.global.activeBeams;
+    }
+
+    /**
+     * Get the number of running beams in a world, as of the last tick.
+     * @param worldUID unique id of the world.
+     * @return number of beams.
+     */
+    public int getActiveBeams(UUID worldUID) {
+        Counters world = this.worlds.get(worldUID);
+        return world == null ? 0 : world.activeBeams;
+    }
+
+    /**
+     * Get the number of beams shown to players, counting each beam once per player seeing it, as of the last tick.
+     * @return number of viewers.
+     */
+    public int getViewers() {
+        return this.global.viewers;
+    }
+
+    /**
+     * Get the number of beams shown to players in a world, counting each beam once per player, as of the last tick.
+     * @param worldUID unique id of the world.
+     * @return number of viewers.
+     */
+    public int getViewers(UUID worldUID) {
+        Counters world = this.worlds.get(worldUID);
+        return world == null ? 0 : world.viewers;
+    }
+
+    /**
+     * Get the packet types sent so far.
+     * @return packet types.
+     */
+    public Set<PacketType> getPacketTypes() {
+        return Collections.unmodifiableSet(this.global.traffic.keySet());
+    }
+
+    /**
+     * Get the number of packets of a type sent since the metrics were reset.
+     * @param type packet type.
+     * @return number of packets.
+     */
+    public long getPackets(PacketType type) {
+        return this.global.getPackets(type);
+    }
+
+    /**
+     * Get the number of packets of a type sent to players in a world since the metrics were reset.
+     * @param worldUID unique id of the world.
+     * @param type packet type.
+     * @return number of packets.
+     */
+    public long getPackets(UUID worldUID, PacketType type) {
+        Counters world = this.worlds.get(worldUID);
+        return world == null ? 0 : world.getPackets(type);
+    }
+
+    /**
+     * Get the serialized size of the packets of a type sent since the metrics were reset, before compression.
+     * Packets which could not be serialized on this server are not included.
+     * @param type packet type.
+     * @return estimated number of bytes.
+     */
+    public long getBytes(PacketType type) {
+        return this.global.getBytes(type);
+    }
+
+    /**
+     * Get the serialized size of the packets of a type sent to players in a world since the metrics were reset.
+     * @param worldUID unique id of the world.
+     * @param type packet type.
+     * @return estimated number of bytes.
+     */
+    public long getBytes(UUID worldUID, PacketType type) {
+        Counters world = this.worlds.get(worldUID);
+        return world == null ? 0 : world.getBytes(type);
+    }
+
+    /**
+     * Get a percentile of the time the BeamManager spends per tick on visibility updates, summed over every world.
+     * @param percentile share between 0 and 1, such as 0.5 or 0.99.
+     * @return time in nanoseconds.
+     */
+    public long getUpdateTime(double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0D && percentile <= 1.0D, "percentile must be between 0 and 1");
+
+        return this.global.updateTimes.getPercentile(percentile);
+    }
+
+    /**
+     * Get a percentile of the time the BeamManager spends per tick on visibility updates of a world.
+     * @param worldUID unique id of the world.
+     * @param percentile share between 0 and 1, such as 0.5 or 0.99.
+     * @return time in nanoseconds.
+     */
+    public long getUpdateTime(UUID worldUID, double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0D && percentile <= 1.0D, "percentile must be between 0 and 1");
+
+        Counters world = this.worlds.get(worldUID);
+        return world == null ? 0 : world.updateTimes.getPercentile(percentile);
+    }
+
+    /**
+     * Get a percentile of the time each tick of the BeamManager takes as a whole. Besides visibility updates, this
+     * includes animations, beams following entities, deferred moves and sending the changes to each player.
+     * @param percentile share between 0 and 1, such as 0.5 or 0.99.
+     * @return time in nanoseconds.
+     */
+    public long getTickTime(double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0D && percentile <= 1.0D, "percentile must be between 0 and 1");
+
+        return this.tickTimes.getPercentile(percentile);
+    }
+
+    /**
+     * Clears the packet counts, update times and tick times. Beam and viewer counts are kept.
+     */
+    public void reset() {
+        this.ticks.reset();
+        this.tickTimes.reset();
+        this.global.reset();
+        for(Counters world : this.worlds.values()) {
+            world.reset();
+        }
+    }
+
+    /**
+     * Counts a tick of the BeamManager.
+     * @param tickNanos time the whole tick took.
+     * @param updateNanos time spent on visibility updates, summed over every world.
+     */
+    void recordTick(long tickNanos, long updateNanos) {
+        this.ticks.increment();
+        this.tickTimes.record(tickNanos);
+        this.global.updateTimes.record(updateNanos);
+    }
+
+    void recordUpdateTime(UUID worldUID, long nanos) {
+        getWorld(worldUID).updateTimes.record(nanos);
+    }
+
+    /**
+     * Starts counting the beams and viewers of this tick. Counts become visible with #publishGauges.
+     */
+    void resetGauges() {
+        for(Counters world : this.worlds.values()) {
+            world.stagedBeams = 0;
+            world.stagedViewers = 0;
+        }
+    }
+
+    void addBeams(UUID worldUID, int beams) {
+        getWorld(worldUID).stagedBeams += beams;
+    }
+
+    void addViewers(UUID worldUID, int viewers) {
+        getWorld(worldUID).stagedViewers += viewers;
+    }
+
+    void publishGauges() {
+        int totalBeams = 0;
+        int totalViewers = 0;
+        for(Counters world : this.worlds.values()) {
+            world.activeBeams = world.stagedBeams;
+            world.viewers = world.stagedViewers;
+            totalBeams += world.stagedBeams;
+            totalViewers += world.stagedViewers;
+        }
+        this.global.activeBeams = totalBeams;
+        this.global.viewers = totalViewers;
+    }
+
+    void removeWorld(UUID worldUID) {
+        this.worlds.remove(worldUID);
+    }
+
+    private Counters getWorld(UUID worldUID) {
+        Counters world = this.worlds.get(worldUID);
+        if(world == null) {
+            Counters created = new Counters();
+            world = this.worlds.putIfAbsent(worldUID, created);
+            if(world == null) {
+                world = created;
+            }
+        }
+        return world;
+    }
+
+    private static class Counters {
+        private final Map<PacketType, Traffic> traffic;
+        private final LatencyHistogram updateTimes;
+        private volatile int activeBeams;
+        private volatile int viewers;
+        private int stagedBeams;
+        private int stagedViewers;
+
+        private Counters() {
+            this.traffic = new ConcurrentHashMap<>();
+            this.updateTimes = new LatencyHistogram();
+        }
+
+        private Traffic getTraffic(PacketType type) {
+            Traffic traffic = this.traffic.get(type);
+            if(traffic == null) {
+                Traffic created = new Traffic();
+                traffic = this.traffic.putIfAbsent(type, created);
+                if(traffic == null) {
+                    traffic = created;
+                }
+            }
+            return traffic;
+        }
+
+        private long getPackets(PacketType type) {
+            Traffic traffic = this.traffic.get(type);
+            return traffic == null ? 0 : traffic.packets.sum();
+        }
+
+        private long getBytes(PacketType type) {
+            Traffic traffic = this.traffic.get(type);
+            return traffic == null ? 0 : traffic.bytes.sum();
+        }
+
+        private void reset() {
+            for(Traffic traffic : this.traffic.values()) {
+                traffic.packets.reset();
+                traffic.bytes.reset();
+            }
+            this.updateTimes.reset();
+        }
+    }
+
+    private static class Traffic {
+        private final LongAdder packets = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private void record(int bytes) {
+            this.packets.increment();
+            if(bytes > 0) {
+                this.bytes.add(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+
+/**
+ * A path for one end of a beam, precomputed into one position per tick. A path of some duration has one more frame
+ * than that, so it starts at frame 0 and ends at the frame of its duration. A repeating animation goes from the frame
+ * before the end back to frame 0, so a closed path such as an orbit does not show the same position twice.
+ * Paths are immutable and may be shared by any number of beams in the same world.
+ * @author Jaxon A Brown
+ */
+public final class BeamPath {
+    private final World world;
+    private final double[] frames;
+
+    private BeamPath(World world, double[] frames) {
+        this.world = world;
+        this.frames = frames;
+    }
+
+    /**
+     * Create a path through keyframes. Each leg between two keyframes takes the same share of the duration.
+     * @param duration length of the path, in ticks.
+     * @param easing easing applied to progress along the whole path.
+     * @param keyframes locations to pass through, in order. At least two are needed, all in the same world.
+     * @return the precomputed path.
+     */
+    public static BeamPath keyframes(int duration, Easing easing, Location... keyframes) {
+        Preconditions.checkArgument(duration >= 1, "duration must be a natural number");
+        Preconditions.checkNotNull(easing, "easing cannot be null");
+        Preconditions.checkArgument(keyframes.length >= 2, "at least two keyframes are needed");
+        World world = keyframes[0].getWorld();
+        for(Location keyframe : keyframes) {
+            Preconditions.checkArgument(keyframe.getWorld().equals(world), "keyframes must be in the same world");
+        }
+
+        int legs = keyframes.length - 1;
+        double[] frames = new double[(duration + 1) * 3];
+        for(int frame = 0; frame <= duration; frame++) {
+            double position = easing.apply((double) frame / duration) * legs;
+            int leg = Math.min((int) position, legs - 1);
+            double t = position - leg;
+
+            Location from = keyframes[leg];
+            Location to = keyframes[leg + 1];
+            frames[frame * 3] = from.getX() + (to.getX() - from.getX()) * t;
+            frames[frame * 3 + 1] = from.getY() + (to.getY() - from.getY()) * t;
+            frames[frame * 3 + 2] = from.getZ() + (to.getZ() - from.getZ()) * t;
+        }
+        return new BeamPath(world, frames);
+    }
+
+    /**
+     * Create a path from a function of progress, such as an orbit or a sweep.
+     * The function is only called while the path is created.
+     * @param world world the path is in.
+     * @param duration length of the path, in ticks.
+     * @param easing easing applied to the progress given to the function.
+     * @param function function giving the position at some progress.
+     * @return the precomputed path.
+     */
+    public static BeamPath parametric(World world, int duration, Easing easing, PathFunction function) {
+        Preconditions.checkNotNull(world, "world cannot be null");
+        Preconditions.checkArgument(duration >= 1, "duration must be a natural number");
+        Preconditions.checkNotNull(easing, "easing cannot be null");
+        Preconditions.checkNotNull(function, "function cannot be null");
+
+        double[] frames = new double[(duration + 1) * 3];
+        for(int frame = 0; frame <= duration; frame++) {
+            Vector position = function.getPosition(easing.apply((double) frame / duration));
+            frames[frame * 3] = position.getX();
+            frames[frame * 3 + 1] = position.getY();
+            frames[frame * 3 + 2] = position.getZ();
+        }
+        return new BeamPath(world, frames);
+    }
+
+    /**
+     * Get the length of the path.
+     * @return length in ticks.
+     */
+    public int getDuration() {
+        return this.frames.length / 3 - 1;
+    }
+
+    /**
+     * Get the world the path is in.
+     * @return the world.
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Moves the location to a frame of the path, without allocating.
+     * @param frame frame to move to, from 0 to the duration, inclusive.
+     * @param location location to change.
+     */
+    void apply(int frame, Location location) {
+        int index = frame * 3;
+        location.setX(this.frames[index]);
+        location.setY(this.frames[index + 1]);
+        location.setZ(this.frames[index + 2]);
+    }
+
+    /**
+     * Gives the position along a path for some progress.
+     */
+    public interface PathFunction {
+        /**
+         * Get the position at some progress along the path.
+         * @param progress eased progress, 0 at the start and 1 at the end.
+         * @return the position.
+         */
+        Vector getPosition(double progress);
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Saves beams which never move to one binary file per world, and only builds them once they are needed.
+ * A stored beam stays dormant, with no Beam or packets built, until the chunk of its starting position is loaded and
+ * a player comes within its viewing radius. Loaded chunks with dormant beams are checked against the players of their
+ * world every second while the store is started. A beam is released again when its chunk unloads. Loading a world maps its file and
+ * reads only the table of chunks, so the cost of a large store follows the beams near players rather than its size.
+ * Stored beams are known by an id, which is only valid until the world is saved or loaded again.
+ * On Windows a mapped file cannot be replaced until the mapping is garbage collected, so files are read whole into
+ * memory there instead of being mapped.
+ * @author Jaxon A Brown
+ */
+public class BeamStore implements Listener {
+    private static final int MAGIC = 0x47424D53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHUNK_ENTRY_SIZE = 16;
+    private static final int RECORD_SIZE = 56;
+    private static final String EXTENSION = ".beams";
+    private static final boolean MAP_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+    private static final long CHECK_PERIOD = 20;
+
+    private final Plugin plugin;
+    private final File directory;
+    private final Map<UUID, StoredWorld> worlds;
+    private BukkitRunnable runnable;
+    private boolean isStarted;
+
+    /**
+     * Create a beam store. Nothing is loaded until it is started.
+     * @param plugin plugin which owns the store.
+     * @param directory directory holding a file for each world.
+     */
+    public BeamStore(Plugin plugin, File directory) {
+        Preconditions.checkNotNull(plugin, "plugin cannot be null");
+        Preconditions.checkNotNull(directory, "directory cannot be null");
+
+        this.plugin = plugin;
+        this.directory = directory;
+        this.worlds = new HashMap<>();
+    }
+
+    /**
+     * Loads the beams of every world which has a file, and keeps loading them as worlds and chunks load.
+     */
+    public void start() {
+        Preconditions.checkState(!this.isStarted, "The store must be stopped in order to start it");
+
+        this.isStarted = true;
+        this.plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+        for(World world : this.plugin.getServer().getWorlds()) {
+            loadIfStored(world);
+        }
+        (this.runnable = new StoreUpdater()).runTaskTimer(this.plugin, CHECK_PERIOD, CHECK_PERIOD);
+    }
+
+    /**
+     * Releases every active stored beam and forgets every world. Nothing is saved.
+     */
+    public void shutdown() {
+        HandlerList.unregisterAll(this);
+        if(this.runnable != null) {
+            this.runnable.cancel();
+            this.runnable = null;
+        }
+        for(StoredWorld world : this.worlds.values()) {
+            world.deactivateAll();
+        }
+        this.worlds.clear();
+        this.isStarted = false;
+    }
+
+    /**
+     * Loads the stored beams of a world, replacing any loaded before. Beams in chunks which are loaded are started
+     * once a player comes within range.
+     * A world without a file starts with no beams.
+     * @param world the world.
+     * @throws IOException if the file cannot be read.
+     */
+    public void load(World world) throws IOException {
+        Preconditions.checkNotNull(world, "world cannot be null");
+
+        StoredWorld stored = new StoredWorld(world.getUID());
+        stored.read(getFile(world));
+        unload(world);
+        this.worlds.put(world.getUID(), stored);
+        for(Chunk chunk : world.getLoadedChunks()) {
+            stored.chunkLoaded(chunk.getX(), chunk.getZ());
+        }
+    }
+
+    /**
+     * Writes the stored beams of a world to its file, grouped by chunk.
+     * @param world the world, which must have been loaded.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(World world) throws IOException {
+        StoredWorld stored = getStoredWorld(world);
+        if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Failed to create " + this.directory);
+        }
+        stored.write(getFile(world));
+    }
+
+    /**
+     * Releases the active stored beams of a world and forgets it, without saving.
+     * @param world the world.
+     */
+    public void unload(World world) {
+        StoredWorld stored = this.worlds.remove(world.getUID());
+        if(stored != null) {
+            stored.deactivateAll();
+        }
+    }
+
+    /**
+     * Checks if the beams of a world are loaded.
+     * @param world the world.
+     * @return True if loaded.
+     */
+    public boolean isLoaded(World world) {
+        return this.worlds.containsKey(world.getUID());
+    }
+
+    /**
+     * Stores a beam. It is started once its chunk is loaded and a player comes within range.
+     * Nothing is written until the world is saved.
+     * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
+     * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
+     * @param updateDelay Delay between checking if the beam should be hidden or shown to potentially applicable players.
+     * @return id of the stored beam.
+     */
+    public int add(Location startingPosition, Location endingPosition, double viewingRadius, long updateDelay) {
+        Preconditions.checkNotNull(startingPosition, "startingPosition cannot be null");
+        Preconditions.checkNotNull(endingPosition, "endingPosition cannot be null");
+        Preconditions.checkState(startingPosition.getWorld().equals(endingPosition.getWorld()), "startingPosition and endingPosition must be in the same world");
+        Preconditions.checkArgument(viewingRadius > 0, "viewingRadius must be positive");
+        Preconditions.checkArgument(updateDelay >= 1 && updateDelay <= Integer.MAX_VALUE, "updateDelay must be a natural number which fits in an int");
+
+        World world = startingPosition.getWorld();
+        StoredWorld stored = getStoredWorld(world);
+        int id = stored.add(startingPosition, endingPosition, (float) viewingRadius, (int) updateDelay);
+        int chunkX = Location.locToBlock(startingPosition.getX()) >> 4;
+        int chunkZ = Location.locToBlock(startingPosition.getZ()) >> 4;
+        if(world.isChunkLoaded(chunkX, chunkZ)) {
+            stored.chunkLoaded(chunkX, chunkZ);
+        }
+        return id;
+    }
+
+    /**
+     * Removes a stored beam, releasing it if it is active.
+     * @param world world of the beam.
+     * @param id id of the stored beam.
+     * @return True if the beam was stored.
+     */
+    public boolean remove(World world, int id) {
+        return getStoredWorld(world).remove(id);
+    }
+
+    /**
+     * Get the beam built for a stored beam.
+     * @param world world of the beam.
+     * @param id id of the stored beam.
+     * @return the beam, or null if it is dormant or was removed.
+     */
+    public Beam getBeam(World world, int id) {
+        return getStoredWorld(world).active.get(id);
+    }
+
+    /**
+     * Get the number of beams stored for a world.
+     * @param world the world, which must have been loaded.
+     * @return number of stored beams.
+     */
+    public int getStoredCount(World world) {
+        return getStoredWorld(world).getCount();
+    }
+
+    /**
+     * Get the number of stored beams of a world which are built and running.
+     * @param world the world, which must have been loaded.
+     * @return number of active beams.
+     */
+    public int getActiveCount(World world) {
+        return getStoredWorld(world).active.size();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        loadIfStored(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        unload(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        StoredWorld stored = this.worlds.get(event.getWorld().getUID());
+        if(stored != null) {
+            stored.chunkLoaded(event.getChunk().getX(), event.getChunk().getZ());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        StoredWorld stored = this.worlds.get(event.getWorld().getUID());
+        if(stored != null) {
+            stored.chunkUnloaded(event.getChunk().getX(), event.getChunk().getZ());
+        }
+    }
+
+    private void loadIfStored(World world) {
+        if(getFile(world).isFile()) {
+            try {
+                load(world);
+            } catch(IOException ex) {
+                this.plugin.getLogger().log(Level.WARNING, "Failed to load the stored beams of " + world.getName(), ex);
+            }
+        }
+    }
+
+    private StoredWorld getStoredWorld(World world) {
+        StoredWorld stored = this.worlds.get(world.getUID());
+        Preconditions.checkState(stored != null, "The stored beams of the world must be loaded first");
+        return stored;
+    }
+
+    private File getFile(World world) {
+        return new File(this.directory, world.getName() + EXTENSION);
+    }
+
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Starts the dormant beams of loaded chunks which a player has come near.
+     */
+    private void activateNearPlayers() {
+        for(StoredWorld stored : this.worlds.values()) {
+            if(stored.loadedChunks.isEmpty()) {
+                continue;
+            }
+            World world = this.plugin.getServer().getWorld(stored.worldUID);
+            if(world == null) {
+                continue;
+            }
+            List<Player> players = world.getPlayers();
+            if(players.isEmpty()) {
+                continue;
+            }
+            List<Location> locations = new ArrayList<>(players.size());
+            for(Player player : players) {
+                locations.add(player.getLocation());
+            }
+            stored.activateNear(locations);
+        }
+    }
+
+    /**
+     * The stored beams of one world. Beams read from the file are addressed in the mapped file, grouped by chunk,
+     * and beams added since are kept in a buffer of the same layout. Ids number the file's beams first.
+     * Loaded chunks are remembered only while they still hold dormant beams.
+     */
+    private static class StoredWorld {
+        private final UUID worldUID;
+        private final Map<Long, int[]> chunks;
+        private final Map<Long, List<Integer>> addedChunks;
+        private final BitSet removed;
+        private final Map<Integer, Beam> active;
+        private final Set<Long> loadedChunks;
+        private ByteBuffer data;
+        private int recordsOffset;
+        private int mappedCount;
+        private ByteBuffer added;
+        private int addedCount;
+
+        private StoredWorld(UUID worldUID) {
+            this.worldUID = worldUID;
+            this.chunks = new HashMap<>();
+            this.addedChunks = new HashMap<>();
+            this.removed = new BitSet();
+            this.active = new HashMap<>();
+            this.loadedChunks = new HashSet<>();
+            this.added = ByteBuffer.allocate(RECORD_SIZE * 16);
+        }
+
+        /**
+         * Maps the file, or reads it where files are not mapped, and reads its table of chunks.
+         * The beams themselves are only read as their chunks load.
+         * @param file the world's file.
+         * @throws IOException if the file cannot be read or is not a beam store.
+         */
+        private void read(File file) throws IOException {
+            if(!file.isFile()) {
+                return;
+            }
+
+            ByteBuffer data;
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if(MAP_FILES) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } else {
+                    if(channel.size() > Integer.MAX_VALUE) {
+                        throw new IOException(file + " is too large to read");
+                    }
+                    data = ByteBuffer.allocate((int) channel.size());
+                    while(data.hasRemaining()) {
+                        if(channel.read(data) < 0) {
+                            throw new IOException(file + " is truncated");
+                        }
+                    }
+                    data.clear();
+                }
+            }
+            if(data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a beam store");
+            }
+            if(data.getInt(4) != VERSION) {
+                throw new IOException(file + " has unsupported version " + data.getInt(4));
+            }
+            int chunkCount = data.getInt(8);
+            int recordCount = data.getInt(12);
+            long recordsOffset = HEADER_SIZE + (long) chunkCount * CHUNK_ENTRY_SIZE;
+            if(chunkCount < 0 || recordCount < 0 || data.capacity() < recordsOffset + (long) recordCount * RECORD_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+
+            Map<Long, int[]> chunks = new HashMap<>();
+            for(int i = 0; i < chunkCount; i++) {
+                int offset = HEADER_SIZE + i * CHUNK_ENTRY_SIZE;
+                int start = data.getInt(offset + 8);
+                int count = data.getInt(offset + 12);
+                if(start < 0 || count < 0 || (long) start + count > recordCount) {
+                    throw new IOException(file + " is truncated");
+                }
+                chunks.put(chunkKey(data.getInt(offset), data.getInt(offset + 4)), new int[] {start, count});
+            }
+            this.chunks.clear();
+            this.chunks.putAll(chunks);
+            this.data = data;
+            this.recordsOffset = (int) recordsOffset;
+            this.mappedCount = recordCount;
+        }
+
+        /**
+         * Writes every beam not removed to the file, sorted by chunk, then reads the new file in place of the old one.
+         * Active beams carry over under their new ids, so they are not rebuilt.
+         * @param file the world's file.
+         * @throws IOException if the file cannot be written.
+         */
+        private void write(File file) throws IOException {
+            int total = this.mappedCount + this.addedCount;
+            final long[] keys = new long[total];
+            List<Integer> live = new ArrayList<>(total);
+            for(int id = 0; id < total; id++) {
+                if(!this.removed.get(id)) {
+                    keys[id] = chunkKey(Location.locToBlock(buffer(id).getDouble(offset(id))) >> 4,
+                            Location.locToBlock(buffer(id).getDouble(offset(id) + 16)) >> 4);
+                    live.add(id);
+                }
+            }
+            Integer[] order = live.toArray(new Integer[live.size()]);
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(keys[a], keys[b]);
+                }
+            });
+
+            int chunkCount = 0;
+            for(int i = 0; i < order.length; i++) {
+                if(i == 0 || keys[order[i]] != keys[order[i - 1]]) {
+                    chunkCount++;
+                }
+            }
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + chunkCount * CHUNK_ENTRY_SIZE + order.length * RECORD_SIZE);
+            out.putInt(MAGIC).putInt(VERSION).putInt(chunkCount).putInt(order.length);
+            for(int i = 0; i < order.length; i++) {
+                long key = keys[order[i]];
+                if(i == 0 || key != keys[order[i - 1]]) {
+                    int count = 1;
+                    while(i + count < order.length && keys[order[i + count]] == key) {
+                        count++;
+                    }
+                    out.putInt((int) (key >> 32)).putInt((int) key).putInt(i).putInt(count);
+                }
+            }
+            for(Integer id : order) {
+                ByteBuffer record = buffer(id).duplicate();
+                record.limit(offset(id) + RECORD_SIZE).position(offset(id));
+                out.put(record);
+            }
+            out.flip();
+
+            File temporary = new File(file.getPath() + ".tmp");
+            try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while(out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Map<Integer, Beam> active = new HashMap<>();
+            for(int i = 0; i < order.length; i++) {
+                Beam beam = this.active.get(order[i]);
+                if(beam != null) {
+                    active.put(i, beam);
+                }
+            }
+            this.active.clear();
+            this.active.putAll(active);
+            this.addedChunks.clear();
+            this.removed.clear();
+            this.added.clear();
+            this.addedCount = 0;
+            read(file);
+        }
+
+        private int add(Location startingPosition, Location endingPosition, float viewingRadius, int updateDelay) {
+            if(this.added.remaining() < RECORD_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate(this.added.capacity() * 2);
+                this.added.flip();
+                grown.put(this.added);
+                this.added = grown;
+            }
+            this.added.putDouble(startingPosition.getX()).putDouble(startingPosition.getY()).putDouble(startingPosition.getZ());
+            this.added.putDouble(endingPosition.getX()).putDouble(endingPosition.getY()).putDouble(endingPosition.getZ());
+            this.added.putFloat(viewingRadius).putInt(updateDelay);
+
+            int id = this.mappedCount + this.addedCount++;
+            long key = chunkKey(Location.locToBlock(startingPosition.getX()) >> 4, Location.locToBlock(startingPosition.getZ()) >> 4);
+            List<Integer> chunk = this.addedChunks.get(key);
+            if(chunk == null) {
+                this.addedChunks.put(key, chunk = new ArrayList<>());
+            }
+            chunk.add(id);
+            return id;
+        }
+
+        private boolean remove(int id) {
+            if(id < 0 || id >= this.mappedCount + this.addedCount || this.removed.get(id)) {
+                return false;
+            }
+            this.removed.set(id);
+            Beam beam = this.active.remove(id);
+            if(beam != null) {
+                beam.release();
+            }
+            return true;
+        }
+
+        private int getCount() {
+            return this.mappedCount + this.addedCount - this.removed.cardinality();
+        }
+
+        private void chunkLoaded(int chunkX, int chunkZ) {
+            long key = chunkKey(chunkX, chunkZ);
+            if(this.chunks.containsKey(key) || this.addedChunks.containsKey(key)) {
+                this.loadedChunks.add(key);
+            }
+        }
+
+        private void chunkUnloaded(int chunkX, int chunkZ) {
+            long key = chunkKey(chunkX, chunkZ);
+            this.loadedChunks.remove(key);
+            int[] range = this.chunks.get(key);
+            if(range != null) {
+                for(int id = range[0]; id < range[0] + range[1]; id++) {
+                    deactivate(id);
+                }
+            }
+            List<Integer> added = this.addedChunks.get(key);
+            if(added != null) {
+                for(int id : added) {
+                    deactivate(id);
+                }
+            }
+        }
+
+        private void deactivateAll() {
+            for(Beam beam : this.active.values()) {
+                beam.release();
+            }
+            this.active.clear();
+            this.loadedChunks.clear();
+        }
+
+        /**
+         * Starts the dormant beams of loaded chunks which are within viewing radius of any of the locations.
+         * Chunks left with no dormant beams are forgotten until they load again.
+         * @param locations locations of the world's players.
+         */
+        private void activateNear(List<Location> locations) {
+            Iterator<Long> iterator = this.loadedChunks.iterator();
+            while(iterator.hasNext()) {
+                long key = iterator.next();
+                boolean isDormant = false;
+                int[] range = this.chunks.get(key);
+                if(range != null) {
+                    for(int id = range[0]; id < range[0] + range[1]; id++) {
+                        isDormant |= !activateIfNear(id, locations);
+                    }
+                }
+                List<Integer> added = this.addedChunks.get(key);
+                if(added != null) {
+                    for(int id : added) {
+                        isDormant |= !activateIfNear(id, locations);
+                    }
+                }
+                if(!isDormant) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Starts a stored beam if any of the locations is within its viewing radius.
+         * @param id id of the stored beam.
+         * @param locations locations of the world's players.
+         * @return True if the beam is no longer dormant.
+         */
+        private boolean activateIfNear(int id, List<Location> locations) {
+            if(this.removed.get(id) || this.active.containsKey(id)) {
+                return true;
+            }
+
+            ByteBuffer buffer = buffer(id);
+            int offset = offset(id);
+            double radius = buffer.getFloat(offset + 48);
+            for(Location location : locations) {
+                double distanceSquared = BeamGeometry.distanceSquaredToSegment(
+                        buffer.getDouble(offset), buffer.getDouble(offset + 8), buffer.getDouble(offset + 16),
+                        buffer.getDouble(offset + 24), buffer.getDouble(offset + 32), buffer.getDouble(offset + 40),
+                        location.getX(), location.getY(), location.getZ());
+                if(distanceSquared <= radius * radius) {
+                    activate(id);
+                    return this.active.containsKey(id);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Builds and starts a stored beam, reading it from the file or the added beams.
+         * @param id id of the stored beam.
+         */
+        private void activate(int id) {
+            if(this.removed.get(id) || this.active.containsKey(id)) {
+                return;
+            }
+            World world = Bukkit.getWorld(this.worldUID);
+            if(world == null) {
+                return;
+            }
+
+            ByteBuffer buffer = buffer(id);
+            int offset = offset(id);
+            Beam beam = new Beam(
+                    new Location(world, buffer.getDouble(offset), buffer.getDouble(offset + 8), buffer.getDouble(offset + 16)),
+                    new Location(world, buffer.getDouble(offset + 24), buffer.getDouble(offset + 32), buffer.getDouble(offset + 40)),
+                    buffer.getFloat(offset + 48), buffer.getInt(offset + 52));
+            beam.start();
+            this.active.put(id, beam);
+        }
+
+        private void deactivate(int id) {
+            Beam beam = this.active.remove(id);
+            if(beam != null) {
+                beam.release();
+            }
+        }
+
+        private ByteBuffer buffer(int id) {
+            return id < this.mappedCount ? this.data : this.added;
+        }
+
+        private int offset(int id) {
+            return id < this.mappedCount ? this.recordsOffset + id * RECORD_SIZE : (id - this.mappedCount) * RECORD_SIZE;
+        }
+    }
+
+    private class StoreUpdater extends BukkitRunnable {
+        @Override
+        public void run() {
+            BeamStore.this.activateNearPlayers();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import net.jaxonbrown.guardianBeam.protocol.PacketFactory;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the beams shown to one player, like the server's entity tracker does for real entities.
+ * Beams and ClientBeams only tell the tracker whether the player should see them. Once per tick the tracker compares
+ * that against what the player was sent, and sends just the difference: one packet removing every beam the player
+ * should no longer see, then the spawns of the new ones.
+ * Shared endpoints are counted per player, so their squid is sent with the first beam using it and removed with the last.
+ * With a packet budget set on the manager, beams to show beyond the budget wait for the next tick, nearest first.
+ * @author Jaxon A Brown
+ */
+class BeamTracker {
+    private final Player player;
+    private final BeamManager manager;
+    private final Map<LocationTargetBeam, Endpoint> shown;
+    private final Map<LocationTargetBeam, Boolean> changes;
+    private final Map<LocationTargetBeam, Double> priorities;
+    private final List<LocationTargetBeam> showOrder;
+    private final Set<LocationTargetBeam> retargets;
+    private final Map<Endpoint, int[]> endpoints;
+    private final List<Endpoint> spawnedEndpoints;
+    private int[] destroyBuffer;
+    private int destroyed;
+    private boolean isReconcileScheduled;
+    private long budgetTick;
+    private int spent;
+
+    BeamTracker(Player player, BeamManager manager) {
+        this.player = player;
+        this.manager = manager;
+        this.shown = new IdentityHashMap<>();
+        this.changes = new IdentityHashMap<>();
+        this.priorities = new IdentityHashMap<>();
+        this.showOrder = new ArrayList<>();
+        this.retargets = Collections.newSetFromMap(new IdentityHashMap<LocationTargetBeam, Boolean>());
+        this.endpoints = new IdentityHashMap<>();
+        this.spawnedEndpoints = new ArrayList<>();
+        this.destroyBuffer = new int[16];
+    }
+
+    /**
+     * Sets whether the player should see a beam. Nothing is sent until the tracker is reconciled.
+     * @param beam packets of the beam.
+     * @param visible True if the player should see the beam.
+     */
+    void setVisible(LocationTargetBeam beam, boolean visible) {
+        setVisible(beam, visible, 0);
+    }
+
+    /**
+     * Sets whether the player should see a beam. Nothing is sent until the tracker is reconciled.
+     * @param beam packets of the beam.
+     * @param visible True if the player should see the beam.
+     * @param priority order in which beams are shown when they do not all fit the player's packet budget, lowest first.
+     *                 Usually the squared distance to the beam.
+     */
+    void setVisible(LocationTargetBeam beam, boolean visible, double priority) {
+        scheduleReconcile();
+        if(visible == this.shown.containsKey(beam)) {
+            this.changes.remove(beam);
+            this.priorities.remove(beam);
+        } else {
+            this.changes.put(beam, visible);
+            if(visible) {
+                this.priorities.put(beam, priority);
+            }
+        }
+    }
+
+    /**
+     * Counts packets sent to the player this tick against the manager's packet budget.
+     * @param packets number of packets.
+     * @param required True if the packets are sent whether or not they fit, such as moves of nearby beams.
+     * @return True if the packets should be sent.
+     */
+    boolean spend(int packets, boolean required) {
+        long tick = this.manager.getCurrentTick();
+        if(this.budgetTick != tick) {
+            this.budgetTick = tick;
+            this.spent = 0;
+        }
+
+        int budget = this.manager.getPlayerPacketBudget();
+        if(!required && budget > 0 && this.spent + packets > budget) {
+            return false;
+        }
+        this.spent += packets;
+        return true;
+    }
+
+    /**
+     * Has the player's copy of a beam point at the beam's current endpoint, if they were shown the beam with another.
+     * Nothing is sent until the tracker is reconciled.
+     * @param beam packets of the beam.
+     */
+    void retarget(LocationTargetBeam beam) {
+        scheduleReconcile();
+        this.retargets.add(beam);
+    }
+
+    /**
+     * Checks if the player was sent a beam, or is about to be.
+     * @param beam packets of the beam.
+     * @return True if the player should see the beam.
+     */
+    boolean isVisible(LocationTargetBeam beam) {
+        Boolean change = this.changes.get(beam);
+        return change != null ? change : this.shown.containsKey(beam);
+    }
+
+    /**
+     * Checks if the player was sent the squid of an endpoint.
+     * @param endpoint the endpoint.
+     * @return True if the player has the squid.
+     */
+    boolean hasEndpoint(Endpoint endpoint) {
+        return this.endpoints.containsKey(endpoint);
+    }
+
+    /**
+     * Sends the difference between the beams the player should see and the beams they were sent.
+     * Endpoints gained are counted before those lost, so a squid which stays in use is never removed and sent again.
+     */
+    void reconcile() {
+        this.isReconcileScheduled = false;
+        if(this.changes.isEmpty() && this.retargets.isEmpty()) {
+            return;
+        }
+        deferShows();
+
+        for(Map.Entry<LocationTargetBeam, Boolean> change : this.changes.entrySet()) {
+            LocationTargetBeam beam = change.getKey();
+            if(change.getValue() && !this.shown.containsKey(beam)) {
+                acquire(beam.getEndpoint());
+            }
+        }
+        Iterator<LocationTargetBeam> iterator = this.retargets.iterator();
+        while(iterator.hasNext()) {
+            LocationTargetBeam beam = iterator.next();
+            if(!this.shown.containsKey(beam) || this.changes.get(beam) == Boolean.FALSE || this.shown.get(beam) == beam.getEndpoint()) {
+                iterator.remove();
+            } else {
+                acquire(beam.getEndpoint());
+            }
+        }
+
+        this.destroyed = 0;
+        for(Map.Entry<LocationTargetBeam, Boolean> change : this.changes.entrySet()) {
+            LocationTargetBeam beam = change.getKey();
+            if(!change.getValue() && this.shown.containsKey(beam)) {
+                destroy(beam.getGuardianEntityId());
+                release(beam, this.shown.remove(beam));
+            }
+        }
+        for(LocationTargetBeam beam : this.retargets) {
+            release(beam, this.shown.put(beam, beam.getEndpoint()));
+        }
+        if(this.destroyed > 0) {
+            sendRemoveEntities(Arrays.copyOf(this.destroyBuffer, this.destroyed));
+        }
+
+        for(int i = 0; i < this.spawnedEndpoints.size(); i++) {
+            this.spawnedEndpoints.get(i).getSquidSpawn().send(this.player);
+        }
+        this.spawnedEndpoints.clear();
+        for(Map.Entry<LocationTargetBeam, Boolean> change : this.changes.entrySet()) {
+            LocationTargetBeam beam = change.getKey();
+            if(change.getValue() && !this.shown.containsKey(beam)) {
+                Endpoint endpoint = beam.getEndpoint();
+                this.shown.put(beam, endpoint);
+                if(endpoint != null) {
+                    beam.startGuardian(this.player);
+                } else {
+                    beam.start(this.player);
+                }
+            }
+        }
+        for(LocationTargetBeam beam : this.retargets) {
+            if(beam.getEndpoint() == null) {
+                beam.startSquid(this.player);
+            }
+            beam.getGuardianTarget().send(this.player);
+        }
+        this.changes.clear();
+        this.retargets.clear();
+
+        for(int i = 0; i < this.showOrder.size(); i++) {
+            this.changes.put(this.showOrder.get(i), Boolean.TRUE);
+        }
+        this.priorities.keySet().retainAll(this.changes.keySet());
+        if(!this.showOrder.isEmpty()) {
+            this.showOrder.clear();
+            scheduleReconcile();
+        }
+    }
+
+    Player getPlayer() {
+        return this.player;
+    }
+
+    /**
+     * Get the number of beams the player was sent.
+     * @return number of beams shown.
+     */
+    int getShownCount() {
+        return this.shown.size();
+    }
+
+    /**
+     * Removes the player from the viewers of every Beam they were shown or are about to be shown, without sending any
+     * packets. Only those beams can count the player as a viewer, so the other beams of the world are not visited.
+     * @param index the player's index.
+     */
+    void removeFromViewers(int index) {
+        for(LocationTargetBeam beam : this.shown.keySet()) {
+            if(beam.getOwner() != null) {
+                beam.getOwner().removeViewer(index);
+            }
+        }
+        for(LocationTargetBeam beam : this.changes.keySet()) {
+            if(beam.getOwner() != null) {
+                beam.getOwner().removeViewer(index);
+            }
+        }
+    }
+
+    /**
+     * Forgets every beam without sending any packets, used when the client has dropped them itself.
+     */
+    void clear() {
+        this.shown.clear();
+        this.changes.clear();
+        this.priorities.clear();
+        this.retargets.clear();
+        this.endpoints.clear();
+    }
+
+    /**
+     * Takes the beams to show which do not fit the packet budget out of the changes, leaving them in #showOrder to be
+     * put back once the rest are sent. Hides and retargets are always sent, and at least one beam is shown each tick.
+     */
+    private void deferShows() {
+        if(this.manager.getPlayerPacketBudget() == 0) {
+            return;
+        }
+
+        int required = this.retargets.size();
+        boolean hiding = false;
+        for(Map.Entry<LocationTargetBeam, Boolean> change : this.changes.entrySet()) {
+            if(change.getValue()) {
+                this.showOrder.add(change.getKey());
+            } else if(this.shown.containsKey(change.getKey())) {
+                hiding = true;
+            }
+        }
+        spend(hiding ? required + 1 : required, true);
+        if(this.showOrder.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(this.showOrder, new Comparator<LocationTargetBeam>() {
+            @Override
+            public int compare(LocationTargetBeam a, LocationTargetBeam b) {
+                return Double.compare(getPriority(a), getPriority(b));
+            }
+        });
+        int shown = 0;
+        while(shown < this.showOrder.size() && spend(2, shown == 0)) {
+            shown++;
+        }
+        for(int i = shown; i < this.showOrder.size(); i++) {
+            this.changes.remove(this.showOrder.get(i));
+        }
+        this.showOrder.subList(0, shown).clear();
+    }
+
+    /**
+     * Sends the player a single packet removing entities.
+     * @param entityIds ids of the entities to remove.
+     */
+    void sendRemoveEntities(int[] entityIds) {
+        PacketFactory.createPacketRemoveEntities(entityIds).send(this.player);
+    }
+
+    private double getPriority(LocationTargetBeam beam) {
+        Double priority = this.priorities.get(beam);
+        return priority != null ? priority : 0;
+    }
+
+    private void scheduleReconcile() {
+        if(!this.isReconcileScheduled) {
+            this.isReconcileScheduled = true;
+            this.manager.scheduleReconcile(this);
+        }
+    }
+
+    /**
+     * Counts a beam using an endpoint, queueing its squid to be sent if this is the first.
+     * @param endpoint the endpoint, or null for a beam using its own squid. Real entities are not counted.
+     */
+    private void acquire(Endpoint endpoint) {
+        if(endpoint == null || endpoint.isEntity()) {
+            return;
+        }
+        int[] count = this.endpoints.get(endpoint);
+        if(count == null) {
+            this.endpoints.put(endpoint, new int[] {1});
+            this.spawnedEndpoints.add(endpoint);
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Stops counting a beam using the endpoint it was shown with, removing the squid if this was the last.
+     * @param beam the beam.
+     * @param endpoint the endpoint the beam was shown with, or null if it was shown with its own squid.
+     */
+    private void release(LocationTargetBeam beam, Endpoint endpoint) {
+        if(endpoint == null) {
+            destroy(beam.getSquidEntityId());
+            return;
+        }
+        if(endpoint.isEntity()) {
+            return;
+        }
+        int[] count = this.endpoints.get(endpoint);
+        if(count != null && --count[0] == 0) {
+            this.endpoints.remove(endpoint);
+            destroy(endpoint.getEntityId());
+        }
+    }
+
+    private void destroy(int entityId) {
+        if(this.destroyed == this.destroyBuffer.length) {
+            this.destroyBuffer = Arrays.copyOf(this.destroyBuffer, this.destroyBuffer.length * 2);
+        }
+        this.destroyBuffer[this.destroyed++] = entityId;
+    }
+}
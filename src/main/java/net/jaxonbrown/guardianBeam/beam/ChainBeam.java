@@ -0,0 +1,174 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import com.google.common.base.Preconditions;
+import net.jaxonbrown.guardianBeam.protocol.EntityIdAllocator;
+import net.jaxonbrown.guardianBeam.protocol.MovementEncoder;
+import net.jaxonbrown.guardianBeam.protocol.PacketFactory;
+import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.BitSet;
+
+/**
+ * Creates guardian beams along a path of points, sharing one entity per point.
+ * The first point is a squid and every later point is a guardian targeting the point before it, so a path of N points
+ * needs N entities rather than the 2(N-1) of separate beams, and moving a point is a single packet.
+ * Be sure to run #cleanup for any players you #start, and #release once the beam is no longer needed.
+ * @author Jaxon A Brown
+ */
+public class ChainBeam {
+    private final WrappedBeamPacket[] spawns;
+    private final MovementEncoder[] movements;
+    private final WrappedBeamPacket[] moves;
+    private final BitSet lastMoved;
+    private final WrappedBeamPacket packetRemoveEntities;
+    private final int[] entityIds;
+    private boolean isReleased;
+
+    /**
+     * Create a chained guardian beam. This sets up the packets.
+     * @param points Points of the path, in the order the effect 'moves towards'. At least two are needed.
+     */
+    public ChainBeam(Location... points) {
+        Preconditions.checkNotNull(points, "points cannot be null");
+        Preconditions.checkArgument(points.length >= 2, "A chain needs at least two points");
+        for(Location point : points) {
+            Preconditions.checkNotNull(point, "points cannot contain null");
+            Preconditions.checkState(point.getWorld().equals(points[0].getWorld()), "Every point must be in the same world");
+        }
+
+        this.spawns = new WrappedBeamPacket[points.length];
+        this.movements = new MovementEncoder[points.length];
+        this.moves = new WrappedBeamPacket[points.length];
+        this.lastMoved = new BitSet(points.length);
+        this.entityIds = new int[points.length];
+
+        this.spawns[0] = PacketFactory.createPacketSquidSpawn(points[0]);
+        for(int i = 1; i < points.length; i++) {
+            this.spawns[i] = PacketFactory.createPacketGuardianSpawn(points[i], this.spawns[i - 1]);
+        }
+        for(int i = 0; i < points.length; i++) {
+            this.movements[i] = new MovementEncoder(this.spawns[i], points[i]);
+            this.entityIds[i] = PacketFactory.getEntityId(this.spawns[i]);
+        }
+        this.packetRemoveEntities = PacketFactory.createPacketRemoveEntities(this.entityIds.clone());
+    }
+
+    /**
+     * Get the number of points in the path.
+     * @return number of points.
+     */
+    public int getPointCount() {
+        return this.spawns.length;
+    }
+
+    /**
+     * Send the packets to create the beam to the player. Each point is spawned after the one it targets.
+     * @param player player to whom the beam will be sent.
+     */
+    public void start(Player player) {
+        for(WrappedBeamPacket spawn : this.spawns) {
+            spawn.send(player);
+        }
+    }
+
+    /**
+     * Sets the position of a point, teleporting it for the player.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     * @param point index of the point.
+     * @param location location of the new position.
+     */
+    public void setPosition(Player player, int point, Location location) {
+        PacketFactory.modifyPacketEntitySpawn(this.spawns[point], location);
+        (this.moves[point] = this.movements[point].teleport(location)).send(player);
+    }
+
+    /**
+     * Sets the position of a point without sending it to anyone.
+     * Players shown the beam afterwards will see it at this position.
+     * Call #updatePosition for every player who was shown the beam, as later moves may be relative to this one.
+     * @param point index of the point.
+     * @param location location of the new position.
+     */
+    public void setPosition(int point, Location location) {
+        PacketFactory.modifyPacketEntitySpawn(this.spawns[point], location);
+        this.moves[point] = this.movements[point].move(location);
+    }
+
+    /**
+     * Sends the last change to the position of a point, if it changed.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     * @param point index of the point.
+     */
+    public void updatePosition(Player player, int point) {
+        if(this.moves[point] != null) {
+            this.moves[point].send(player);
+        }
+    }
+
+    /**
+     * Sets the position of every point without sending it to anyone.
+     * Call #updatePositions for every player who was shown the beam, as later moves may be relative to these.
+     * @param points new positions of the points, one for each point of the path.
+     */
+    public void setPositions(Location... points) {
+        Preconditions.checkArgument(points.length == this.spawns.length, "Expected %s points", this.spawns.length);
+
+        this.lastMoved.clear();
+        for(int i = 0; i < points.length; i++) {
+            setPosition(i, points[i]);
+            if(this.moves[i] != null) {
+                this.lastMoved.set(i);
+            }
+        }
+    }
+
+    /**
+     * Sends the moves of the last #setPositions, one packet for each point which moved.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     */
+    public void updatePositions(Player player) {
+        for(int i = this.lastMoved.nextSetBit(0); i >= 0; i = this.lastMoved.nextSetBit(i + 1)) {
+            this.moves[i].send(player);
+        }
+    }
+
+    /**
+     * Cleans up the entities on the player's side, with a single packet.
+     * @param player player who needs the cleanup.
+     */
+    public void cleanup(Player player) {
+        this.packetRemoveEntities.send(player);
+    }
+
+    /**
+     * Gives the entity ids of the beam back, so they can be reused once the packets sent so far are flushed.
+     * The beam must have been cleaned up for every player it was started for, and cannot be used afterwards.
+     */
+    public void release() {
+        Preconditions.checkState(!this.isReleased, "The beam has already been released");
+
+        this.isReleased = true;
+        for(int entityId : this.entityIds) {
+            EntityIdAllocator.release(entityId);
+        }
+    }
+}
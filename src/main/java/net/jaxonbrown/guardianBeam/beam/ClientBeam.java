@@ -21,7 +21,6 @@ import com.google.common.base.Preconditions;
 import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.util.UUID;
 
@@ -34,15 +33,17 @@ import java.util.UUID;
 public class ClientBeam {
     private final UUID worldUID;
     private final double viewingRadiusSquared;
+    private final double exitRadiusSquared;
     private final long updateDelay;
 
     private boolean isActive;
+    private boolean isReleased;
     private final LocationTargetBeam beam;
     private Location startingPosition, endingPosition;
     private Player player;
+    private final UUID playerUID;
     private boolean isViewing;
-
-    private BukkitRunnable runnable;
+    private boolean isDirty;
 
     /**
      * Create a guardian beam for a specific player. This sets up the packets.
@@ -59,7 +60,7 @@ public class ClientBeam {
      * @param player Player who will see the beam.
      * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
      * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
-     * @param viewingRadius Radius from either node of the beam from which it can be seen.
+     * @param viewingRadius Radius from any point along the beam from which it can be seen.
      * @param updateDelay Delay between checking if the beam should be hidden or shown to the player.
      */
     public ClientBeam(Player player, Location startingPosition, Location endingPosition, double viewingRadius, long updateDelay) {
@@ -73,6 +74,7 @@ public class ClientBeam {
 
         this.worldUID = startingPosition.getWorld().getUID();
         this.viewingRadiusSquared = viewingRadius * viewingRadius;
+        this.exitRadiusSquared = this.viewingRadiusSquared * Beam.DEFAULT_EXIT_FACTOR * Beam.DEFAULT_EXIT_FACTOR;
         this.updateDelay = updateDelay;
 
         this.isActive = false;
@@ -81,35 +83,54 @@ public class ClientBeam {
         this.endingPosition = endingPosition;
 
         this.player = player;
+        this.playerUID = player.getUniqueId();
         this.isViewing = false;
     }
 
     /**
      * Send the packets to create the beam to the player, if applicable.
-     * This also starts the runnable which will make the effect visible if it becomes applicable later.
+     * This also registers the beam with the BeamManager, which will make the effect visible if it becomes applicable later.
      */
     public void start() {
         Preconditions.checkState(!this.isActive, "The beam must be disabled in order to start it");
-        Preconditions.checkState(this.player != null && !this.player.isOnline(), "The player must be online");
+        Preconditions.checkState(!this.isReleased, "The beam has been released");
+        Preconditions.checkState(this.player != null && this.player.isOnline(), "The player must be online");
 
         this.isActive = true;
-        (this.runnable = new ClientBeamUpdater()).runTaskTimer(GuardianBeamAPI.getInstance(), 0, this.updateDelay);
+        GuardianBeamAPI.getInstance().getBeamManager().register(this);
+        update();
     }
 
     /**
      * Send the packets to remove the beam from the player, if applicable.
-     * This also stops the runnable.
+     * This also unregisters the beam from the BeamManager.
      */
     public void stop() {
         Preconditions.checkState(this.isActive, "The beam must be enabled in order to stop it");
 
         this.isActive = false;
-        this.isViewing = false;
         if(this.player != null && !this.player.isOnline()) {
             this.player = null;
         }
-        this.runnable.cancel();
-        this.runnable = null;
+        if(this.isViewing && this.player != null) {
+            setVisible(false);
+        }
+        this.isViewing = false;
+        GuardianBeamAPI.getInstance().getBeamManager().unregister(this);
+    }
+
+    /**
+     * Stops the beam if it is running and frees its entity ids for other beams.
+     * The beam cannot be started again afterwards.
+     */
+    public void release() {
+        Preconditions.checkState(!this.isReleased, "The beam has already been released");
+
+        if(this.isActive) {
+            stop();
+        }
+        this.isReleased = true;
+        this.beam.release();
     }
 
     /**
@@ -118,10 +139,14 @@ public class ClientBeam {
      */
     public void setStartingPosition(Location location) {
         Preconditions.checkArgument(location.getWorld().getUID().equals(this.worldUID), "location must be in the same world as this beam");
-        Preconditions.checkState(this.player != null && !this.player.isOnline(), "The player must be online");
+        Preconditions.checkState(this.player != null && this.player.isOnline(), "The player must be online");
 
         this.startingPosition = location;
-        this.beam.setStartingPosition(this.player, location);
+        this.isDirty = true;
+        this.beam.setStartingPosition(location);
+        if(this.isViewing) {
+            this.beam.updateStartingPosition(this.player);
+        }
     }
 
     /**
@@ -130,31 +155,46 @@ public class ClientBeam {
      */
     public void setEndingPosition(Location location) {
         Preconditions.checkArgument(location.getWorld().getUID().equals(this.worldUID), "location must be in the same world as this beam");
-        Preconditions.checkState(this.player != null && !this.player.isOnline(), "The player must be online");
+        Preconditions.checkState(this.player != null && this.player.isOnline(), "The player must be online");
 
         this.endingPosition = location;
-        this.beam.setEndingPosition(this.player, location);
+        this.isDirty = true;
+        this.beam.setEndingPosition(location);
+        if(this.isViewing) {
+            this.beam.updateEndingPosition(this.player);
+        }
     }
 
     /**
      * Checks if any packets need to be sent to show or hide the beam. Stops the beam if the player is offline.
      */
     public void update() {
-        if(this.player == null || !this.player.isOnline()) {
+        if(this.isActive && this.player != null) {
+            update(this.player.getLocation());
+        } else if(this.isActive) {
             stop();
         }
+    }
+
+    /**
+     * Checks if any packets need to be sent to show or hide the beam, as if the player stood at the given location.
+     * @param location location of the player, which may be where they are about to move to.
+     */
+    void update(Location location) {
         if(this.isActive) {
-            if(!this.player.getWorld().getUID().equals(this.worldUID)) {
+            this.isDirty = false;
+            if(this.player == null || !this.player.isOnline() || !location.getWorld().getUID().equals(this.worldUID)) {
                 stop();
+                return;
             }
 
-            if(isCloseEnough(player.getLocation())) {
+            if(isCloseEnough(location)) {
                 if(!this.isViewing) {
-                    this.beam.start(player);
+                    setVisible(true);
                     this.isViewing = true;
                 }
             } else if(this.isViewing) {
-                this.beam.cleanup(player);
+                setVisible(false);
                 this.isViewing = false;
             }
         }
@@ -176,15 +216,51 @@ public class ClientBeam {
         return this.isViewing;
     }
 
-    private boolean isCloseEnough(Location location) {
-        return startingPosition.distanceSquared(location) <= viewingRadiusSquared ||
-                endingPosition.distanceSquared(location) <= viewingRadiusSquared;
+    UUID getWorldUID() {
+        return this.worldUID;
     }
 
-    private class ClientBeamUpdater extends BukkitRunnable {
-        @Override
-        public void run() {
-            ClientBeam.this.update();
+    long getUpdateDelay() {
+        return this.updateDelay;
+    }
+
+    UUID getPlayerUID() {
+        return this.playerUID;
+    }
+
+    /**
+     * Checks if the beam moved since it was last updated.
+     * @return True if the beam moved.
+     */
+    boolean isDirty() {
+        return this.isDirty;
+    }
+
+    /**
+     * Deactivates the beam without sending any packets, used when its world is unloaded.
+     */
+    void deactivate() {
+        this.isActive = false;
+        this.isViewing = false;
+    }
+
+    /**
+     * Has the player's BeamTracker show or hide the beam, or does it straight away if the player has no tracker.
+     * @param visible True to show the beam.
+     */
+    private void setVisible(boolean visible) {
+        BeamTracker tracker = GuardianBeamAPI.getInstance().getBeamManager().getPlayerIndex().getTracker(this.player);
+        if(tracker != null) {
+            tracker.setVisible(this.beam, visible);
+        } else if(visible) {
+            this.beam.start(this.player);
+        } else {
+            this.beam.cleanup(this.player);
         }
     }
+
+    private boolean isCloseEnough(Location location) {
+        return BeamGeometry.distanceSquaredToSegment(this.startingPosition, this.endingPosition, location)
+                <= (this.isViewing ? this.exitRadiusSquared : this.viewingRadiusSquared);
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+/**
+ * Easing curves which map linear progress through an animation to eased progress.
+ * @author Jaxon A Brown
+ */
+public enum Easing {
+    LINEAR {
+        @Override
+        public double apply(double progress) {
+            return progress;
+        }
+    },
+    QUAD_IN {
+        @Override
+        public double apply(double progress) {
+            return progress * progress;
+        }
+    },
+    QUAD_OUT {
+        @Override
+        public double apply(double progress) {
+            return progress * (2 - progress);
+        }
+    },
+    QUAD_IN_OUT {
+        @Override
+        public double apply(double progress) {
+            return progress < 0.5 ? 2 * progress * progress : -1 + (4 - 2 * progress) * progress;
+        }
+    },
+    SINE_IN_OUT {
+        @Override
+        public double apply(double progress) {
+            return 0.5 - Math.cos(progress * Math.PI) / 2;
+        }
+    };
+
+    /**
+     * Eases the progress.
+     * @param progress linear progress, from 0 to 1.
+     * @return eased progress, 0 at the start and 1 at the end.
+     */
+    public abstract double apply(double progress);
+}
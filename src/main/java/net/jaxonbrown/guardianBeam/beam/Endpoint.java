@@ -0,0 +1,130 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import net.jaxonbrown.guardianBeam.protocol.EntityIdAllocator;
+import net.jaxonbrown.guardianBeam.protocol.MovementEncoder;
+import net.jaxonbrown.guardianBeam.protocol.PacketFactory;
+import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+
+/**
+ * A squid shared by the beams starting at the same position, created once a second beam starts there.
+ * Each player's BeamTracker counts the beams using it, so the squid is spawned with the first of them and removed with
+ * the last.
+ * An endpoint may also be a real entity, which the guardian targets directly.
+ * @author Jaxon A Brown
+ */
+class Endpoint {
+    private final WrappedBeamPacket squidSpawn;
+    private final MovementEncoder movement;
+    private final int entityId;
+    private final EndpointRegistry.Key key;
+    private WrappedBeamPacket lastMove;
+    private int beams;
+
+    Endpoint(EndpointRegistry.Key key, Location location) {
+        this.key = key;
+        this.squidSpawn = PacketFactory.createPacketSquidSpawn(location);
+        this.movement = new MovementEncoder(this.squidSpawn, location);
+        this.entityId = PacketFactory.getEntityId(this.squidSpawn);
+    }
+
+    /**
+     * Create the endpoint of a beam starting at a real entity. Nothing is ever spawned, moved or removed for it.
+     * @param entity the entity.
+     */
+    Endpoint(Entity entity) {
+        this.key = null;
+        this.squidSpawn = null;
+        this.movement = null;
+        this.entityId = entity.getEntityId();
+    }
+
+    /**
+     * Checks if the endpoint is a real entity rather than a squid of the library's own.
+     * @return True if the endpoint is a real entity.
+     */
+    boolean isEntity() {
+        return this.squidSpawn == null;
+    }
+
+    /**
+     * Moves the squid without sending it to anyone. Players who have the squid must be sent #takeLastMove.
+     * The registry updates the key.
+     * @param location the new position.
+     */
+    void move(Location location) {
+        PacketFactory.modifyPacketEntitySpawn(this.squidSpawn, location);
+        this.lastMove = this.movement.move(location);
+    }
+
+    /**
+     * Get the packet of the last move, for every player who has the squid, and forgets it.
+     * @return the packet, or null if the squid has not moved in a way the client would see.
+     */
+    WrappedBeamPacket takeLastMove() {
+        WrappedBeamPacket move = this.lastMove;
+        this.lastMove = null;
+        return move;
+    }
+
+    /**
+     * Get a teleport of the squid to its current position, for a player who skipped some of its moves.
+     * @return teleport packet for the squid.
+     */
+    WrappedBeamPacket sync() {
+        return this.movement.sync();
+    }
+
+    WrappedBeamPacket getSquidSpawn() {
+        return this.squidSpawn;
+    }
+
+    int getEntityId() {
+        return this.entityId;
+    }
+
+    EndpointRegistry.Key getKey() {
+        return this.key;
+    }
+
+    int getBeamCount() {
+        return this.beams;
+    }
+
+    void addBeam() {
+        this.beams++;
+    }
+
+    /**
+     * Removes a beam from the endpoint.
+     * @return True if no beam uses the endpoint any more.
+     */
+    boolean removeBeam() {
+        return --this.beams == 0;
+    }
+
+    /**
+     * Gives the entity id back, once no beam uses the endpoint any more.
+     */
+    void release() {
+        EntityIdAllocator.release(this.entityId);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
+import org.bukkit.Location;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shared endpoints of the beams in one world, keyed by their position in 1/32ths of a block.
+ * A beam alone at its position keeps using its own squid, and is only remembered here. Once a second beam starts
+ * within the same 1/32th of a block, both switch to one shared squid, so K beams converging on one point need K+1
+ * entities rather than 2K. When all the beams of a shared endpoint move to the same position, the squid moves with them.
+ * Positions are looked up with one reused key, so only a beam or endpoint taking up a new position allocates a key.
+ * @author Jaxon A Brown
+ */
+class EndpointRegistry {
+    private static final double PRECISION = 32.0D;
+
+    private final Map<Key, Endpoint> endpoints;
+    private final Map<Key, Beam> soloBeams;
+    private final Map<Beam, Key> soloKeys;
+    private final Map<Endpoint, PendingMove> pendingMoves;
+    private final Key lookup;
+
+    EndpointRegistry() {
+        this.endpoints = new HashMap<>();
+        this.soloBeams = new HashMap<>();
+        this.soloKeys = new IdentityHashMap<>();
+        this.pendingMoves = new HashMap<>();
+        this.lookup = new Key();
+    }
+
+    /**
+     * Get the endpoint a beam starting at a position should use, and counts the beam using it.
+     * If another beam is alone at the position, a shared endpoint is created and that beam is switched to it too.
+     * @param beam the beam.
+     * @param location position of the beam's squid.
+     * @return the shared endpoint, or null if the beam is alone and should use its own squid.
+     */
+    Endpoint acquire(Beam beam, Location location) {
+        Key key = this.lookup.set(location);
+        Endpoint endpoint = this.endpoints.get(key);
+        if(endpoint == null) {
+            Beam solo = this.soloBeams.remove(key);
+            if(solo == null) {
+                Key soloKey = new Key(key);
+                this.soloBeams.put(soloKey, beam);
+                this.soloKeys.put(beam, soloKey);
+                return null;
+            }
+
+            Key sharedKey = this.soloKeys.remove(solo);
+            this.endpoints.put(sharedKey, endpoint = new Endpoint(sharedKey, location));
+            endpoint.addBeam();
+            solo.switchEndpoint(endpoint);
+        }
+        endpoint.addBeam();
+        return endpoint;
+    }
+
+    /**
+     * Stops counting a beam using an endpoint. A shared endpoint is dropped once no beam uses it.
+     * If the beams left had all moved to the same position, the endpoint moves there.
+     * @param beam the beam.
+     * @param endpoint the endpoint, or null if the beam uses its own squid.
+     */
+    void release(Beam beam, Endpoint endpoint) {
+        if(endpoint == null) {
+            Key key = this.soloKeys.remove(beam);
+            if(key != null) {
+                this.soloBeams.remove(key);
+            }
+            return;
+        }
+
+        PendingMove pending = this.pendingMoves.get(endpoint);
+        if(pending != null) {
+            pending.beams.remove(beam);
+        }
+        if(endpoint.removeBeam()) {
+            this.pendingMoves.remove(endpoint);
+            if(this.endpoints.remove(endpoint.getKey()) == endpoint) {
+                endpoint.release();
+            }
+        } else if(pending != null) {
+            completeMove(endpoint, pending);
+        }
+    }
+
+    /**
+     * Moves a beam's endpoint. A beam alone at its position keeps its own squid while no other beam is at the new one.
+     * An endpoint used by the beam alone is moved as long as no other beam is there already.
+     * A shared endpoint waits for its other beams: once all of them have moved to the same position, it is moved and
+     * the move is sent to every beam's viewers. Beams still waiting when #resolveMoves is called, and beams moving to
+     * a position another beam is at already, switch to the endpoint at their new position.
+     * @param beam the beam which moved.
+     * @param endpoint the beam's current endpoint, or null if it uses its own squid.
+     * @param location the new position.
+     * @return the endpoint the beam should use. This is the same endpoint if it was moved or the move waits for the
+     * other beams of the endpoint, and null if the beam should use its own squid.
+     */
+    Endpoint move(Beam beam, Endpoint endpoint, Location location) {
+        Key key = this.lookup.set(location);
+        if(endpoint == null) {
+            Key soloKey = this.soloKeys.get(beam);
+            if(soloKey != null && soloKey.equals(key)) {
+                return null;
+            }
+            if(soloKey != null && isFree(key)) {
+                this.soloBeams.remove(soloKey);
+                this.soloBeams.put(soloKey.set(key), beam);
+                return null;
+            }
+            release(beam, null);
+            return acquire(beam, location);
+        }
+
+        PendingMove pending = this.pendingMoves.get(endpoint);
+        if(pending != null) {
+            pending.beams.remove(beam);
+        }
+        if(key.equals(endpoint.getKey())) {
+            if(pending != null && pending.beams.isEmpty()) {
+                this.pendingMoves.remove(endpoint);
+            }
+            return endpoint;
+        }
+
+        if(isFree(key)) {
+            if(endpoint.getBeamCount() == 1) {
+                moveEndpoint(endpoint, key, location);
+                return endpoint;
+            }
+            if(pending == null || pending.beams.isEmpty()) {
+                this.pendingMoves.put(endpoint, pending = new PendingMove(new Key(key), location));
+            }
+            if(pending.key.equals(key)) {
+                pending.beams.add(beam);
+                completeMove(endpoint, pending);
+                return endpoint;
+            }
+        }
+
+        release(beam, endpoint);
+        return acquire(beam, location);
+    }
+
+    /**
+     * Switches every beam still waiting for the other beams of its endpoint to the endpoint at its new position.
+     * Called once the beams have sent their moves for the tick.
+     */
+    void resolveMoves() {
+        if(this.pendingMoves.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<Endpoint, PendingMove>> pendingMoves = new ArrayList<>(this.pendingMoves.entrySet());
+        this.pendingMoves.clear();
+        for(Map.Entry<Endpoint, PendingMove> entry : pendingMoves) {
+            for(Beam beam : entry.getValue().beams) {
+                release(beam, entry.getKey());
+                beam.switchEndpoint(acquire(beam, entry.getValue().location));
+            }
+        }
+    }
+
+    /**
+     * Drops every endpoint, used once none of their beams are active any more.
+     */
+    void clear() {
+        for(Endpoint endpoint : this.endpoints.values()) {
+            endpoint.release();
+        }
+        this.endpoints.clear();
+        this.soloBeams.clear();
+        this.soloKeys.clear();
+        this.pendingMoves.clear();
+    }
+
+    /**
+     * Moves the endpoint once every beam using it is waiting to move to the same position, and sends the move to the
+     * viewers of each of them.
+     * @param endpoint the endpoint.
+     * @param pending the beams waiting to move.
+     */
+    private void completeMove(Endpoint endpoint, PendingMove pending) {
+        if(pending.beams.size() != endpoint.getBeamCount() || !isFree(pending.key)) {
+            return;
+        }
+
+        this.pendingMoves.remove(endpoint);
+        moveEndpoint(endpoint, pending.key, pending.location);
+        WrappedBeamPacket move = endpoint.takeLastMove();
+        if(move != null) {
+            BitSet sent = new BitSet();
+            for(Beam beam : pending.beams) {
+                beam.sendEndpointMove(endpoint, move, sent);
+            }
+        }
+    }
+
+    private boolean isFree(Key key) {
+        return !this.endpoints.containsKey(key) && !this.soloBeams.containsKey(key);
+    }
+
+    /**
+     * Moves the endpoint, re-keying it under its own key object.
+     * @param endpoint the endpoint.
+     * @param key key of the new position, which is copied.
+     * @param location the new position.
+     */
+    private void moveEndpoint(Endpoint endpoint, Key key, Location location) {
+        this.endpoints.remove(endpoint.getKey());
+        endpoint.move(location);
+        this.endpoints.put(endpoint.getKey().set(key), endpoint);
+    }
+
+    /**
+     * Beams of a shared endpoint which moved to the same position, waiting for the rest of its beams.
+     */
+    private static final class PendingMove {
+        private final Key key;
+        private final Location location;
+        private final List<Beam> beams;
+
+        private PendingMove(Key key, Location location) {
+            this.key = key;
+            this.location = location;
+            this.beams = new ArrayList<>();
+        }
+    }
+
+    /**
+     * A position rounded to the precision of the registry.
+     * Keys held by the maps of the registry are only changed while they are out of the maps.
+     */
+    static final class Key {
+        private int x, y, z;
+
+        private Key() {}
+
+        private Key(Key key) {
+            set(key);
+        }
+
+        private Key set(Location location) {
+            this.x = (int) Math.floor(location.getX() * PRECISION);
+            this.y = (int) Math.floor(location.getY() * PRECISION);
+            this.z = (int) Math.floor(location.getZ() * PRECISION);
+            return this;
+        }
+
+        private Key set(Key key) {
+            this.x = key.x;
+            this.y = key.y;
+            this.z = key.z;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.x == key.x && this.y == key.y && this.z == key.z;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.x + this.y) + this.z;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets, each split into 8 linear steps.
+ * Percentiles are accurate to within 12.5%. Recording is a single array increment, and any thread may read.
+ * @author Jaxon A Brown
+ */
+class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT = 4;
+
+    private final AtomicLongArray buckets;
+
+    LatencyHistogram() {
+        this.buckets = new AtomicLongArray(LINEAR_BUCKETS + (64 - FIRST_EXPONENT) * SUB_BUCKETS);
+    }
+
+    void record(long nanos) {
+        this.buckets.incrementAndGet(indexOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Get the duration below which the given share of the recorded durations fall.
+     * @param percentile share between 0 and 1, such as 0.99.
+     * @return duration in nanoseconds, or 0 if nothing was recorded.
+     */
+    long getPercentile(double percentile) {
+        long total = getCount();
+        if(total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for(int i = 0; i < this.buckets.length(); i++) {
+            seen += this.buckets.get(i);
+            if(seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(this.buckets.length() - 1);
+    }
+
+    long getCount() {
+        long count = 0;
+        for(int i = 0; i < this.buckets.length(); i++) {
+            count += this.buckets.get(i);
+        }
+        return count;
+    }
+
+    void reset() {
+        for(int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+    }
+
+    private static int indexOf(long value) {
+        if(value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        if(index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -18,6 +18,9 @@
 package net.jaxonbrown.guardianBeam.beam;
 
 import com.google.common.base.Preconditions;
+import net.jaxonbrown.guardianBeam.protocol.BeamPacketPool;
+import net.jaxonbrown.guardianBeam.protocol.BeamPackets;
+import net.jaxonbrown.guardianBeam.protocol.MovementEncoder;
 import net.jaxonbrown.guardianBeam.protocol.PacketFactory;
 import net.jaxonbrown.guardianBeam.protocol.WrappedBeamPacket;
 import org.bukkit.Location;
@@ -27,18 +30,26 @@ import org.bukkit.entity.Player;
  * Creates a guardian beam between two locations.
  * This uses ProtocolLib to send two entities: A guardian and a squid.
  * The guardian is then set to target the squid.
- * Be sure to run #cleanup for any players you #start.
+ * Be sure to run #cleanup for any players you #start, and #release once the beam is no longer needed.
  * @author Jaxon A Brown
  */
 public class LocationTargetBeam {
+    private final BeamPackets packets;
     private final WrappedBeamPacket packetSquidSpawn;
-    private final WrappedBeamPacket packetSquidMove;
+    private final MovementEncoder squidMovement;
     private final WrappedBeamPacket packetGuardianSpawn;
-    private final WrappedBeamPacket packetGuardianMove;
+    private final MovementEncoder guardianMovement;
     private final WrappedBeamPacket packetRemoveEntities;
 
+    private WrappedBeamPacket packetSquidMove;
+    private WrappedBeamPacket packetGuardianMove;
+    private WrappedBeamPacket packetGuardianTarget;
+    private Endpoint endpoint;
+    private Beam owner;
+    private boolean isReleased;
+
     /**
-     * Create a guardian beam. This sets up the packets.
+     * Create a guardian beam. This sets up the packets, reusing those of a released beam if the pool has any.
      * @param startingPosition Position to start the beam, or the position which the effect 'moves towards'.
      * @param endingPosition Position to stop the beam, or the position which the effect 'moves away from'.
      */
@@ -47,11 +58,24 @@ public class LocationTargetBeam {
         Preconditions.checkNotNull(endingPosition, "endingPosition cannot be null");
         Preconditions.checkState(startingPosition.getWorld().equals(endingPosition.getWorld()), "startingPosition and endingPosition must be in the same world");
 
-        this.packetSquidSpawn = PacketFactory.createPacketSquidSpawn(startingPosition);
-        this.packetSquidMove = PacketFactory.createPacketEntityMove(this.packetSquidSpawn);
-        this.packetGuardianSpawn = PacketFactory.createPacketGuardianSpawn(endingPosition, this.packetSquidSpawn);
-        this.packetGuardianMove = PacketFactory.createPacketEntityMove(this.packetGuardianSpawn);
-        this.packetRemoveEntities = PacketFactory.createPacketRemoveEntities(this.packetSquidSpawn, this.packetGuardianSpawn);
+        this.packets = BeamPacketPool.acquire(startingPosition, endingPosition);
+        this.packetSquidSpawn = this.packets.getSquidSpawn();
+        this.squidMovement = this.packets.getSquidMovement();
+        this.packetGuardianSpawn = this.packets.getGuardianSpawn();
+        this.guardianMovement = this.packets.getGuardianMovement();
+        this.packetRemoveEntities = this.packets.getRemoveEntities();
+    }
+
+    /**
+     * Create a guardian beam without packets, for subclasses which send their own in place of every packet method.
+     */
+    LocationTargetBeam() {
+        this.packets = null;
+        this.packetSquidSpawn = null;
+        this.squidMovement = null;
+        this.packetGuardianSpawn = null;
+        this.guardianMovement = null;
+        this.packetRemoveEntities = null;
     }
 
     /**
@@ -64,23 +88,109 @@ public class LocationTargetBeam {
     }
 
     /**
-     * Sets the position of the beam which the effect 'moves away from'.
+     * Send the packet to create the beam's own squid alone, for a player whose guardian targeted a shared endpoint.
+     * @param player player to whom the squid will be sent.
+     */
+    void startSquid(Player player) {
+        this.packetSquidSpawn.send(player);
+    }
+
+    /**
+     * Send the packet to create the guardian alone, for a player who was sent the beam's endpoint already.
+     * @param player player to whom the beam will be sent.
+     */
+    void startGuardian(Player player) {
+        this.packetGuardianSpawn.send(player);
+    }
+
+    /**
+     * Sets the position of the beam which the effect 'moves away from', teleporting it for the player.
      * @param player player who should receive the update. They MUST have been showed the beam already.
      * @param location location of the new position.
      */
     public void setStartingPosition(Player player, Location location) {
         PacketFactory.modifyPacketEntitySpawn(this.packetSquidSpawn, location);
-        PacketFactory.modifyPacketEntityMove(this.packetSquidMove, location).send(player);
+        (this.packetSquidMove = this.squidMovement.teleport(location)).send(player);
     }
 
     /**
-     * Sets the position of the beam which the effect 'moves towards'.
+     * Sets the position of the beam which the effect 'moves away from' without sending it to anyone.
+     * Players shown the beam afterwards will see it at this position.
+     * Call #updateStartingPosition for every player who was shown the beam, as later moves may be relative to this one.
+     * @param location location of the new position.
+     */
+    public void setStartingPosition(Location location) {
+        PacketFactory.modifyPacketEntitySpawn(this.packetSquidSpawn, location);
+        this.packetSquidMove = this.squidMovement.move(location);
+    }
+
+    /**
+     * Sends the last change to the position of the beam which the effect 'moves away from', if it changed.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     */
+    public void updateStartingPosition(Player player) {
+        if(this.packetSquidMove != null) {
+            this.packetSquidMove.send(player);
+        }
+    }
+
+    /**
+     * Sets the position of the beam which the effect 'moves towards', teleporting it for the player.
      * @param player player who should receive the update. They MUST have been showed the beam already.
      * @param location location of the new position.
      */
     public void setEndingPosition(Player player, Location location) {
         PacketFactory.modifyPacketEntitySpawn(this.packetGuardianSpawn, location);
-        PacketFactory.modifyPacketEntityMove(this.packetGuardianMove, location).send(player);
+        (this.packetGuardianMove = this.guardianMovement.teleport(location)).send(player);
+    }
+
+    /**
+     * Sets the position of the beam which the effect 'moves towards' without sending it to anyone.
+     * Players shown the beam afterwards will see it at this position.
+     * Call #updateEndingPosition for every player who was shown the beam, as later moves may be relative to this one.
+     * @param location location of the new position.
+     */
+    public void setEndingPosition(Location location) {
+        PacketFactory.modifyPacketEntitySpawn(this.packetGuardianSpawn, location);
+        this.packetGuardianMove = this.guardianMovement.move(location);
+    }
+
+    /**
+     * Sends the last change to the position of the beam which the effect 'moves towards', if it changed.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     */
+    public void updateEndingPosition(Player player) {
+        if(this.packetGuardianMove != null) {
+            this.packetGuardianMove.send(player);
+        }
+    }
+
+    /**
+     * Get the packet of the last change to the position which the effect 'moves away from'.
+     * @return the packet, or null if it has not changed in a way the client would see.
+     */
+    WrappedBeamPacket getStartingMove() {
+        return this.packetSquidMove;
+    }
+
+    /**
+     * Get the packet of the last change to the position which the effect 'moves towards'.
+     * @return the packet, or null if it has not changed in a way the client would see.
+     */
+    WrappedBeamPacket getEndingMove() {
+        return this.packetGuardianMove;
+    }
+
+    /**
+     * Teleports both entities to their current positions for a player who skipped some of their moves.
+     * @param player player who should receive the update. They MUST have been showed the beam already.
+     * @param squid whether the beam's own squid should be teleported as well as the guardian.
+     */
+    void sync(Player player, boolean squid) {
+        if(squid) {
+            this.squidMovement.sync().send(player);
+        }
+        this.guardianMovement.sync().send(player);
     }
 
     /**
@@ -90,4 +200,67 @@ public class LocationTargetBeam {
     public void cleanup(Player player) {
         this.packetRemoveEntities.send(player);
     }
+
+    /**
+     * Get the shared squid the guardian targets instead of its own.
+     * @return the endpoint, or null if the beam uses its own squid.
+     */
+    Endpoint getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * Sets the shared squid the guardian targets. Players shown the beam afterwards are sent a guardian targeting it,
+     * and players who were already shown the beam need #getGuardianTarget.
+     * @param endpoint the endpoint, or null to go back to the beam's own squid.
+     */
+    void setEndpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+        this.packets.setGuardianTarget(endpoint != null ? endpoint.getEntityId() : this.packets.getSquidEntityId());
+        this.packetGuardianTarget = null;
+    }
+
+    /**
+     * Get the packet pointing the guardian at its current target, for players who were shown it with another target.
+     * @return packet changing the guardian's target.
+     */
+    WrappedBeamPacket getGuardianTarget() {
+        if(this.packetGuardianTarget == null) {
+            this.packetGuardianTarget = PacketFactory.createPacketGuardianTarget(this.packetGuardianSpawn,
+                    this.endpoint != null ? this.endpoint.getEntityId() : this.packets.getSquidEntityId());
+        }
+        return this.packetGuardianTarget;
+    }
+
+    /**
+     * Get the Beam which drives these packets.
+     * @return the beam, or null if the packets are used on their own or by a ClientBeam.
+     */
+    Beam getOwner() {
+        return this.owner;
+    }
+
+    void setOwner(Beam owner) {
+        this.owner = owner;
+    }
+
+    int getSquidEntityId() {
+        return this.packets.getSquidEntityId();
+    }
+
+    int getGuardianEntityId() {
+        return this.packets.getGuardianEntityId();
+    }
+
+    /**
+     * Returns the packets and entity ids of the beam to the BeamPacketPool, so a new beam can reuse them once the
+     * packets sent so far are flushed.
+     * The beam must have been cleaned up for every player it was started for, and cannot be used afterwards.
+     */
+    public void release() {
+        Preconditions.checkState(!this.isReleased, "The beam has already been released");
+
+        this.isReleased = true;
+        BeamPacketPool.release(this.packets);
+    }
 }
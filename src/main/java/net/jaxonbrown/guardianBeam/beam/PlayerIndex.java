@@ -0,0 +1,142 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Gives every online player a small index for their session, so viewers can be kept in bitsets and turned back into
+ * players through an array. Indices of players who left are handed out again, which keeps them dense.
+ * @author Jaxon A Brown
+ */
+class PlayerIndex {
+    private final BeamManager manager;
+    private final Map<UUID, Integer> indices;
+    private final BitSet used;
+    private Player[] players;
+    private BeamTracker[] trackers;
+
+    PlayerIndex(BeamManager manager) {
+        this.manager = manager;
+        this.indices = new HashMap<>();
+        this.used = new BitSet();
+        this.players = new Player[64];
+        this.trackers = new BeamTracker[64];
+    }
+
+    /**
+     * Gives the player an index and a BeamTracker, if they do not have them yet.
+     * @param player player who joined.
+     * @return the player's index.
+     */
+    int add(Player player) {
+        Integer existing = this.indices.get(player.getUniqueId());
+        if(existing != null) {
+            if(this.players[existing] != player) {
+                this.players[existing] = player;
+                this.trackers[existing].clear();
+                this.trackers[existing] = new BeamTracker(player, this.manager);
+            }
+            return existing;
+        }
+
+        int index = this.used.nextClearBit(0);
+        this.used.set(index);
+        if(index >= this.players.length) {
+            this.players = Arrays.copyOf(this.players, this.players.length * 2);
+            this.trackers = Arrays.copyOf(this.trackers, this.trackers.length * 2);
+        }
+        this.players[index] = player;
+        this.trackers[index] = new BeamTracker(player, this.manager);
+        this.indices.put(player.getUniqueId(), index);
+        return index;
+    }
+
+    /**
+     * Frees the index and BeamTracker of a player who left. It may be given to the next player who joins.
+     * @param uuid unique id of the player.
+     */
+    void remove(UUID uuid) {
+        Integer index = this.indices.remove(uuid);
+        if(index != null) {
+            this.players[index] = null;
+            this.trackers[index].clear();
+            this.trackers[index] = null;
+            this.used.clear(index);
+        }
+    }
+
+    /**
+     * Get the index of a player.
+     * @param player player to look up.
+     * @return the player's index, or -1 if they have none (for instance a fake player which never joined).
+     */
+    int indexOf(Player player) {
+        Integer index = this.indices.get(player.getUniqueId());
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Get the player holding an index.
+     * @param index index of the player.
+     * @return the player, or null if the index is free.
+     */
+    Player get(int index) {
+        return index < this.players.length ? this.players[index] : null;
+    }
+
+    /**
+     * Get the BeamTracker of the player holding an index.
+     * @param index index of the player.
+     * @return the player's tracker, or null if the index is free.
+     */
+    BeamTracker getTracker(int index) {
+        return index < this.trackers.length ? this.trackers[index] : null;
+    }
+
+    /**
+     * Get the BeamTracker of a player.
+     * @param player player to look up.
+     * @return the player's tracker, or null if they have no index.
+     */
+    BeamTracker getTracker(Player player) {
+        int index = indexOf(player);
+        return index < 0 ? null : this.trackers[index];
+    }
+
+    /**
+     * Get a bound on the indices in use, to loop over every player.
+     * @return one more than the highest index in use.
+     */
+    int getIndexLimit() {
+        return this.used.length();
+    }
+
+    void clear() {
+        this.indices.clear();
+        this.used.clear();
+        Arrays.fill(this.players, null);
+        Arrays.fill(this.trackers, null);
+    }
+}
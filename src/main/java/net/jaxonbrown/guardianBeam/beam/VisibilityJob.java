@@ -0,0 +1,278 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Works out who can see a batch of beams off the main thread.
+ * Player positions and beam geometry are copied into primitive arrays on the main thread when the job is created, with
+ * the players bucketed by grid cell. The pool then splits the beams between its threads, and each beam only looks at
+ * the players in the cells it covers. The results are applied on the main thread with #apply.
+ * @author Jaxon A Brown
+ */
+class VisibilityJob {
+    private static final int BEAMS_PER_TASK = 64;
+
+    private final Beam[] beams;
+    private final BitSet[] viewers;
+    private final double[] beamCoordinates;
+    private final double[] radiiSquared;
+    private final int[] bounds;
+
+    private final Player[] players;
+    private final int[] playerIndices;
+    private final double[] playerCoordinates;
+    private final Map<Long, int[]> cells;
+    private final int[] occupiedX, occupiedZ;
+    private final int[][] occupiedPlayers;
+
+    private final int[][] visibleSlots;
+    private final double[][] visibleDistances;
+    private final int[] visibleCounts;
+
+    private SnapshotTask task;
+
+    /**
+     * Takes the snapshot of the beams and players. Must be created on the main thread.
+     * @param beams active beams to update, none of which start at an entity.
+     * @param players players in the world of the beams.
+     * @param playerIndex index of the players.
+     */
+    VisibilityJob(List<Beam> beams, List<Player> players, PlayerIndex playerIndex) {
+        int beamCount = beams.size();
+        this.beams = beams.toArray(new Beam[beamCount]);
+        this.viewers = new BitSet[beamCount];
+        this.beamCoordinates = new double[beamCount * 6];
+        this.radiiSquared = new double[beamCount * 2];
+        this.bounds = new int[beamCount * 4];
+        for(int i = 0; i < beamCount; i++) {
+            Beam beam = this.beams[i];
+            Location start = beam.getStartingPosition();
+            Location end = beam.getEndingPosition();
+            double exitRadius = beam.getExitRadius();
+            this.viewers[i] = beam.prepareSnapshot();
+            this.beamCoordinates[i * 6] = start.getX();
+            this.beamCoordinates[i * 6 + 1] = start.getY();
+            this.beamCoordinates[i * 6 + 2] = start.getZ();
+            this.beamCoordinates[i * 6 + 3] = end.getX();
+            this.beamCoordinates[i * 6 + 4] = end.getY();
+            this.beamCoordinates[i * 6 + 5] = end.getZ();
+            this.radiiSquared[i * 2] = beam.getViewingRadius() * beam.getViewingRadius();
+            this.radiiSquared[i * 2 + 1] = exitRadius * exitRadius;
+            this.bounds[i * 4] = BeamGrid.toCell(Math.min(start.getX(), end.getX()) - exitRadius);
+            this.bounds[i * 4 + 1] = BeamGrid.toCell(Math.min(start.getZ(), end.getZ()) - exitRadius);
+            this.bounds[i * 4 + 2] = BeamGrid.toCell(Math.max(start.getX(), end.getX()) + exitRadius);
+            this.bounds[i * 4 + 3] = BeamGrid.toCell(Math.max(start.getZ(), end.getZ()) + exitRadius);
+        }
+
+        this.players = new Player[players.size()];
+        this.playerIndices = new int[players.size()];
+        this.playerCoordinates = new double[players.size() * 3];
+        this.cells = new HashMap<>();
+        int playerCount = 0;
+        for(Player player : players) {
+            int index = playerIndex.indexOf(player);
+            if(index < 0) {
+                continue;
+            }
+            Location location = player.getLocation();
+            this.players[playerCount] = player;
+            this.playerIndices[playerCount] = index;
+            this.playerCoordinates[playerCount * 3] = location.getX();
+            this.playerCoordinates[playerCount * 3 + 1] = location.getY();
+            this.playerCoordinates[playerCount * 3 + 2] = location.getZ();
+
+            // The first entry of each cell is the number of players in it.
+            long key = BeamGrid.key(BeamGrid.toCell(location.getX()), BeamGrid.toCell(location.getZ()));
+            int[] cell = this.cells.get(key);
+            if(cell == null) {
+                cell = new int[4];
+            } else if(cell[0] + 1 == cell.length) {
+                cell = Arrays.copyOf(cell, cell.length * 2);
+            }
+            cell[++cell[0]] = playerCount;
+            this.cells.put(key, cell);
+            playerCount++;
+        }
+
+        this.occupiedX = new int[this.cells.size()];
+        this.occupiedZ = new int[this.cells.size()];
+        this.occupiedPlayers = new int[this.cells.size()][];
+        int cellCount = 0;
+        for(Map.Entry<Long, int[]> entry : this.cells.entrySet()) {
+            this.occupiedX[cellCount] = (int) (entry.getKey() >> 32);
+            this.occupiedZ[cellCount] = (int) (long) entry.getKey();
+            this.occupiedPlayers[cellCount] = entry.getValue();
+            cellCount++;
+        }
+
+        this.visibleSlots = new int[beamCount][];
+        this.visibleDistances = new double[beamCount][];
+        this.visibleCounts = new int[beamCount];
+    }
+
+    /**
+     * Hands the job to a pool.
+     * @param pool pool to work out visibility on.
+     */
+    void submit(ForkJoinPool pool) {
+        pool.execute(this.task = new SnapshotTask(0, this.beams.length));
+    }
+
+    /**
+     * Checks if the pool has finished the job.
+     * @return True if the results can be applied.
+     */
+    boolean isDone() {
+        return this.task == null || this.task.isDone();
+    }
+
+    /**
+     * Shows and hides the beams for the players whose view of them changed. Must be called on the main thread once the
+     * job is done. Players who left the world or the server since the snapshot are skipped, as are players who were
+     * given the index of one who left.
+     * @param playerIndex index of the players.
+     */
+    void apply(PlayerIndex playerIndex) {
+        if(this.task != null) {
+            this.task.join();
+        }
+
+        BitSet unchanged = new BitSet();
+        for(int slot = 0; slot < this.players.length && this.players[slot] != null; slot++) {
+            if(playerIndex.get(this.playerIndices[slot]) == this.players[slot]) {
+                unchanged.set(this.playerIndices[slot]);
+            }
+        }
+
+        int[] indices = new int[0];
+        for(int i = 0; i < this.beams.length; i++) {
+            int count = this.visibleCounts[i];
+            if(indices.length < count) {
+                indices = new int[count];
+            }
+            int[] slots = this.visibleSlots[i];
+            double[] distances = this.visibleDistances[i];
+            int valid = 0;
+            for(int j = 0; j < count; j++) {
+                int slot = slots[j];
+                if(unchanged.get(this.playerIndices[slot])) {
+                    indices[valid] = this.playerIndices[slot];
+                    distances[valid] = distances[j];
+                    valid++;
+                }
+            }
+            this.beams[i].applySnapshot(this.viewers[i], unchanged, indices, distances, valid);
+        }
+    }
+
+    /**
+     * Works out which players in the snapshot can see a beam.
+     * @param beam position of the beam in the snapshot.
+     */
+    private void computeBeam(int beam) {
+        int minX = this.bounds[beam * 4], minZ = this.bounds[beam * 4 + 1];
+        int maxX = this.bounds[beam * 4 + 2], maxZ = this.bounds[beam * 4 + 3];
+        // Look up the cells the beam covers, unless there are fewer occupied cells than that to go through.
+        long area = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+        if(area <= this.occupiedPlayers.length) {
+            for(int x = minX; x <= maxX; x++) {
+                for(int z = minZ; z <= maxZ; z++) {
+                    int[] cell = this.cells.get(BeamGrid.key(x, z));
+                    if(cell != null) {
+                        computeCell(beam, cell);
+                    }
+                }
+            }
+        } else {
+            for(int i = 0; i < this.occupiedPlayers.length; i++) {
+                int x = this.occupiedX[i], z = this.occupiedZ[i];
+                if(x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                    computeCell(beam, this.occupiedPlayers[i]);
+                }
+            }
+        }
+    }
+
+    private void computeCell(int beam, int[] cell) {
+        double[] b = this.beamCoordinates;
+        int offset = beam * 6;
+        BitSet viewers = this.viewers[beam];
+        for(int i = 1; i <= cell[0]; i++) {
+            int slot = cell[i];
+            double distanceSquared = BeamGeometry.distanceSquaredToSegment(b[offset], b[offset + 1], b[offset + 2],
+                    b[offset + 3], b[offset + 4], b[offset + 5], this.playerCoordinates[slot * 3],
+                    this.playerCoordinates[slot * 3 + 1], this.playerCoordinates[slot * 3 + 2]);
+            double radiusSquared = this.radiiSquared[beam * 2 + (viewers.get(this.playerIndices[slot]) ? 1 : 0)];
+            if(distanceSquared <= radiusSquared) {
+                addVisible(beam, slot, distanceSquared);
+            }
+        }
+    }
+
+    private void addVisible(int beam, int slot, double distanceSquared) {
+        int count = this.visibleCounts[beam];
+        if(this.visibleSlots[beam] == null) {
+            this.visibleSlots[beam] = new int[4];
+            this.visibleDistances[beam] = new double[4];
+        } else if(count == this.visibleSlots[beam].length) {
+            this.visibleSlots[beam] = Arrays.copyOf(this.visibleSlots[beam], count * 2);
+            this.visibleDistances[beam] = Arrays.copyOf(this.visibleDistances[beam], count * 2);
+        }
+        this.visibleSlots[beam][count] = slot;
+        this.visibleDistances[beam][count] = distanceSquared;
+        this.visibleCounts[beam] = count + 1;
+    }
+
+    /**
+     * Splits a range of beams in half until it is small enough to work through on one thread.
+     */
+    private class SnapshotTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private SnapshotTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(this.to - this.from <= BEAMS_PER_TASK) {
+                for(int i = this.from; i < this.to; i++) {
+                    computeBeam(i);
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new SnapshotTask(this.from, middle), new SnapshotTask(middle, this.to));
+            }
+        }
+    }
+}
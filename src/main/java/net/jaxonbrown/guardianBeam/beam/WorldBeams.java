@@ -0,0 +1,587 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * All of the running beams in one world, grouped by their update delay and indexed by position.
+ * Beams which are due for a visibility check wait in a queue until the manager gives the world time to update them.
+ * @author Jaxon A Brown
+ */
+class WorldBeams {
+    private static final long INITIAL_NANOS_PER_BEAM = 2000;
+
+    private final UUID worldUID;
+    private final PlayerIndex playerIndex;
+    private final Map<Long, UpdateGroup> groups;
+    private final BeamGrid<Beam> grid;
+    private final EndpointRegistry endpoints;
+    private final Map<UUID, Set<ClientBeam>> clientBeamsByPlayer;
+    private final Queue<Beam> nearQueue;
+    private final Queue<Beam> farQueue;
+    private final List<Beam> slice;
+    private final List<Beam> jobBeams;
+    private VisibilityJob pendingJob;
+    private final Map<Long, int[]> playerCells;
+    private Location[] playerLocations;
+    private int[] playerIndices;
+    private int[] occupiedX, occupiedZ;
+    private long nanosPerBeam;
+    private int size;
+
+    WorldBeams(UUID worldUID, PlayerIndex playerIndex) {
+        this.worldUID = worldUID;
+        this.playerIndex = playerIndex;
+        this.groups = new TreeMap<>();
+        this.grid = new BeamGrid<>();
+        this.endpoints = new EndpointRegistry();
+        this.clientBeamsByPlayer = new HashMap<>();
+        this.nearQueue = new ArrayDeque<>();
+        this.farQueue = new ArrayDeque<>();
+        this.slice = new ArrayList<>();
+        this.jobBeams = new ArrayList<>();
+        this.playerCells = new HashMap<>();
+        this.playerLocations = new Location[0];
+        this.playerIndices = new int[0];
+        this.occupiedX = new int[0];
+        this.occupiedZ = new int[0];
+        this.nanosPerBeam = INITIAL_NANOS_PER_BEAM;
+    }
+
+    UUID getWorldUID() {
+        return this.worldUID;
+    }
+
+    EndpointRegistry getEndpoints() {
+        return this.endpoints;
+    }
+
+    void add(Beam beam) {
+        UpdateGroup group = getGroup(beam.getUpdateDelay());
+        if(group.beams.add(beam)) {
+            group.beamSnapshot = null;
+            this.grid.update(beam, beam.getStartingPosition(), beam.getEndingPosition(), beam.getExitRadius());
+            beam.setEndpoint(beam.getEntityEndpoint() != null ? beam.getEntityEndpoint() : this.endpoints.acquire(beam, beam.getStartingPosition()));
+            this.size++;
+        }
+    }
+
+    void remove(Beam beam) {
+        UpdateGroup group = this.groups.get(beam.getUpdateDelay());
+        if(group != null && group.beams.remove(beam)) {
+            group.beamSnapshot = null;
+            this.grid.remove(beam);
+            if(beam.getEntityEndpoint() == null) {
+                this.endpoints.release(beam, beam.getEndpoint());
+            }
+            beam.setEndpoint(null);
+            this.size--;
+        }
+    }
+
+    void updateBounds(Beam beam) {
+        UpdateGroup group = this.groups.get(beam.getUpdateDelay());
+        if(group != null && group.beams.contains(beam)) {
+            this.grid.update(beam, beam.getStartingPosition(), beam.getEndingPosition(), beam.getExitRadius());
+        }
+    }
+
+    void add(ClientBeam beam) {
+        UpdateGroup group = getGroup(beam.getUpdateDelay());
+        if(group.clientBeams.add(beam)) {
+            group.clientBeamSnapshot = null;
+            Set<ClientBeam> playerBeams = this.clientBeamsByPlayer.get(beam.getPlayerUID());
+            if(playerBeams == null) {
+                this.clientBeamsByPlayer.put(beam.getPlayerUID(), playerBeams = new HashSet<>());
+            }
+            playerBeams.add(beam);
+            this.size++;
+        }
+    }
+
+    void remove(ClientBeam beam) {
+        UpdateGroup group = this.groups.get(beam.getUpdateDelay());
+        if(group != null && group.clientBeams.remove(beam)) {
+            group.clientBeamSnapshot = null;
+            Set<ClientBeam> playerBeams = this.clientBeamsByPlayer.get(beam.getPlayerUID());
+            if(playerBeams != null && playerBeams.remove(beam) && playerBeams.isEmpty()) {
+                this.clientBeamsByPlayer.remove(beam.getPlayerUID());
+            }
+            this.size--;
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Runs every group which is due on this tick. Personal beams are updated straight away, while shared beams are
+     * queued for #update. Beams with a player inside their bounds are queued ahead of the rest.
+     * @param tick current tick of the manager.
+     * @param polling if false, only beams which moved since their last update are queued. Player movement is then
+     *                expected to be reported through #refresh.
+     */
+    void schedule(long tick, boolean polling) {
+        int occupied = -1;
+
+        Iterator<UpdateGroup> iterator = this.groups.values().iterator();
+        while(iterator.hasNext()) {
+            UpdateGroup group = iterator.next();
+            if(group.isEmpty()) {
+                iterator.remove();
+                continue;
+            }
+            if(tick % group.delay != 0) {
+                continue;
+            }
+
+            for(Beam beam : group.getBeams()) {
+                if(!beam.isQueued() && (polling || beam.isDirty())) {
+                    if(occupied < 0) {
+                        occupied = findOccupiedCells();
+                    }
+                    beam.setQueued(true);
+                    if(this.grid.touchesAny(beam, this.occupiedX, this.occupiedZ, occupied)) {
+                        this.nearQueue.add(beam);
+                    } else {
+                        this.farQueue.add(beam);
+                    }
+                }
+            }
+            for(ClientBeam beam : group.getClientBeams()) {
+                if(polling || beam.isDirty()) {
+                    beam.update();
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates queued beams until the queues are empty or the budget runs out. Whatever does not fit stays queued
+     * for the next tick. The players of the world are grouped by grid cell once, then beams are taken in slices, sized
+     * from the measured cost of earlier slices, and each beam is offered the players in its cells. Grouping the players
+     * counts against the budget, but not towards the measured cost of a beam.
+     * Every slice takes at least one beam from the far queue, so beams away from players are never held back for good.
+     * With a pool, the queued beams are handed to it as a job instead, see #updateParallel.
+     * @param budget nanoseconds which may be spent, or Long.MAX_VALUE for no limit.
+     * @param pool pool to work out visibility on, or null to work it out here.
+     * @return nanoseconds spent.
+     */
+    long update(long budget, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        if(this.pendingJob != null) {
+            if(!this.pendingJob.isDone()) {
+                return System.nanoTime() - start;
+            }
+            VisibilityJob job = this.pendingJob;
+            this.pendingJob = null;
+            job.apply(this.playerIndex);
+        }
+        if(pool != null) {
+            updateParallel(pool);
+            return System.nanoTime() - start;
+        }
+
+        long spent = System.nanoTime() - start;
+        boolean isGrouped = false;
+        while(spent < budget && (!this.nearQueue.isEmpty() || !this.farQueue.isEmpty())) {
+            if(!isGrouped) {
+                groupPlayers();
+                isGrouped = true;
+                spent = System.nanoTime() - start;
+            }
+            long limit = budget == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1, (budget - spent) / this.nanosPerBeam);
+            if(!this.farQueue.isEmpty()) {
+                fillSlice(this.farQueue, 1);
+            }
+            fillSlice(this.nearQueue, limit);
+            fillSlice(this.farQueue, limit);
+
+            if(!this.slice.isEmpty()) {
+                long sliceStart = System.nanoTime();
+                updateSlice();
+                long nanosPerBeam = (System.nanoTime() - sliceStart) / this.slice.size();
+                this.nanosPerBeam = Math.max(1, (this.nanosPerBeam * 3 + nanosPerBeam) / 4);
+                this.slice.clear();
+            }
+            spent = System.nanoTime() - start;
+        }
+        return spent;
+    }
+
+    /**
+     * Takes every queued beam at once and hands them to the pool, which works out their viewers from a snapshot of the
+     * players taken now. The viewers are applied by the first update after the pool is done, and nothing more is taken
+     * from the queues until then. Beams starting at an entity need the entity trackers of the server, so they are
+     * still updated here.
+     * @param pool pool to work out visibility on.
+     */
+    private void updateParallel(ForkJoinPool pool) {
+        drainQueue(this.nearQueue);
+        drainQueue(this.farQueue);
+        if(!this.slice.isEmpty()) {
+            groupPlayers();
+            updateSlice();
+            this.slice.clear();
+        }
+        if(!this.jobBeams.isEmpty()) {
+            World world = Bukkit.getWorld(this.worldUID);
+            if(world != null) {
+                this.pendingJob = new VisibilityJob(this.jobBeams, world.getPlayers(), this.playerIndex);
+                this.pendingJob.submit(pool);
+            }
+            this.jobBeams.clear();
+        }
+    }
+
+    private void drainQueue(Queue<Beam> queue) {
+        while(!queue.isEmpty()) {
+            Beam beam = queue.poll();
+            beam.setQueued(false);
+            if(beam.isActive()) {
+                (beam.getStartingEntity() == null ? this.jobBeams : this.slice).add(beam);
+            }
+        }
+    }
+
+    /**
+     * Updates the given beams straight away, with a single pass over the players of the world.
+     * @param beams running beams of this world.
+     */
+    void updateNow(List<Beam> beams) {
+        for(int i = 0; i < beams.size(); i++) {
+            Beam beam = beams.get(i);
+            if(beam.isActive()) {
+                this.slice.add(beam);
+            }
+        }
+        if(!this.slice.isEmpty()) {
+            groupPlayers();
+            updateSlice();
+            this.slice.clear();
+        }
+    }
+
+    /**
+     * Get the number of beams waiting for an update.
+     * @return number of queued beams.
+     */
+    int getQueuedCount() {
+        return this.nearQueue.size() + this.farQueue.size();
+    }
+
+    private void fillSlice(Queue<Beam> queue, long limit) {
+        while(this.slice.size() < limit && !queue.isEmpty()) {
+            Beam beam = queue.poll();
+            beam.setQueued(false);
+            if(beam.isActive()) {
+                this.slice.add(beam);
+            }
+        }
+    }
+
+    /**
+     * Updates the beams of the slice, offering each the players grouped in its cells by #groupPlayers.
+     */
+    private void updateSlice() {
+        for(int i = 0; i < this.slice.size(); i++) {
+            Beam beam = this.slice.get(i);
+            beam.prepareUpdate();
+            int[] bounds = this.grid.getBounds(beam);
+            if(bounds != null) {
+                offerPlayers(beam, bounds);
+            }
+            beam.finishUpdate();
+        }
+    }
+
+    /**
+     * Offers a beam the players in its cells. The cells are looked up one by one, unless fewer cells have players
+     * in them than that.
+     * @param beam the beam.
+     * @param bounds the cells of the beam.
+     */
+    private void offerPlayers(Beam beam, int[] bounds) {
+        long area = (long) (bounds[2] - bounds[0] + 1) * (bounds[3] - bounds[1] + 1);
+        if(area <= this.playerCells.size()) {
+            for(int x = bounds[0]; x <= bounds[2]; x++) {
+                for(int z = bounds[1]; z <= bounds[3]; z++) {
+                    int[] cell = this.playerCells.get(BeamGrid.key(x, z));
+                    if(cell != null) {
+                        offerCell(beam, cell);
+                    }
+                }
+            }
+        } else {
+            for(Map.Entry<Long, int[]> entry : this.playerCells.entrySet()) {
+                int x = (int) (entry.getKey() >> 32);
+                int z = (int) (long) entry.getKey();
+                if(x >= bounds[0] && x <= bounds[2] && z >= bounds[1] && z <= bounds[3]) {
+                    offerCell(beam, entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void offerCell(Beam beam, int[] cell) {
+        // The first entry of a cell is the number of players in it.
+        for(int i = 1; i <= cell[0]; i++) {
+            beam.offer(this.playerIndices[cell[i]], this.playerLocations[cell[i]]);
+        }
+    }
+
+    /**
+     * Groups the players of this world by grid cell, for the slices updated next.
+     */
+    private void groupPlayers() {
+        this.playerCells.clear();
+        Arrays.fill(this.playerLocations, null);
+        World world = Bukkit.getWorld(this.worldUID);
+        if(world == null) {
+            return;
+        }
+
+        List<Player> players = world.getPlayers();
+        if(this.playerLocations.length < players.size()) {
+            this.playerLocations = new Location[players.size()];
+            this.playerIndices = new int[players.size()];
+        }
+        int count = 0;
+        for(Player player : players) {
+            int index = this.playerIndex.indexOf(player);
+            if(index < 0) {
+                continue;
+            }
+            Location location = player.getLocation();
+            this.playerLocations[count] = location;
+            this.playerIndices[count] = index;
+
+            long key = BeamGrid.key(BeamGrid.toCell(location.getX()), BeamGrid.toCell(location.getZ()));
+            int[] cell = this.playerCells.get(key);
+            if(cell == null) {
+                cell = new int[4];
+            } else if(cell[0] + 1 == cell.length) {
+                cell = Arrays.copyOf(cell, cell.length * 2);
+            }
+            cell[++cell[0]] = count;
+            this.playerCells.put(key, cell);
+            count++;
+        }
+    }
+
+    /**
+     * Finds the grid cells the players of this world are standing in.
+     * @return number of cells written to #occupiedX and #occupiedZ.
+     */
+    private int findOccupiedCells() {
+        World world = Bukkit.getWorld(this.worldUID);
+        if(world == null) {
+            return 0;
+        }
+
+        List<Player> players = world.getPlayers();
+        if(this.occupiedX.length < players.size()) {
+            this.occupiedX = new int[players.size()];
+            this.occupiedZ = new int[players.size()];
+        }
+        int count = 0;
+        for(Player player : players) {
+            Location location = player.getLocation();
+            this.occupiedX[count] = BeamGrid.toCell(location.getX());
+            this.occupiedZ[count] = BeamGrid.toCell(location.getZ());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Shows or hides the beams around a player who moved. Beams indexed in the cell of the new location are checked
+     * against it. If the player changed cells, so do the beams of the cell they left, so beams the player walked away
+     * from are hidden as well.
+     * @param player player who moved.
+     * @param from where the player moved from, or null if they just appeared in this world.
+     * @param to where the player is moving to.
+     */
+    void refresh(Player player, Location from, Location to) {
+        int index = this.playerIndex.indexOf(player);
+        if(index >= 0) {
+            for(Beam beam : this.grid.getNearby(to)) {
+                beam.refresh(index, to);
+            }
+            if(from != null && (BeamGrid.toCell(from.getX()) != BeamGrid.toCell(to.getX())
+                    || BeamGrid.toCell(from.getZ()) != BeamGrid.toCell(to.getZ()))) {
+                for(Beam beam : this.grid.getNearby(from)) {
+                    beam.refresh(index, to);
+                }
+            }
+        }
+
+        Set<ClientBeam> playerBeams = this.clientBeamsByPlayer.get(player.getUniqueId());
+        if(playerBeams != null) {
+            for(ClientBeam beam : playerBeams.toArray(new ClientBeam[playerBeams.size()])) {
+                beam.update(to);
+            }
+        }
+    }
+
+    /**
+     * Forgets a player who left the world or the server. No packets are sent.
+     * The player is removed from the viewers of the beams their BeamTracker was sent, which must not be cleared yet.
+     * Personal beams of the player are stopped.
+     * @param player the player.
+     */
+    void removePlayer(Player player) {
+        int index = this.playerIndex.indexOf(player);
+        BeamTracker tracker = this.playerIndex.getTracker(player);
+        if(index >= 0 && tracker != null) {
+            tracker.removeFromViewers(index);
+        }
+
+        UUID uuid = player.getUniqueId();
+        Set<ClientBeam> playerBeams = this.clientBeamsByPlayer.get(uuid);
+        if(playerBeams != null) {
+            for(ClientBeam beam : playerBeams.toArray(new ClientBeam[playerBeams.size()])) {
+                beam.deactivate();
+                remove(beam);
+            }
+        }
+    }
+
+    /**
+     * Stops every beam, sending the packets to remove them from their viewers.
+     */
+    void stopAll() {
+        for(UpdateGroup group : this.groups.values()) {
+            for(Beam beam : group.getBeams()) {
+                if(beam.isActive()) {
+                    beam.stop();
+                }
+            }
+            for(ClientBeam beam : group.getClientBeams()) {
+                if(beam.isActive()) {
+                    beam.stop();
+                }
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Deactivates every beam without sending any packets.
+     */
+    void deactivateAll() {
+        for(UpdateGroup group : this.groups.values()) {
+            for(Beam beam : group.getBeams()) {
+                beam.deactivate();
+            }
+            for(ClientBeam beam : group.getClientBeams()) {
+                beam.deactivate();
+            }
+        }
+        clear();
+    }
+
+    private void clear() {
+        for(Beam beam : this.nearQueue) {
+            beam.setQueued(false);
+        }
+        for(Beam beam : this.farQueue) {
+            beam.setQueued(false);
+        }
+        this.nearQueue.clear();
+        this.farQueue.clear();
+        this.pendingJob = null;
+        for(UpdateGroup group : this.groups.values()) {
+            for(Beam beam : group.getBeams()) {
+                beam.setEndpoint(null);
+            }
+        }
+        this.endpoints.clear();
+        this.groups.clear();
+        this.grid.clear();
+        this.clientBeamsByPlayer.clear();
+        this.size = 0;
+    }
+
+    private UpdateGroup getGroup(long updateDelay) {
+        UpdateGroup group = this.groups.get(updateDelay);
+        if(group == null) {
+            this.groups.put(updateDelay, group = new UpdateGroup(updateDelay));
+        }
+        return group;
+    }
+
+    /**
+     * Beams sharing an update delay. Iteration goes over a snapshot array which is only rebuilt after the group changes,
+     * so beams may start and stop while the group is being updated.
+     */
+    private static class UpdateGroup {
+        private final long delay;
+        private final Set<Beam> beams;
+        private final Set<ClientBeam> clientBeams;
+        private Beam[] beamSnapshot;
+        private ClientBeam[] clientBeamSnapshot;
+
+        private UpdateGroup(long delay) {
+            this.delay = delay;
+            this.beams = new HashSet<>();
+            this.clientBeams = new HashSet<>();
+        }
+
+        private boolean isEmpty() {
+            return this.beams.isEmpty() && this.clientBeams.isEmpty();
+        }
+
+        private Beam[] getBeams() {
+            if(this.beamSnapshot == null) {
+                this.beamSnapshot = this.beams.toArray(new Beam[this.beams.size()]);
+            }
+            return this.beamSnapshot;
+        }
+
+        private ClientBeam[] getClientBeams() {
+            if(this.clientBeamSnapshot == null) {
+                this.clientBeamSnapshot = this.clientBeams.toArray(new ClientBeam[this.clientBeams.size()]);
+            }
+            return this.clientBeamSnapshot;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Location;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of BeamPackets, so short-lived beams reuse the packets of released ones instead of building new ones.
+ * Like entity ids, released sets only return to the pool after the next flush of the PacketDispatcher, so their
+ * removal packets always reach clients before the same entities are spawned again. Safe to use from any thread.
+ * @author Jaxon A Brown
+ */
+public final class BeamPacketPool {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private static final Queue<BeamPackets> pooled = new ConcurrentLinkedQueue<>();
+    private static final Queue<BeamPackets> released = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger size = new AtomicInteger();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    private BeamPacketPool() {}
+
+    /**
+     * Get a set of packets for a new beam, reusing a pooled one if possible.
+     * @param startingPosition position of the squid.
+     * @param endingPosition position of the guardian.
+     * @return packets positioned at the given locations.
+     */
+    public static BeamPackets acquire(Location startingPosition, Location endingPosition) {
+        BeamPackets packets = pooled.poll();
+        if(packets == null) {
+            misses.incrementAndGet();
+            return new BeamPackets(startingPosition, endingPosition);
+        }
+
+        size.decrementAndGet();
+        hits.incrementAndGet();
+        packets.restamp(startingPosition, endingPosition);
+        return packets;
+    }
+
+    /**
+     * Returns the packets of a beam which is no longer needed. If the pool is full, the entity ids are released instead.
+     * The beam must have been removed from every player it was shown to, or be removed before the next flush.
+     * @param packets packets of the released beam. They must not be used afterwards.
+     */
+    public static void release(BeamPackets packets) {
+        if(size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            packets.discard();
+            return;
+        }
+        released.add(packets);
+    }
+
+    /**
+     * Makes the sets released so far available again. Called after every flush of the PacketDispatcher.
+     */
+    static void recycleReleased() {
+        BeamPackets packets;
+        while((packets = released.poll()) != null) {
+            pooled.add(packets);
+        }
+    }
+
+    /**
+     * Get the number of sets held by the pool, including those waiting for the next flush.
+     * @return size of the pool.
+     */
+    public static int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Get the maximum number of sets held by the pool.
+     * @return capacity of the pool.
+     */
+    public static int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of sets held by the pool. A lowered capacity takes effect as pooled sets are used up.
+     * @param capacity new capacity, 0 to disable pooling.
+     */
+    public static void setCapacity(int capacity) {
+        Preconditions.checkArgument(capacity >= 0, "capacity cannot be negative");
+
+        BeamPacketPool.capacity = capacity;
+    }
+
+    /**
+     * Get the number of beams which reused a pooled set.
+     * @return pool hits.
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of beams which had to build a new set.
+     * @return pool misses.
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the share of beams which reused a pooled set.
+     * @return hit rate between 0 and 1, or 0 if no beam was created yet.
+     */
+    public static double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0D : (double) hits / total;
+    }
+}
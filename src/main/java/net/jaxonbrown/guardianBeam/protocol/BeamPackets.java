@@ -0,0 +1,119 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import org.bukkit.Location;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The packets behind one guardian beam: spawning the squid and guardian, moving them, and removing both.
+ * Sets are handed out by the BeamPacketPool, which reuses them once their beam is released.
+ * @author Jaxon A Brown
+ */
+public final class BeamPackets {
+    private final WrappedBeamPacket squidSpawn;
+    private final MovementEncoder squidMovement;
+    private final WrappedBeamPacket guardianSpawn;
+    private final MovementEncoder guardianMovement;
+    private final WrappedBeamPacket removeEntities;
+    private final int squidEntityId;
+    private final int guardianEntityId;
+    private int guardianTarget;
+
+    BeamPackets(Location startingPosition, Location endingPosition) {
+        this.squidSpawn = PacketFactory.createPacketSquidSpawn(startingPosition);
+        this.squidMovement = new MovementEncoder(this.squidSpawn, startingPosition);
+        this.guardianSpawn = PacketFactory.createPacketGuardianSpawn(endingPosition, this.squidSpawn);
+        this.guardianMovement = new MovementEncoder(this.guardianSpawn, endingPosition);
+        this.removeEntities = PacketFactory.createPacketRemoveEntities(this.squidSpawn, this.guardianSpawn);
+        this.squidEntityId = PacketFactory.getEntityId(this.squidSpawn);
+        this.guardianEntityId = PacketFactory.getEntityId(this.guardianSpawn);
+        this.guardianTarget = this.squidEntityId;
+    }
+
+    /**
+     * Prepares a pooled set for a new beam. The entity ids are kept, which is safe as the pool only hands out sets
+     * whose removal packets were flushed. Only the unique ids and positions change, so nothing is allocated for the
+     * packets themselves and the guardian's target only needs rewriting if the last beam pointed it elsewhere.
+     * @param startingPosition position of the squid.
+     * @param endingPosition position of the guardian.
+     */
+    void restamp(Location startingPosition, Location endingPosition) {
+        PacketFactory.modifyPacketEntityUniqueId(this.squidSpawn, randomUUID());
+        PacketFactory.modifyPacketEntitySpawn(this.squidSpawn, startingPosition);
+        this.squidMovement.reset(startingPosition);
+        PacketFactory.modifyPacketEntityUniqueId(this.guardianSpawn, randomUUID());
+        PacketFactory.modifyPacketEntitySpawn(this.guardianSpawn, endingPosition);
+        this.guardianMovement.reset(endingPosition);
+        setGuardianTarget(this.squidEntityId);
+    }
+
+    /**
+     * Sets the entity the guardian targets in its spawn packet, which is the set's own squid unless changed.
+     * @param entityId entity the guardian will target.
+     */
+    public void setGuardianTarget(int entityId) {
+        if(this.guardianTarget != entityId) {
+            this.guardianTarget = entityId;
+            PacketFactory.modifyPacketGuardianTarget(this.guardianSpawn, entityId);
+        }
+    }
+
+    /**
+     * Gives the entity ids back to the EntityIdAllocator, for sets which are not pooled.
+     */
+    void discard() {
+        EntityIdAllocator.release(this.squidEntityId);
+        EntityIdAllocator.release(this.guardianEntityId);
+    }
+
+    public WrappedBeamPacket getSquidSpawn() {
+        return this.squidSpawn;
+    }
+
+    public MovementEncoder getSquidMovement() {
+        return this.squidMovement;
+    }
+
+    public WrappedBeamPacket getGuardianSpawn() {
+        return this.guardianSpawn;
+    }
+
+    public MovementEncoder getGuardianMovement() {
+        return this.guardianMovement;
+    }
+
+    public WrappedBeamPacket getRemoveEntities() {
+        return this.removeEntities;
+    }
+
+    public int getSquidEntityId() {
+        return this.squidEntityId;
+    }
+
+    public int getGuardianEntityId() {
+        return this.guardianEntityId;
+    }
+
+    private static UUID randomUUID() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+
+import java.util.UUID;
+
+/**
+ * Reads and writes the fields of the packets beams are made of, for one range of Minecraft versions.
+ * Entity type ids, metadata indices and the layout of each packet are kept here, so the PacketFactory and everything
+ * built on it stay the same across versions. The codec for the running server is chosen once by BeamProtocolCodecs.
+ * @author Jaxon A Brown
+ */
+public interface BeamProtocolCodec {
+    /**
+     * Get the entity type id of squids in SpawnEntityLiving packets.
+     * @return the squid type id.
+     */
+    int getSquidType();
+
+    /**
+     * Get the entity type id of guardians in SpawnEntityLiving packets.
+     * @return the guardian type id.
+     */
+    int getGuardianType();
+
+    /**
+     * Get the metadata index holding the entity a guardian targets.
+     * @return the target index.
+     */
+    int getGuardianTargetIndex();
+
+    /**
+     * Sets up the metadata shared by every guardian: invisible, with its spikes out.
+     * @param watcher metadata of a guardian.
+     */
+    void writeGuardianDefaults(WrappedDataWatcher watcher);
+
+    /**
+     * Reads the entity id of a spawn, move, teleport or metadata packet.
+     * @param packet the packet.
+     * @return id of the entity.
+     */
+    int readEntityId(PacketContainer packet);
+
+    /**
+     * Writes the entity id of a spawn, move, teleport or metadata packet.
+     * @param packet the packet.
+     * @param entityId id of the entity.
+     */
+    void writeEntityId(PacketContainer packet, int entityId);
+
+    /**
+     * Writes the unique id of a SpawnEntityLiving packet.
+     * @param spawn the spawn packet.
+     * @param uniqueId unique id of the entity.
+     */
+    void writeUniqueId(PacketContainer spawn, UUID uniqueId);
+
+    /**
+     * Writes the entity type of a SpawnEntityLiving packet.
+     * @param spawn the spawn packet.
+     * @param type entity type id, such as #getSquidType.
+     */
+    void writeEntityType(PacketContainer spawn, int type);
+
+    /**
+     * Writes the position of a SpawnEntityLiving packet.
+     * @param spawn the spawn packet.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     * @param yaw yaw, in 1/256ths of a turn.
+     * @param pitch pitch, in 1/256ths of a turn.
+     */
+    void writeSpawnLocation(PacketContainer spawn, double x, double y, double z, byte yaw, byte pitch);
+
+    /**
+     * Writes the position of an EntityTeleport packet.
+     * @param teleport the teleport packet.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param z z coordinate.
+     * @param yaw yaw, in 1/256ths of a turn.
+     * @param pitch pitch, in 1/256ths of a turn.
+     */
+    void writeTeleport(PacketContainer teleport, double x, double y, double z, byte yaw, byte pitch);
+
+    /**
+     * Writes the offset of a RelEntityMove or RelEntityMoveLook packet. The rotation is only written to the latter.
+     * @param move the move packet.
+     * @param dx offset along the x axis, in 1/4096ths of a block.
+     * @param dy offset along the y axis, in 1/4096ths of a block.
+     * @param dz offset along the z axis, in 1/4096ths of a block.
+     * @param yaw yaw, in 1/256ths of a turn.
+     * @param pitch pitch, in 1/256ths of a turn.
+     */
+    void writeRelativeMove(PacketContainer move, int dx, int dy, int dz, byte yaw, byte pitch);
+}
@@ -0,0 +1,92 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.utility.MinecraftVersion;
+import com.google.common.base.Preconditions;
+import org.bukkit.Bukkit;
+
+import java.util.logging.Level;
+
+/**
+ * Chooses the BeamProtocolCodec for the running server. Supporting another version only takes a new entry here.
+ * @author Jaxon A Brown
+ */
+public final class BeamProtocolCodecs {
+    private static final int SQUID_TYPE = 94;
+    private static final int GUARDIAN_TYPE = 68;
+
+    private static volatile BeamProtocolCodec codec;
+
+    private BeamProtocolCodecs() {}
+
+    /**
+     * Get the codec used to build beam packets, choosing it for the running server the first time.
+     * @return the codec.
+     * @throws IllegalStateException if the server version is not supported.
+     */
+    public static BeamProtocolCodec get() {
+        BeamProtocolCodec current = codec;
+        if(current == null) {
+            synchronized(BeamProtocolCodecs.class) {
+                if((current = codec) == null) {
+                    codec = current = forVersion(ProtocolLibrary.getProtocolManager().getMinecraftVersion());
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Sets the codec used to build beam packets, replacing the one chosen for the running server.
+     * Must be set before the first beam is created.
+     * @param codec the codec.
+     */
+    public static void set(BeamProtocolCodec codec) {
+        Preconditions.checkNotNull(codec, "codec cannot be null");
+
+        BeamProtocolCodecs.codec = codec;
+    }
+
+    /**
+     * Creates the codec for a Minecraft version. Method handles are used where the packet fields can be found,
+     * and ProtocolLib's structure modifiers otherwise.
+     * @param version the Minecraft version.
+     * @return a new codec.
+     * @throws IllegalStateException if the version is not supported.
+     */
+    public static BeamProtocolCodec forVersion(MinecraftVersion version) {
+        Preconditions.checkNotNull(version, "version cannot be null");
+        Preconditions.checkState(version.getMajor() == 1 && version.getMinor() >= 9 && version.getMinor() <= 12,
+                "Minecraft " + version.getVersion() + " is not supported");
+
+        // Before 1.11 the guardian's spikes shared a byte of flags with whether it was an elder guardian.
+        boolean spikesFlag = version.getMinor() < 11;
+        // 1.10 added the entity's no gravity flag to the metadata, which moved every later index up by one.
+        int spikesIndex = version.getMinor() < 10 ? 11 : 12;
+        int targetIndex = spikesIndex + 1;
+        try {
+            return new HandleProtocolCodec(SQUID_TYPE, GUARDIAN_TYPE, spikesIndex, targetIndex, spikesFlag);
+        } catch(ReflectiveOperationException | RuntimeException ex) {
+            Bukkit.getLogger().log(Level.WARNING, "GuardianBeamAPI could not look up the beam packet fields of Minecraft "
+                    + version.getVersion() + ", so they are written through ProtocolLib instead.", ex);
+            return new StructureProtocolCodec(SQUID_TYPE, GUARDIAN_TYPE, spikesIndex, targetIndex, spikesFlag);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.reflect.accessors.Accessors;
+import com.comphenix.protocol.reflect.accessors.FieldAccessor;
+import com.comphenix.protocol.utility.MinecraftReflection;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Issues the entity ids used by fake entities, without NMS code, from any thread.
+ * Ids are taken from a range far above the server's own, which each thread claims in blocks from a shared atomic
+ * cursor. Released ids are reused once the packets sent before their release have been flushed.
+ * If the server's own entity counter ever reaches the range, the cursor and the reused ids skip ahead of it.
+ * @author Jaxon A Brown
+ */
+public final class EntityIdAllocator {
+    private static final int FIRST_ID = 2000000000;//2 billion
+    private static final int BLOCK_SIZE = 64;
+    private static final int SERVER_MARGIN = 100000;
+
+    private static final AtomicInteger cursor = new AtomicInteger(FIRST_ID);
+    private static final Queue<Integer> freeIds = new ConcurrentLinkedQueue<>();
+    private static final Queue<Integer> releasedIds = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<int[]> blocks = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+
+    private static volatile FieldAccessor serverCounter;
+    private static volatile boolean serverCounterMissing;
+
+    private EntityIdAllocator() {}
+
+    /**
+     * Issues an entity id which is not in use by any fake entity or, as far as can be told, by the server.
+     * @return a fresh entity id.
+     */
+    public static int allocate() {
+        Integer recycled;
+        while((recycled = freeIds.poll()) != null) {
+            if(recycled >= getServerNextId()) {
+                return recycled;
+            }
+        }
+
+        int[] block = blocks.get();
+        if(block[0] == block[1]) {
+            claimBlock(block);
+        }
+        return block[0]++;
+    }
+
+    /**
+     * Releases an entity id so it can be issued again.
+     * The entity must already be removed, or be removed by packets sent before the next flush.
+     * @param id entity id issued by #allocate.
+     */
+    public static void release(int id) {
+        if(id >= FIRST_ID) {
+            releasedIds.add(id);
+        }
+    }
+
+    /**
+     * Makes the ids released so far available again. Called after every flush of the PacketDispatcher, so a new entity
+     * can never be spawned before an older one with the same id is removed.
+     */
+    static void recycleReleased() {
+        Integer id;
+        while((id = releasedIds.poll()) != null) {
+            freeIds.add(id);
+        }
+    }
+
+    private static void claimBlock(int[] block) {
+        while(true) {
+            int current = cursor.get();
+            int start = current;
+            int serverNextId = getServerNextId();
+            if(start < serverNextId) {
+                start = serverNextId + SERVER_MARGIN;
+            }
+            if(start > Integer.MAX_VALUE - BLOCK_SIZE) {
+                throw new IllegalStateException("Ran out of entity ids for beams");
+            }
+            if(cursor.compareAndSet(current, start + BLOCK_SIZE)) {
+                block[0] = start;
+                block[1] = start + BLOCK_SIZE;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the next id the server will give one of its own entities.
+     * @return the next server id, or 0 if it cannot be read on this server.
+     */
+    private static int getServerNextId() {
+        if(serverCounterMissing) {
+            return 0;
+        }
+        try {
+            if(serverCounter == null) {
+                serverCounter = Accessors.getFieldAccessor(MinecraftReflection.getEntityClass(), "entityCount", true);
+            }
+            return ((Number) serverCounter.get(null)).intValue();
+        } catch(RuntimeException ex) {
+            serverCounterMissing = true;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketContainer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.comphenix.protocol.PacketType.Play.Server.*;
+
+/**
+ * Codec for Minecraft 1.9 to 1.12 which writes the fields of the packets sent on every move through method handles,
+ * looked up once when the codec is created. The fields are found by type and order, as ProtocolLib finds them,
+ * so the obfuscated names do not matter. Everything else is left to the StructureProtocolCodec.
+ * @author Jaxon A Brown
+ */
+class HandleProtocolCodec extends StructureProtocolCodec {
+    private final MethodHandle spawnEntityId;
+    private final MethodHandle spawnEntityIdGetter;
+    private final MethodHandle spawnUniqueId;
+    private final MethodHandle spawnX, spawnY, spawnZ;
+    private final MethodHandle spawnYaw, spawnPitch;
+
+    private final MethodHandle teleportEntityId;
+    private final MethodHandle teleportX, teleportY, teleportZ;
+    private final MethodHandle teleportYaw, teleportPitch;
+
+    private final MethodHandle moveEntityId;
+    private final MethodHandle moveX, moveY, moveZ;
+    private final MethodHandle moveYaw, movePitch;
+
+    /**
+     * Create a codec, looking up the packet fields of the running server.
+     * @param squidType entity type id of squids.
+     * @param guardianType entity type id of guardians.
+     * @param spikesIndex metadata index of the guardian's spikes.
+     * @param targetIndex metadata index of the guardian's target.
+     * @param spikesFlag True if the guardian's spikes are a bit of a byte flag, as before 1.11, rather than a boolean.
+     * @throws ReflectiveOperationException if the packets do not have the expected fields.
+     */
+    HandleProtocolCodec(int squidType, int guardianType, int spikesIndex, int targetIndex, boolean spikesFlag)
+            throws ReflectiveOperationException {
+        super(squidType, guardianType, spikesIndex, targetIndex, spikesFlag);
+
+        PacketFields spawn = new PacketFields(SPAWN_ENTITY_LIVING);
+        this.spawnEntityId = spawn.setter(int.class, 0);
+        this.spawnEntityIdGetter = spawn.getter(int.class, 0);
+        this.spawnUniqueId = spawn.setter(UUID.class, 0);
+        this.spawnX = spawn.setter(double.class, 0);
+        this.spawnY = spawn.setter(double.class, 1);
+        this.spawnZ = spawn.setter(double.class, 2);
+        this.spawnYaw = spawn.setter(byte.class, 0);
+        this.spawnPitch = spawn.setter(byte.class, 1);
+
+        PacketFields teleport = new PacketFields(ENTITY_TELEPORT);
+        this.teleportEntityId = teleport.setter(int.class, 0);
+        this.teleportX = teleport.setter(double.class, 0);
+        this.teleportY = teleport.setter(double.class, 1);
+        this.teleportZ = teleport.setter(double.class, 2);
+        this.teleportYaw = teleport.setter(byte.class, 0);
+        this.teleportPitch = teleport.setter(byte.class, 1);
+
+        // Both kinds of relative move keep their fields in the same superclass.
+        PacketFields move = new PacketFields(REL_ENTITY_MOVE_LOOK);
+        this.moveEntityId = move.setter(int.class, 0);
+        this.moveX = move.setter(int.class, 1);
+        this.moveY = move.setter(int.class, 2);
+        this.moveZ = move.setter(int.class, 3);
+        this.moveYaw = move.setter(byte.class, 0);
+        this.movePitch = move.setter(byte.class, 1);
+    }
+
+    @Override
+    public int readEntityId(PacketContainer packet) {
+        if(packet.getType() != SPAWN_ENTITY_LIVING) {
+            return super.readEntityId(packet);
+        }
+        try {
+            return (int) this.spawnEntityIdGetter.invokeExact(packet.getHandle());
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to read beam packet.", ex);
+        }
+    }
+
+    @Override
+    public void writeEntityId(PacketContainer packet, int entityId) {
+        PacketType type = packet.getType();
+        MethodHandle setter = type == SPAWN_ENTITY_LIVING ? this.spawnEntityId
+                : type == ENTITY_TELEPORT ? this.teleportEntityId
+                : type == REL_ENTITY_MOVE || type == REL_ENTITY_MOVE_LOOK ? this.moveEntityId : null;
+        if(setter == null) {
+            super.writeEntityId(packet, entityId);
+            return;
+        }
+        try {
+            setter.invokeExact(packet.getHandle(), entityId);
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to write beam packet.", ex);
+        }
+    }
+
+    @Override
+    public void writeUniqueId(PacketContainer spawn, UUID uniqueId) {
+        try {
+            this.spawnUniqueId.invokeExact(spawn.getHandle(), uniqueId);
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to write beam packet.", ex);
+        }
+    }
+
+    @Override
+    public void writeSpawnLocation(PacketContainer spawn, double x, double y, double z, byte yaw, byte pitch) {
+        Object handle = spawn.getHandle();
+        try {
+            this.spawnX.invokeExact(handle, x);
+            this.spawnY.invokeExact(handle, y);
+            this.spawnZ.invokeExact(handle, z);
+            this.spawnYaw.invokeExact(handle, yaw);
+            this.spawnPitch.invokeExact(handle, pitch);
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to write beam packet.", ex);
+        }
+    }
+
+    @Override
+    public void writeTeleport(PacketContainer teleport, double x, double y, double z, byte yaw, byte pitch) {
+        Object handle = teleport.getHandle();
+        try {
+            this.teleportX.invokeExact(handle, x);
+            this.teleportY.invokeExact(handle, y);
+            this.teleportZ.invokeExact(handle, z);
+            this.teleportYaw.invokeExact(handle, yaw);
+            this.teleportPitch.invokeExact(handle, pitch);
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to write beam packet.", ex);
+        }
+    }
+
+    @Override
+    public void writeRelativeMove(PacketContainer move, int dx, int dy, int dz, byte yaw, byte pitch) {
+        Object handle = move.getHandle();
+        try {
+            this.moveX.invokeExact(handle, dx);
+            this.moveY.invokeExact(handle, dy);
+            this.moveZ.invokeExact(handle, dz);
+            if(move.getType() == REL_ENTITY_MOVE_LOOK) {
+                this.moveYaw.invokeExact(handle, yaw);
+                this.movePitch.invokeExact(handle, pitch);
+            }
+        } catch(Throwable ex) {
+            throw new IllegalStateException("Failed to write beam packet.", ex);
+        }
+    }
+
+    /**
+     * The instance fields of a packet class and its superclasses, superclasses first.
+     */
+    private static class PacketFields {
+        private final List<Field> fields;
+
+        private PacketFields(PacketType type) {
+            this.fields = new ArrayList<>();
+            collect(type.getPacketClass());
+        }
+
+        /**
+         * Get a setter for a field, taking the packet as an Object.
+         * @param fieldType type of the field.
+         * @param ordinal position of the field among those of the same type.
+         * @return the setter.
+         * @throws ReflectiveOperationException if there is no such field.
+         */
+        private MethodHandle setter(Class<?> fieldType, int ordinal) throws ReflectiveOperationException {
+            return MethodHandles.lookup().unreflectSetter(find(fieldType, ordinal))
+                    .asType(MethodType.methodType(void.class, Object.class, fieldType));
+        }
+
+        /**
+         * Get a getter for a field, taking the packet as an Object.
+         * @param fieldType type of the field.
+         * @param ordinal position of the field among those of the same type.
+         * @return the getter.
+         * @throws ReflectiveOperationException if there is no such field.
+         */
+        private MethodHandle getter(Class<?> fieldType, int ordinal) throws ReflectiveOperationException {
+            return MethodHandles.lookup().unreflectGetter(find(fieldType, ordinal))
+                    .asType(MethodType.methodType(fieldType, Object.class));
+        }
+
+        private Field find(Class<?> fieldType, int ordinal) throws NoSuchFieldException {
+            int seen = 0;
+            for(Field field : this.fields) {
+                if(field.getType() == fieldType && seen++ == ordinal) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+            throw new NoSuchFieldException(fieldType.getName() + " #" + ordinal);
+        }
+
+        private void collect(Class<?> packetClass) {
+            if(packetClass == null || packetClass == Object.class) {
+                return;
+            }
+            collect(packetClass.getSuperclass());
+            for(Field field : packetClass.getDeclaredFields()) {
+                if(!Modifier.isStatic(field.getModifiers())) {
+                    this.fields.add(field);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Location;
+
+/**
+ * Chooses the cheapest packet to move one entity, based on the last position sent for it.
+ * Small moves use relative move packets, large jumps use a teleport, and moves which do not change the position as
+ * the client sees it send nothing at all. Every viewer must have received every packet returned since they were sent
+ * the entity's spawn packet, and the spawn packet must be kept at the latest position.
+ * @author Jaxon A Brown
+ */
+public class MovementEncoder {
+    private static final double UNITS_PER_BLOCK = 4096.0D;
+    private static final int CORRECTION_INTERVAL = 100;
+
+    private final WrappedBeamPacket packetTeleport;
+    private final WrappedBeamPacket packetRelativeMove;
+    private final WrappedBeamPacket packetRelativeMoveLook;
+
+    private long x, y, z;
+    private byte yaw, pitch;
+    private int relativeMoves;
+
+    /**
+     * Create a movement encoder for an entity.
+     * @param entitySpawnPacket SquidSpawn or GuardianSpawn packet for the entity.
+     * @param location location the entity was spawned at.
+     */
+    public MovementEncoder(WrappedBeamPacket entitySpawnPacket, Location location) {
+        Preconditions.checkNotNull(entitySpawnPacket, "entitySpawnPacket cannot be null");
+        Preconditions.checkNotNull(location, "location cannot be null");
+
+        this.packetTeleport = PacketFactory.createPacketEntityMove(entitySpawnPacket);
+        this.packetRelativeMove = PacketFactory.createPacketEntityRelativeMove(entitySpawnPacket, false);
+        this.packetRelativeMoveLook = PacketFactory.createPacketEntityRelativeMove(entitySpawnPacket, true);
+        reset(location);
+    }
+
+    /**
+     * Create a movement encoder from move packets which were already built for the entity.
+     * @param packetTeleport EntityTeleport packet for the entity.
+     * @param packetRelativeMove RelEntityMove packet for the entity.
+     * @param packetRelativeMoveLook RelEntityMoveLook packet for the entity.
+     * @param location location the entity was spawned at.
+     */
+    MovementEncoder(WrappedBeamPacket packetTeleport, WrappedBeamPacket packetRelativeMove,
+                    WrappedBeamPacket packetRelativeMoveLook, Location location) {
+        this.packetTeleport = packetTeleport;
+        this.packetRelativeMove = packetRelativeMove;
+        this.packetRelativeMoveLook = packetRelativeMoveLook;
+        reset(location);
+    }
+
+    /**
+     * Get the packet which moves the entity to the location for everyone who saw its previous position.
+     * A teleport is used if the move is too large for a relative move, and periodically to correct any drift.
+     * @param location location to move the entity to.
+     * @return packet to send to every viewer, or null if the client would not see the entity move.
+     */
+    public WrappedBeamPacket move(Location location) {
+        long nextX = quantize(location.getX());
+        long nextY = quantize(location.getY());
+        long nextZ = quantize(location.getZ());
+        byte nextYaw = PacketFactory.toAngle(location.getYaw());
+        byte nextPitch = PacketFactory.toAngle(location.getPitch());
+
+        long dx = nextX - this.x;
+        long dy = nextY - this.y;
+        long dz = nextZ - this.z;
+        boolean rotated = nextYaw != this.yaw || nextPitch != this.pitch;
+        if(dx == 0 && dy == 0 && dz == 0 && !rotated) {
+            return null;
+        }
+
+        if(!fitsShort(dx) || !fitsShort(dy) || !fitsShort(dz) || this.relativeMoves >= CORRECTION_INTERVAL) {
+            return teleport(location);
+        }
+
+        this.x = nextX;
+        this.y = nextY;
+        this.z = nextZ;
+        this.yaw = nextYaw;
+        this.pitch = nextPitch;
+        this.relativeMoves++;
+        return PacketFactory.modifyPacketEntityRelativeMove(rotated ? this.packetRelativeMoveLook : this.packetRelativeMove,
+                (int) dx, (int) dy, (int) dz, nextYaw, nextPitch);
+    }
+
+    /**
+     * Get a teleport packet to the location, and use it as the base for later relative moves.
+     * Send this to everyone who saw the entity when they may have missed earlier moves.
+     * @param location location to move the entity to.
+     * @return teleport packet for the entity.
+     */
+    public WrappedBeamPacket teleport(Location location) {
+        reset(location);
+        return PacketFactory.modifyPacketEntityMove(this.packetTeleport, location);
+    }
+
+    /**
+     * Get a teleport packet to the last position sent, without changing the base for later relative moves.
+     * Send this to viewers who skipped some of the moves, to bring them level with everyone else.
+     * @return teleport packet for the entity.
+     */
+    public WrappedBeamPacket sync() {
+        return PacketFactory.modifyPacketEntityMove(this.packetTeleport,
+                this.x / UNITS_PER_BLOCK, this.y / UNITS_PER_BLOCK, this.z / UNITS_PER_BLOCK, this.yaw, this.pitch);
+    }
+
+    /**
+     * Use the location as the base for later moves without sending anything, for an entity which was just spawned there.
+     * @param location location the entity was spawned at.
+     */
+    public void reset(Location location) {
+        this.x = quantize(location.getX());
+        this.y = quantize(location.getY());
+        this.z = quantize(location.getZ());
+        this.yaw = PacketFactory.toAngle(location.getYaw());
+        this.pitch = PacketFactory.toAngle(location.getPitch());
+        this.relativeMoves = 0;
+    }
+
+    private static long quantize(double coordinate) {
+        return (long) Math.floor(coordinate * UNITS_PER_BLOCK);
+    }
+
+    private static boolean fitsShort(long value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketListener;
+import com.comphenix.protocol.reflect.accessors.Accessors;
+import com.comphenix.protocol.reflect.accessors.FieldAccessor;
+import com.comphenix.protocol.utility.MinecraftFields;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import net.jaxonbrown.guardianBeam.beam.BeamMetrics;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Collects the beam packets sent to each player during a tick and writes them to the player's channel together,
+ * with a single flush, once per tick.
+ * Packets are serialized once and the same buffer is written to every receiver, past the vanilla encoder. This is only
+ * done while the channel's encoder is the vanilla one, so clients behind a version translator such as ViaVersion or
+ * ProtocolSupport get containers through the whole pipeline, as do packet types which a ProtocolLib listener sends.
+ * Packets sent off the main thread, or to players whose channel cannot be found, are sent straight away through
+ * ProtocolLib instead.
+ * @author Jaxon A Brown
+ */
+public class PacketDispatcher implements Listener {
+    static final String ENCODER = "encoder";
+
+    private static FieldAccessor channelField;
+    private static Class<?> vanillaEncoder;
+    private static boolean vanillaEncoderSearched;
+
+    private final Plugin plugin;
+    private final BeamMetrics metrics;
+    private final Map<UUID, PacketQueue> queues;
+    private final List<PacketQueue> pendingQueues;
+    private final Set<PacketType> listenedTypes;
+
+    private BukkitRunnable runnable;
+
+    /**
+     * Create a packet dispatcher. Packets are sent straight away until it is started.
+     * @param plugin plugin which owns the flush task.
+     */
+    public PacketDispatcher(Plugin plugin) {
+        this(plugin, null);
+    }
+
+    /**
+     * Create a packet dispatcher which counts the packets it queues. Packets are sent straight away until it is started.
+     * @param plugin plugin which owns the flush task.
+     * @param metrics metrics to count packets in, or null.
+     */
+    public PacketDispatcher(Plugin plugin, BeamMetrics metrics) {
+        Preconditions.checkNotNull(plugin, "plugin cannot be null");
+
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.queues = new HashMap<>();
+        this.pendingQueues = new ArrayList<>();
+        this.listenedTypes = new HashSet<>();
+    }
+
+    /**
+     * Starts the flush task. Start this after anything which sends packets on a timer,
+     * so their packets leave in the same tick.
+     */
+    public void start() {
+        Preconditions.checkState(this.runnable == null, "The dispatcher must be stopped in order to start it");
+
+        this.plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+        findListenedTypes();
+        (this.runnable = new DispatcherFlusher()).runTaskTimer(this.plugin, 1, 1);
+    }
+
+    /**
+     * Flushes everything still queued and stops the flush task.
+     */
+    public void shutdown() {
+        if(this.runnable != null) {
+            this.runnable.cancel();
+            this.runnable = null;
+        }
+        HandlerList.unregisterAll(this);
+
+        flush();
+        this.queues.clear();
+    }
+
+    /**
+     * Checks if the dispatcher is queueing packets.
+     * @return True if started.
+     */
+    public boolean isRunning() {
+        return this.runnable != null;
+    }
+
+    /**
+     * Queues a packet to be written to the player with the next flush.
+     * The packet is captured as it is now, so changing it before the flush does not change what this player receives.
+     * @param player player to send the packet to.
+     * @param packet packet to send.
+     */
+    public void send(Player player, WrappedBeamPacket packet) {
+        if(this.runnable == null || !Bukkit.isPrimaryThread()) {
+            sendImmediately(player, packet.getHandle());
+            return;
+        }
+
+        PacketQueue queue = this.queues.get(player.getUniqueId());
+        if(queue == null) {
+            this.queues.put(player.getUniqueId(), queue = new PacketQueue(player, getChannel(player)));
+        }
+        if(queue.isEmpty()) {
+            this.pendingQueues.add(queue);
+        }
+        int bytes = queue.add(packet, !this.listenedTypes.contains(packet.getHandle().getType()));
+        if(this.metrics != null) {
+            this.metrics.recordPacket(player.getWorld().getUID(), packet.getHandle().getType(), bytes);
+        }
+    }
+
+    /**
+     * Writes every queued packet. Each player's packets are handed to their channel's event loop as one task,
+     * which writes them all and flushes once. Entity ids and pooled packets released before the flush become reusable afterwards.
+     */
+    public void flush() {
+        for(PacketQueue queue : this.pendingQueues) {
+            queue.flush();
+        }
+        this.pendingQueues.clear();
+        EntityIdAllocator.recycleReleased();
+        BeamPacketPool.recycleReleased();
+        if(this.runnable != null) {
+            findListenedTypes();
+        }
+    }
+
+    /**
+     * Sends a packet through ProtocolLib right away, skipping the queue.
+     * @param player player to send the packet to.
+     * @param packet packet to send.
+     */
+    static void sendImmediately(Player player, PacketContainer packet) {
+        try {
+            ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+        } catch(InvocationTargetException ex) {
+            throw new RuntimeException("Failed to send beam packet to player.", ex);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        PacketQueue queue = this.queues.remove(event.getPlayer().getUniqueId());
+        if(queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Drops the packets queued for the old world. The client has already been sent the respawn packet, and would
+     * otherwise spawn the old world's squids and guardians in the new one. Runs before the beams of the new world
+     * are shown, so their packets are kept.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        dropQueue(event.getPlayer());
+    }
+
+    /**
+     * Writes the packets queued before a respawn straight away, so they reach the client ahead of the respawn packet.
+     * A respawn in another world then drops nothing, and one in the same world keeps the beams the client was sent.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onRespawn(PlayerRespawnEvent event) {
+        PacketQueue queue = this.queues.get(event.getPlayer().getUniqueId());
+        if(queue != null) {
+            queue.flush();
+        }
+    }
+
+    private void dropQueue(Player player) {
+        PacketQueue queue = this.queues.get(player.getUniqueId());
+        if(queue != null) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Checks if a handler is the vanilla packet encoder, which serialized packets may be written past.
+     * @param handler handler named encoder in a player's pipeline.
+     * @return True if the handler is the vanilla encoder itself, rather than a replacement or a subclass.
+     */
+    static boolean isVanillaEncoder(ChannelHandler handler) {
+        if(!vanillaEncoderSearched) {
+            vanillaEncoderSearched = true;
+            try {
+                vanillaEncoder = MinecraftReflection.getMinecraftClass("PacketEncoder");
+            } catch(RuntimeException ex) {
+                vanillaEncoder = null;
+            }
+        }
+        return handler != null && vanillaEncoder != null && handler.getClass() == vanillaEncoder;
+    }
+
+    /**
+     * Finds the packet types which ProtocolLib listeners watch being sent. Those are never written past the encoder.
+     */
+    private void findListenedTypes() {
+        this.listenedTypes.clear();
+        for(PacketListener listener : ProtocolLibrary.getProtocolManager().getPacketListeners()) {
+            if(listener.getSendingWhitelist() != null) {
+                this.listenedTypes.addAll(listener.getSendingWhitelist().getTypes());
+            }
+        }
+    }
+
+    private static Channel getChannel(Player player) {
+        try {
+            Object networkManager = MinecraftFields.getNetworkManager(player);
+            if(channelField == null) {
+                channelField = Accessors.getFieldAccessor(networkManager.getClass(), Channel.class, true);
+            }
+            Channel channel = (Channel) channelField.get(networkManager);
+            return channel != null && channel.pipeline().get(ENCODER) != null ? channel : null;
+        } catch(RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private class DispatcherFlusher extends BukkitRunnable {
+        @Override
+        public void run() {
+            PacketDispatcher.this.flush();
+        }
+    }
+}
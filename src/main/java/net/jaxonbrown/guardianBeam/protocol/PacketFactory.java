@@ -24,6 +24,7 @@ import com.comphenix.protocol.wrappers.WrappedDataWatcher;
 import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 
+import java.util.Collections;
 import java.util.UUID;
 
 import static com.comphenix.protocol.PacketType.Play.Server.*;
@@ -31,53 +32,21 @@ import static com.comphenix.protocol.PacketType.Play.Server.*;
 /**
  * The PacketFactory generates and modifies the packets for the library to use.
  * If you are looking into making your own Guardian Beam type, this class is for you.
+ * Fields are written through the BeamProtocolCodec of the running server.
  * @author Jaxon A Brown
  */
 public class PacketFactory {
-    private static Entity fakeSquid;
-    private static Entity fakeGuardian;
-
-    /**
-     * Generate fake entities
-     */
-    static {
-        fakeSquid = (Entity) Accessors.getConstructorAccessor(
-                MinecraftReflection.getCraftBukkitClass("entity.CraftSquid"),
-                MinecraftReflection.getCraftBukkitClass("CraftServer"),
-                MinecraftReflection.getMinecraftClass("EntitySquid")
-        ).invoke(null, Accessors.getConstructorAccessor(
-                MinecraftReflection.getMinecraftClass("EntitySquid"),
-                MinecraftReflection.getNmsWorldClass()
-            ).invoke(new Object[] {null}));
-
-        fakeGuardian = (Entity) Accessors.getConstructorAccessor(
-                MinecraftReflection.getCraftBukkitClass("entity.CraftGuardian"),
-                MinecraftReflection.getCraftBukkitClass("CraftServer"),
-                MinecraftReflection.getMinecraftClass("EntityGuardian")
-        ).invoke(null, Accessors.getConstructorAccessor(
-                MinecraftReflection.getMinecraftClass("EntityGuardian"),
-                MinecraftReflection.getNmsWorldClass()
-            ).invoke(new Object[] {null}));
-    }
-
     /**
      * Creates a packet to spawn a squid at the location.
      * @param location location to spawn the squid.
      * @return beam packet used to spawn for players.
      */
     public static WrappedBeamPacket createPacketSquidSpawn(Location location) {
-        PacketContainer container = new PacketContainer(SPAWN_ENTITY_LIVING);
-        container.getIntegers().write(0, EIDGen.generateEID());
-        container.getUUIDs().write(0, UUID.randomUUID());
-        container.getIntegers().write(1, 94);
-        container.getDoubles().write(0, location.getX());
-        container.getDoubles().write(1, location.getY());
-        container.getDoubles().write(2, location.getZ());
-        container.getBytes().write(0, (byte) (location.getYaw() * 256.0F / 360.0F));
-        container.getBytes().write(1, (byte) (location.getPitch() * 256.0F / 360.0F));
-        WrappedDataWatcher wrapper = WrappedDataWatcher.getEntityWatcher(fakeSquid);
-        wrapper.setObject(0, (byte) 32);
-        container.getDataWatcherModifier().write(0, wrapper);
+        BeamProtocolCodec codec = BeamProtocolCodecs.get();
+        PacketContainer container = SpawnTemplates.SQUID_SPAWN.shallowClone();
+        codec.writeEntityId(container, EntityIdAllocator.allocate());
+        codec.writeUniqueId(container, UUID.randomUUID());
+        writeSpawnLocation(codec, container, location);
         return new WrappedBeamPacket(container);
     }
 
@@ -88,23 +57,49 @@ public class PacketFactory {
      * @return beam packet used to spawn for players.
      */
     public static WrappedBeamPacket createPacketGuardianSpawn(Location location, WrappedBeamPacket squidPacket) {
-        PacketContainer container = new PacketContainer(SPAWN_ENTITY_LIVING);
-        container.getIntegers().write(0, EIDGen.generateEID());
-        container.getUUIDs().write(0, UUID.randomUUID());
-        container.getIntegers().write(1, 68);
-        container.getDoubles().write(0, location.getX());
-        container.getDoubles().write(1, location.getY());
-        container.getDoubles().write(2, location.getZ());
-        container.getBytes().write(0, (byte) (location.getYaw() * 256.0F / 360.0F));
-        container.getBytes().write(1, (byte) (location.getPitch() * 256.0F / 360.0F));
-        WrappedDataWatcher watcher = WrappedDataWatcher.getEntityWatcher(fakeGuardian);
-        watcher.setObject(0, (byte) 32);
-        watcher.setObject(12, false);
-        watcher.setObject(13, squidPacket.getHandle().getIntegers().read(0));
+        BeamProtocolCodec codec = BeamProtocolCodecs.get();
+        PacketContainer container = SpawnTemplates.GUARDIAN_SPAWN.shallowClone();
+        codec.writeEntityId(container, EntityIdAllocator.allocate());
+        codec.writeUniqueId(container, UUID.randomUUID());
+        writeSpawnLocation(codec, container, location);
+        WrappedDataWatcher watcher = SpawnTemplates.GUARDIAN_WATCHER.deepClone();
+        watcher.setObject(codec.getGuardianTargetIndex(), codec.readEntityId(squidPacket.getHandle()));
         container.getDataWatcherModifier().write(0, watcher);
         return new WrappedBeamPacket(container);
     }
 
+    /**
+     * Creates a packet to change the entity a spawned guardian targets.
+     * @param guardianPacket GuardianSpawn of the guardian.
+     * @param targetEntityId entity the guardian will target.
+     * @return Packet to change the target when sent to a player who was sent the guardian.
+     */
+    public static WrappedBeamPacket createPacketGuardianTarget(WrappedBeamPacket guardianPacket, int targetEntityId) {
+        BeamProtocolCodec codec = BeamProtocolCodecs.get();
+        PacketContainer container = new PacketContainer(ENTITY_METADATA);
+        codec.writeEntityId(container, codec.readEntityId(guardianPacket.getHandle()));
+        WrappedDataWatcher watcher = SpawnTemplates.GUARDIAN_WATCHER.deepClone();
+        watcher.setObject(codec.getGuardianTargetIndex(), targetEntityId);
+        container.getWatchableCollectionModifier().write(0,
+                Collections.singletonList(watcher.getWatchableObject(codec.getGuardianTargetIndex())));
+        return new WrappedBeamPacket(container);
+    }
+
+    /**
+     * Changes the entity the guardian of the given Spawn Packet targets.
+     * The packet gets new metadata rather than changing its own, which copies of the packet still waiting to be sent share.
+     * @param guardianSpawnPacket GuardianSpawn packet for the guardian.
+     * @param targetEntityId entity the guardian will target.
+     * @return beam packet used to spawn for players.
+     */
+    public static WrappedBeamPacket modifyPacketGuardianTarget(WrappedBeamPacket guardianSpawnPacket, int targetEntityId) {
+        WrappedDataWatcher watcher = SpawnTemplates.GUARDIAN_WATCHER.deepClone();
+        watcher.setObject(BeamProtocolCodecs.get().getGuardianTargetIndex(), targetEntityId);
+        guardianSpawnPacket.getHandle().getDataWatcherModifier().write(0, watcher);
+        guardianSpawnPacket.invalidate();
+        return guardianSpawnPacket;
+    }
+
     /**
      * Modifies location information of the given Spawn Packet.
      * @param entitySpawnPacket SquidSpawn or GuardianSpawn packet for the entity.
@@ -112,23 +107,41 @@ public class PacketFactory {
      * @return beam packet used to spawn for players.
      */
     public static WrappedBeamPacket modifyPacketEntitySpawn(WrappedBeamPacket entitySpawnPacket, Location location) {
-        PacketContainer container = entitySpawnPacket.getHandle();
-        container.getIntegers().write(2, (int) Math.floor(location.getX() * 32.0));
-        container.getIntegers().write(3, (int) Math.floor(location.getY() * 32.0));
-        container.getIntegers().write(4, (int) Math.floor(location.getZ() * 32.0));
-        container.getBytes().write(0, (byte) (location.getYaw() * 256.0F / 360.0F));
-        container.getBytes().write(1, (byte) (location.getPitch() * 256.0F / 360.0F));
+        writeSpawnLocation(BeamProtocolCodecs.get(), entitySpawnPacket.getHandle(), location);
+        entitySpawnPacket.invalidate();
         return entitySpawnPacket;
     }
 
+    /**
+     * Gives the entity of the given Spawn Packet a new unique id.
+     * @param entitySpawnPacket SquidSpawn or GuardianSpawn packet for the entity.
+     * @param uniqueId unique id of the entity.
+     * @return beam packet used to spawn for players.
+     */
+    public static WrappedBeamPacket modifyPacketEntityUniqueId(WrappedBeamPacket entitySpawnPacket, UUID uniqueId) {
+        BeamProtocolCodecs.get().writeUniqueId(entitySpawnPacket.getHandle(), uniqueId);
+        entitySpawnPacket.invalidate();
+        return entitySpawnPacket;
+    }
+
+    /**
+     * Get the id of the entity spawned, moved or removed by a packet.
+     * @param entityPacket SquidSpawn, GuardianSpawn or any packet made from one, apart from removals of several entities.
+     * @return id of the entity.
+     */
+    public static int getEntityId(WrappedBeamPacket entityPacket) {
+        return BeamProtocolCodecs.get().readEntityId(entityPacket.getHandle());
+    }
+
     /**
      * Creates a packet to move an entity. Doesn't include where to move it to.
      * @param entityPacket SquidSpawn or GuardianSpawn packet for the entity.
      * @return Skeleton packet for the given entity.
      */
     public static WrappedBeamPacket createPacketEntityMove(WrappedBeamPacket entityPacket) {
+        BeamProtocolCodec codec = BeamProtocolCodecs.get();
         PacketContainer container = new PacketContainer(ENTITY_TELEPORT);
-        container.getIntegers().write(0, entityPacket.getHandle().getIntegers().read(0));
+        codec.writeEntityId(container, codec.readEntityId(entityPacket.getHandle()));
         return new WrappedBeamPacket(container);
     }
 
@@ -139,15 +152,56 @@ public class PacketFactory {
      * @return Finished packet to teleport the given entity.
      */
     public static WrappedBeamPacket modifyPacketEntityMove(WrappedBeamPacket entityMovePacket, Location location) {
-        PacketContainer container = entityMovePacket.getHandle();
-        container.getIntegers().write(1, (int) Math.floor(location.getX() * 32.0D));
-        container.getIntegers().write(2, (int) Math.floor(location.getY() * 32.0D));
-        container.getIntegers().write(3, (int) Math.floor(location.getZ() * 32.0D));
-        container.getBytes().write(0, (byte) (location.getYaw() * 256.0F / 360.0F));
-        container.getBytes().write(1, (byte) (location.getPitch() * 256.0F / 360.0F));
+        return modifyPacketEntityMove(entityMovePacket, location.getX(), location.getY(), location.getZ(),
+                toAngle(location.getYaw()), toAngle(location.getPitch()));
+    }
+
+    /**
+     * Adds location information to a packet to move an entity.
+     * @param entityMovePacket EntityMove packet to add location information to.
+     * @param x x coordinate to move the entity to.
+     * @param y y coordinate to move the entity to.
+     * @param z z coordinate to move the entity to.
+     * @param yaw yaw of the entity, in 1/256ths of a turn.
+     * @param pitch pitch of the entity, in 1/256ths of a turn.
+     * @return Finished packet to teleport the given entity.
+     */
+    public static WrappedBeamPacket modifyPacketEntityMove(WrappedBeamPacket entityMovePacket, double x, double y, double z, byte yaw, byte pitch) {
+        BeamProtocolCodecs.get().writeTeleport(entityMovePacket.getHandle(), x, y, z, yaw, pitch);
+        entityMovePacket.invalidate();
         return entityMovePacket;
     }
 
+    /**
+     * Creates a packet to move an entity relative to where the client last saw it. Doesn't include the offset.
+     * @param entityPacket SquidSpawn or GuardianSpawn packet for the entity.
+     * @param look whether the packet also carries the rotation of the entity.
+     * @return Skeleton packet for the given entity.
+     */
+    public static WrappedBeamPacket createPacketEntityRelativeMove(WrappedBeamPacket entityPacket, boolean look) {
+        BeamProtocolCodec codec = BeamProtocolCodecs.get();
+        PacketContainer container = new PacketContainer(look ? REL_ENTITY_MOVE_LOOK : REL_ENTITY_MOVE);
+        codec.writeEntityId(container, codec.readEntityId(entityPacket.getHandle()));
+        return new WrappedBeamPacket(container);
+    }
+
+    /**
+     * Adds the offset to a packet to move an entity relative to where the client last saw it.
+     * Offsets are in 1/4096ths of a block and must each fit in a short.
+     * @param entityRelativeMovePacket EntityRelativeMove packet to add the offset to.
+     * @param dx offset along the x axis.
+     * @param dy offset along the y axis.
+     * @param dz offset along the z axis.
+     * @param yaw new yaw, only used by packets which carry the rotation.
+     * @param pitch new pitch, only used by packets which carry the rotation.
+     * @return Finished packet to move the given entity.
+     */
+    public static WrappedBeamPacket modifyPacketEntityRelativeMove(WrappedBeamPacket entityRelativeMovePacket, int dx, int dy, int dz, byte yaw, byte pitch) {
+        BeamProtocolCodecs.get().writeRelativeMove(entityRelativeMovePacket.getHandle(), dx, dy, dz, yaw, pitch);
+        entityRelativeMovePacket.invalidate();
+        return entityRelativeMovePacket;
+    }
+
     /**
      * Creates a packet to remove the guardian and squid entities.
      * @param squidPacket SquidSpawn of the entity to remove
@@ -155,11 +209,70 @@ public class PacketFactory {
      * @return Packet to remove the guardian and squid when sent to a player.
      */
     public static WrappedBeamPacket createPacketRemoveEntities(WrappedBeamPacket squidPacket, WrappedBeamPacket guardianPacket) {
+        return createPacketRemoveEntities(getEntityId(squidPacket), getEntityId(guardianPacket));
+    }
+
+    /**
+     * Creates a packet to remove any number of entities at once.
+     * @param entityIds ids of the entities to remove.
+     * @return Packet to remove the entities when sent to a player.
+     */
+    public static WrappedBeamPacket createPacketRemoveEntities(int... entityIds) {
         PacketContainer container = new PacketContainer(ENTITY_DESTROY);
-        container.getIntegerArrays().write(0, new int[] {
-                squidPacket.getHandle().getIntegers().read(0),
-                guardianPacket.getHandle().getIntegers().read(0)
-        });
+        container.getIntegerArrays().write(0, entityIds);
         return new WrappedBeamPacket(container);
     }
+
+    /**
+     * Converts an angle in degrees to the protocol's 1/256th of a turn.
+     * @param degrees angle in degrees.
+     * @return angle as sent in packets.
+     */
+    static byte toAngle(float degrees) {
+        return (byte) (degrees * 256.0F / 360.0F);
+    }
+
+    private static void writeSpawnLocation(BeamProtocolCodec codec, PacketContainer container, Location location) {
+        codec.writeSpawnLocation(container, location.getX(), location.getY(), location.getZ(),
+                toAngle(location.getYaw()), toAngle(location.getPitch()));
+    }
+
+    /**
+     * Spawn packets and metadata shared by every beam, built from fake entities the first time a beam is created.
+     * Templates are never changed, so spawn packets are shallow clones of them with only the entity id, unique id and
+     * position written, and the squid's metadata is shared outright.
+     */
+    private static class SpawnTemplates {
+        private static final PacketContainer SQUID_SPAWN;
+        private static final PacketContainer GUARDIAN_SPAWN;
+        private static final WrappedDataWatcher GUARDIAN_WATCHER;
+
+        static {
+            BeamProtocolCodec codec = BeamProtocolCodecs.get();
+            Entity fakeSquid = createFakeEntity("CraftSquid", "EntitySquid");
+            WrappedDataWatcher squidWatcher = WrappedDataWatcher.getEntityWatcher(fakeSquid);
+            squidWatcher.setObject(0, (byte) 32);
+            SQUID_SPAWN = new PacketContainer(SPAWN_ENTITY_LIVING);
+            codec.writeEntityType(SQUID_SPAWN, codec.getSquidType());
+            SQUID_SPAWN.getDataWatcherModifier().write(0, squidWatcher);
+
+            Entity fakeGuardian = createFakeEntity("CraftGuardian", "EntityGuardian");
+            GUARDIAN_WATCHER = WrappedDataWatcher.getEntityWatcher(fakeGuardian);
+            codec.writeGuardianDefaults(GUARDIAN_WATCHER);
+            GUARDIAN_SPAWN = new PacketContainer(SPAWN_ENTITY_LIVING);
+            codec.writeEntityType(GUARDIAN_SPAWN, codec.getGuardianType());
+        }
+
+        private static Entity createFakeEntity(String craftClassName, String nmsClassName) {
+            Class<?> nmsClass = MinecraftReflection.getMinecraftClass(nmsClassName);
+            return (Entity) Accessors.getConstructorAccessor(
+                    MinecraftReflection.getCraftBukkitClass("entity." + craftClassName),
+                    MinecraftReflection.getCraftBukkitClass("CraftServer"),
+                    nmsClass
+            ).invoke(null, Accessors.getConstructorAccessor(
+                    nmsClass,
+                    MinecraftReflection.getNmsWorldClass()
+                ).invoke(new Object[] {null}));
+        }
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.events.PacketContainer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packets waiting to be written to one player.
+ * Each entry keeps the packet's snapshot, shared with every player queued the same version of the packet, and a
+ * serialized packet buffer when the packet may skip the encoder. Either way, changes made to the packet after it was
+ * queued are not seen by this player.
+ * @author Jaxon A Brown
+ */
+class PacketQueue {
+    private final Player player;
+    private final Channel channel;
+    private final boolean canSerialize;
+    private final List<PacketContainer> containers;
+    private final List<ByteBuf> buffers;
+
+    PacketQueue(Player player, Channel channel) {
+        this.player = player;
+        this.channel = channel;
+        this.canSerialize = channel != null
+                && PacketDispatcher.isVanillaEncoder(channel.pipeline().get(PacketDispatcher.ENCODER));
+        this.containers = new ArrayList<>();
+        this.buffers = new ArrayList<>();
+    }
+
+    /**
+     * Queues a packet.
+     * @param packet packet to queue.
+     * @param serialize whether the packet may be written past the encoder, which skips ProtocolLib's listeners.
+     * @return serialized size of the packet, or -1 if it was only queued as a container.
+     */
+    int add(WrappedBeamPacket packet, boolean serialize) {
+        ByteBuf serialized = serialize && this.canSerialize ? packet.retainSerialized() : null;
+        this.containers.add(packet.getSnapshot());
+        this.buffers.add(serialized);
+        return serialized == null ? -1 : serialized.readableBytes();
+    }
+
+    boolean isEmpty() {
+        return this.containers.isEmpty();
+    }
+
+    void clear() {
+        for(ByteBuf buffer : this.buffers) {
+            ReferenceCountUtil.release(buffer);
+        }
+        this.containers.clear();
+        this.buffers.clear();
+    }
+
+    /**
+     * Writes the queued packets. With a channel, a single task on its event loop writes every packet and flushes once.
+     * Without one, each packet goes through ProtocolLib.
+     */
+    void flush() {
+        if(this.containers.isEmpty()) {
+            return;
+        }
+
+        if(this.channel == null) {
+            for(PacketContainer container : this.containers) {
+                PacketDispatcher.sendImmediately(this.player, container);
+            }
+            this.containers.clear();
+            this.buffers.clear();
+        } else if(this.channel.isActive()) {
+            final PacketContainer[] containers = this.containers.toArray(new PacketContainer[this.containers.size()]);
+            final ByteBuf[] buffers = this.buffers.toArray(new ByteBuf[this.buffers.size()]);
+            this.containers.clear();
+            this.buffers.clear();
+            this.channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(containers, buffers);
+                }
+            });
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Writes serialized packets through the context of the vanilla encoder, so they skip straight to framing,
+     * compression and encryption. If the vanilla encoder is gone or was replaced since the packets were queued,
+     * and for packets which were not serialized, the containers go through the whole pipeline instead.
+     * @param containers snapshots of the queued packets.
+     * @param buffers serialized packets, with null for packets which were not serialized.
+     */
+    private void write(PacketContainer[] containers, ByteBuf[] buffers) {
+        ChannelHandlerContext encoder = this.channel.pipeline().context(PacketDispatcher.ENCODER);
+        boolean isVanilla = encoder != null && PacketDispatcher.isVanillaEncoder(encoder.handler());
+        for(int i = 0; i < containers.length; i++) {
+            if(buffers[i] != null && isVanilla) {
+                encoder.write(buffers[i]);
+            } else {
+                ReferenceCountUtil.release(buffers[i]);
+                this.channel.write(containers[i].getHandle());
+            }
+        }
+        this.channel.flush();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.utility.MinecraftMethods;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.bukkit.Bukkit;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+
+/**
+ * Serializes packets into the wire format the vanilla encoder would produce: the packet id as a VarInt, then the packet.
+ * The result can be written past the encoder, where only length framing, compression and encryption remain.
+ * @author Jaxon A Brown
+ */
+final class PacketSerializer {
+    private static boolean supported = true;
+    private static boolean loggedWriteFailure;
+    private static Method writeMethod;
+
+    private PacketSerializer() {}
+
+    /**
+     * Serializes the packet into a new buffer. If the server's write method cannot be found or called, serialization
+     * is turned off for good. If only this packet fails to write, it is left to be sent as a container.
+     * @param container packet to serialize.
+     * @return buffer holding the packet, or null if the packet cannot be serialized.
+     */
+    static ByteBuf serialize(PacketContainer container) {
+        if(!supported) {
+            return null;
+        }
+
+        Object serializer;
+        ByteBuf buffer = Unpooled.buffer(64);
+        try {
+            if(writeMethod == null) {
+                writeMethod = MinecraftMethods.getPacketWriteByteBufMethod();
+            }
+            serializer = MinecraftReflection.getPacketDataSerializer(buffer);
+        } catch(RuntimeException ex) {
+            buffer.release();
+            disable(ex);
+            return null;
+        }
+
+        try {
+            writeVarInt(buffer, container.getType().getCurrentId());
+            writeMethod.invoke(container.getHandle(), serializer);
+            return buffer;
+        } catch(IllegalAccessException | IllegalArgumentException ex) {
+            buffer.release();
+            disable(ex);
+            return null;
+        } catch(InvocationTargetException ex) {
+            buffer.release();
+            if(!loggedWriteFailure) {
+                loggedWriteFailure = true;
+                Bukkit.getLogger().log(Level.WARNING, "GuardianBeamAPI could not serialize a " + container.getType()
+                        + " packet. Packets which fail to serialize are sent unserialized.", ex.getCause());
+            }
+            return null;
+        }
+    }
+
+    private static void disable(Exception ex) {
+        supported = false;
+        Bukkit.getLogger().log(Level.WARNING, "GuardianBeamAPI cannot serialize packets on this server, "
+                + "so beam packets are sent unserialized.", ex);
+    }
+
+    static void writeVarInt(ByteBuf buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte(value);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+
+import java.util.UUID;
+
+import static com.comphenix.protocol.PacketType.Play.Server.*;
+
+/**
+ * Codec for Minecraft 1.9 to 1.12 which writes every field through ProtocolLib's structure modifiers.
+ * Positions are doubles and relative moves are in 1/4096ths of a block on all of these versions. Used as is when the
+ * packet fields cannot be looked up directly, and for the rarely written fields of the faster codecs.
+ * @author Jaxon A Brown
+ */
+class StructureProtocolCodec implements BeamProtocolCodec {
+    private final int squidType;
+    private final int guardianType;
+    private final int spikesIndex;
+    private final int targetIndex;
+    private final boolean isSpikesFlag;
+
+    /**
+     * Create a codec.
+     * @param squidType entity type id of squids.
+     * @param guardianType entity type id of guardians.
+     * @param spikesIndex metadata index of the guardian's spikes.
+     * @param targetIndex metadata index of the guardian's target.
+     * @param spikesFlag True if the guardian's spikes are a bit of a byte flag, as before 1.11, rather than a boolean.
+     */
+    StructureProtocolCodec(int squidType, int guardianType, int spikesIndex, int targetIndex, boolean spikesFlag) {
+        this.squidType = squidType;
+        this.guardianType = guardianType;
+        this.spikesIndex = spikesIndex;
+        this.targetIndex = targetIndex;
+        this.isSpikesFlag = spikesFlag;
+    }
+
+    @Override
+    public int getSquidType() {
+        return this.squidType;
+    }
+
+    @Override
+    public int getGuardianType() {
+        return this.guardianType;
+    }
+
+    @Override
+    public int getGuardianTargetIndex() {
+        return this.targetIndex;
+    }
+
+    @Override
+    public void writeGuardianDefaults(WrappedDataWatcher watcher) {
+        watcher.setObject(0, (byte) 32);
+        if(this.isSpikesFlag) {
+            watcher.setObject(this.spikesIndex, (byte) 0);
+        } else {
+            watcher.setObject(this.spikesIndex, false);
+        }
+    }
+
+    @Override
+    public int readEntityId(PacketContainer packet) {
+        return packet.getIntegers().read(0);
+    }
+
+    @Override
+    public void writeEntityId(PacketContainer packet, int entityId) {
+        packet.getIntegers().write(0, entityId);
+    }
+
+    @Override
+    public void writeUniqueId(PacketContainer spawn, UUID uniqueId) {
+        spawn.getUUIDs().write(0, uniqueId);
+    }
+
+    @Override
+    public void writeEntityType(PacketContainer spawn, int type) {
+        spawn.getIntegers().write(1, type);
+    }
+
+    @Override
+    public void writeSpawnLocation(PacketContainer spawn, double x, double y, double z, byte yaw, byte pitch) {
+        writeLocation(spawn, x, y, z, yaw, pitch);
+    }
+
+    @Override
+    public void writeTeleport(PacketContainer teleport, double x, double y, double z, byte yaw, byte pitch) {
+        writeLocation(teleport, x, y, z, yaw, pitch);
+    }
+
+    @Override
+    public void writeRelativeMove(PacketContainer move, int dx, int dy, int dz, byte yaw, byte pitch) {
+        move.getIntegers().write(1, dx);
+        move.getIntegers().write(2, dy);
+        move.getIntegers().write(3, dz);
+        if(move.getType() == REL_ENTITY_MOVE_LOOK) {
+            move.getBytes().write(0, yaw);
+            move.getBytes().write(1, pitch);
+        }
+    }
+
+    private static void writeLocation(PacketContainer packet, double x, double y, double z, byte yaw, byte pitch) {
+        packet.getDoubles().write(0, x);
+        packet.getDoubles().write(1, y);
+        packet.getDoubles().write(2, z);
+        packet.getBytes().write(0, yaw);
+        packet.getBytes().write(1, pitch);
+    }
+}
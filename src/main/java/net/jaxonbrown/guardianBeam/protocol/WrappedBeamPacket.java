@@ -17,18 +17,20 @@
  */
 package net.jaxonbrown.guardianBeam.protocol;
 
-import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.events.PacketContainer;
+import io.netty.buffer.ByteBuf;
+import net.jaxonbrown.guardianBeam.GuardianBeamAPI;
 import org.bukkit.entity.Player;
 
-import java.lang.reflect.InvocationTargetException;
-
 /**
  * Wraps a packet container for convenience.
+ * The packet is copied and serialized at most once between changes, and those are shared by every receiver.
  * @author Jaxon A Brown
  */
 public class WrappedBeamPacket {
     private final PacketContainer handle;
+    private PacketContainer snapshot;
+    private ByteBuf serialized;
 
     /**
      * Wraps the packet.
@@ -40,18 +42,66 @@ public class WrappedBeamPacket {
 
     /**
      * Sends the packet to a lucky receiver!
+     * On the main thread the packet is queued and written with the receiver's other packets at the end of the tick.
      * @param receiver player to send the packet to.
      */
     public void send(Player receiver) {
-        try {
-            ProtocolLibrary.getProtocolManager().sendServerPacket(receiver, this.handle);
-        } catch(InvocationTargetException ex) {
-            throw new RuntimeException("Failed to send beam packet to player.", ex);
+        GuardianBeamAPI plugin = GuardianBeamAPI.getInstance();
+        if(plugin != null && plugin.getPacketDispatcher() != null) {
+            plugin.getPacketDispatcher().send(receiver, this);
+        } else {
+            sendImmediately(receiver);
+        }
+    }
+
+    /**
+     * Sends the packet to the receiver right away, without waiting for the end of the tick.
+     * @param receiver player to send the packet to.
+     */
+    public void sendImmediately(Player receiver) {
+        PacketDispatcher.sendImmediately(receiver, this.handle);
+    }
+
+    /**
+     * Forgets the copy and serialized form of the packet. This must be called whenever the packet container is changed.
+     */
+    public void invalidate() {
+        this.snapshot = null;
+        if(this.serialized != null) {
+            this.serialized.release();
+            this.serialized = null;
+        }
+    }
+
+    /**
+     * Get a reference to the serialized packet, serializing it if it changed since it was last sent.
+     * The caller owns the returned buffer and must release it, usually by writing it to a channel.
+     * @return retained duplicate of the serialized packet, or null if packets cannot be serialized on this server.
+     */
+    ByteBuf retainSerialized() {
+        if(this.serialized == null) {
+            this.serialized = PacketSerializer.serialize(this.handle);
+            if(this.serialized == null) {
+                return null;
+            }
+        }
+        return this.serialized.retainedDuplicate();
+    }
+
+    /**
+     * Get a copy of the packet as it is now, copying it if it changed since it was last sent.
+     * The copy is shared by every receiver of this version of the packet, and must not be changed.
+     * @return copy of the packet container.
+     */
+    PacketContainer getSnapshot() {
+        if(this.snapshot == null) {
+            this.snapshot = this.handle.shallowClone();
         }
+        return this.snapshot;
     }
 
     /**
-     * Get the packet container.
+     * Get the packet container. Call #invalidate after changing it.
      * @return ProtocolLib packet container.
      */
     public PacketContainer getHandle() {
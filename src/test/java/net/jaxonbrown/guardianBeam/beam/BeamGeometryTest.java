@@ -0,0 +1,52 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures distances from points to beams.
+ * @author Jaxon A Brown
+ */
+public class BeamGeometryTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void pointBesideSegmentMeasuresToTheLine() {
+        assertEquals(9, BeamGeometry.distanceSquaredToSegment(location(0, 0, 0), location(10, 0, 0), location(5, 3, 0)), DELTA);
+        assertEquals(25, BeamGeometry.distanceSquaredToSegment(location(0, 0, 0), location(0, 10, 0), location(3, 7, 4)), DELTA);
+    }
+
+    @Test
+    public void pointPastEitherEndMeasuresToThatEnd() {
+        assertEquals(25, BeamGeometry.distanceSquaredToSegment(location(0, 0, 0), location(10, 0, 0), location(-3, 4, 0)), DELTA);
+        assertEquals(25, BeamGeometry.distanceSquaredToSegment(location(0, 0, 0), location(10, 0, 0), location(13, 0, 4)), DELTA);
+    }
+
+    @Test
+    public void zeroLengthSegmentMeasuresToThePoint() {
+        assertEquals(14, BeamGeometry.distanceSquaredToSegment(location(1, 1, 1), location(1, 1, 1), location(2, 3, 4)), DELTA);
+    }
+
+    private static Location location(double x, double y, double z) {
+        return new Location(null, x, y, z);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Indexes beams in the grid and checks which cells they land in.
+ * @author Jaxon A Brown
+ */
+public class BeamGridTest {
+    private BeamGrid<String> grid;
+
+    @Before
+    public void setUp() {
+        this.grid = new BeamGrid<>();
+    }
+
+    @Test
+    public void beamIsIndexedInEveryCellOfItsBounds() {
+        this.grid.update("beam", location(0, 0), location(40, 0), 7);
+
+        assertArrayEquals(new int[] {-1, -1, 2, 0}, this.grid.getBounds("beam"));
+        for(int x = -1; x <= 2; x++) {
+            for(int z = -1; z <= 0; z++) {
+                assertTrue(this.grid.getNearby(location(x * 16 + 8, z * 16 + 8)).contains("beam"));
+            }
+        }
+        assertTrue(this.grid.getNearby(location(56, 8)).isEmpty());
+        assertTrue(this.grid.getNearby(location(8, 24)).isEmpty());
+    }
+
+    @Test
+    public void movingBeamLeavesCellsOutsideItsNewBounds() {
+        this.grid.update("beam", location(0, 0), location(8, 8), 1);
+        this.grid.update("beam", location(100, 100), location(108, 108), 1);
+
+        assertTrue(this.grid.getNearby(location(4, 4)).isEmpty());
+        assertTrue(this.grid.getNearby(location(104, 104)).contains("beam"));
+        assertArrayEquals(new int[] {6, 6, 6, 6}, this.grid.getBounds("beam"));
+    }
+
+    @Test
+    public void removedBeamIsNotNearby() {
+        this.grid.update("beam", location(0, 0), location(8, 8), 1);
+        this.grid.update("other", location(0, 0), location(8, 8), 1);
+        this.grid.remove("beam");
+
+        assertNull(this.grid.getBounds("beam"));
+        assertEquals(1, this.grid.getNearby(location(4, 4)).size());
+        assertTrue(this.grid.getNearby(location(4, 4)).contains("other"));
+    }
+
+    @Test
+    public void touchesAnyChecksTheGivenCells() {
+        this.grid.update("beam", location(0, 0), location(20, 0), 1);
+
+        assertTrue(this.grid.touchesAny("beam", new int[] {5, 1}, new int[] {5, 0}, 2));
+        assertFalse(this.grid.touchesAny("beam", new int[] {5, 1}, new int[] {5, 0}, 1));
+        assertFalse(this.grid.touchesAny("missing", new int[] {0}, new int[] {0}, 1));
+    }
+
+    @Test
+    public void negativeCoordinatesRoundDown() {
+        assertEquals(-1, BeamGrid.toCell(-0.5));
+        assertEquals(-1, BeamGrid.toCell(-16));
+        assertEquals(-2, BeamGrid.toCell(-16.5));
+        assertEquals(0, BeamGrid.toCell(15.9));
+        assertFalse(BeamGrid.key(-1, 0) == BeamGrid.key(0, -1));
+    }
+
+    private static Location location(double x, double z) {
+        return new Location(null, x, 64, z);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Saves stored beams and loads them back, checking the file format on the way.
+ * The test world never has a chunk loaded, so every beam stays dormant and no packets are built.
+ * @author Jaxon A Brown
+ */
+public class BeamStoreTest {
+    private File directory;
+    private World world;
+    private BeamStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("beamstore").toFile();
+        this.world = createWorld("world");
+        this.store = new BeamStore(createPlugin(), this.directory);
+        this.store.load(this.world);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    @Test
+    public void savedBeamsLoadBack() throws IOException {
+        add(1, 5, 16, 5);
+        add(-20, 40, 8, 20);
+        add(5, 5, 16, 5);
+        int removed = add(100, 100, 16, 5);
+        assertTrue(this.store.remove(this.world, removed));
+        this.store.save(this.world);
+
+        BeamStore loaded = new BeamStore(createPlugin(), this.directory);
+        loaded.load(this.world);
+        assertEquals(3, loaded.getStoredCount(this.world));
+        assertEquals(0, loaded.getActiveCount(this.world));
+
+        this.store.add(location(30, 30), location(30, 40), 16, 5);
+        this.store.save(this.world);
+        loaded.load(this.world);
+        assertEquals(4, loaded.getStoredCount(this.world));
+    }
+
+    @Test
+    public void fileIsGroupedByChunk() throws IOException {
+        add(1, 5, 16, 5);
+        add(-20, 40, 8, 20);
+        add(5, 5, 16, 5);
+        this.store.save(this.world);
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(getFile().toPath()));
+        assertEquals(16 + 2 * 16 + 3 * 56, data.capacity());
+        assertEquals(0x47424D53, data.getInt(0));
+        assertEquals(1, data.getInt(4));
+        assertEquals(2, data.getInt(8));
+        assertEquals(3, data.getInt(12));
+
+        assertChunk(data, 16, -2, 2, 0, 1);
+        assertChunk(data, 32, 0, 0, 1, 2);
+
+        assertRecord(data, 48, -20, 40, 8, 20);
+        assertRecord(data, 104, 1, 5, 16, 5);
+        assertRecord(data, 160, 5, 5, 16, 5);
+    }
+
+    @Test
+    public void truncatedChunkTableIsRejected() throws IOException {
+        add(1, 5, 16, 5);
+        this.store.save(this.world);
+
+        byte[] bytes = Files.readAllBytes(getFile().toPath());
+        ByteBuffer.wrap(bytes).putInt(16 + 12, 2);
+        Files.write(getFile().toPath(), bytes);
+
+        BeamStore loaded = new BeamStore(createPlugin(), this.directory);
+        try {
+            loaded.load(this.world);
+            fail("A chunk past the last record was accepted");
+        } catch(IOException expected) {
+            assertFalse(loaded.isLoaded(this.world));
+        }
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws IOException {
+        Files.write(getFile().toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+
+        try {
+            this.store.load(this.world);
+            fail("A file without the header was accepted");
+        } catch(IOException expected) {
+            assertTrue(this.store.isLoaded(this.world));
+            assertEquals(0, this.store.getStoredCount(this.world));
+        }
+    }
+
+    private int add(double x, double z, double viewingRadius, long updateDelay) {
+        return this.store.add(location(x, z), location(x, z).add(0, 6, 0), viewingRadius, updateDelay);
+    }
+
+    private Location location(double x, double z) {
+        return new Location(this.world, x, 64, z);
+    }
+
+    private File getFile() {
+        return new File(this.directory, "world.beams");
+    }
+
+    private static void assertChunk(ByteBuffer data, int offset, int x, int z, int start, int count) {
+        assertEquals(x, data.getInt(offset));
+        assertEquals(z, data.getInt(offset + 4));
+        assertEquals(start, data.getInt(offset + 8));
+        assertEquals(count, data.getInt(offset + 12));
+    }
+
+    private static void assertRecord(ByteBuffer data, int offset, double x, double z, float viewingRadius, int updateDelay) {
+        assertEquals(x, data.getDouble(offset), 0);
+        assertEquals(64, data.getDouble(offset + 8), 0);
+        assertEquals(z, data.getDouble(offset + 16), 0);
+        assertEquals(x, data.getDouble(offset + 24), 0);
+        assertEquals(70, data.getDouble(offset + 32), 0);
+        assertEquals(z, data.getDouble(offset + 40), 0);
+        assertEquals(viewingRadius, data.getFloat(offset + 48), 0);
+        assertEquals(updateDelay, data.getInt(offset + 52));
+    }
+
+    private static World createWorld(final String name) {
+        final UUID uid = UUID.randomUUID();
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getUID":
+                        return uid;
+                    case "getName":
+                        return name;
+                    case "isChunkLoaded":
+                        return false;
+                    case "getLoadedChunks":
+                        return new Chunk[0];
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return name;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static Plugin createPlugin() {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[] {Plugin.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
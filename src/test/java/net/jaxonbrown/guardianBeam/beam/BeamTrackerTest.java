@@ -0,0 +1,234 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reconciles a tracker against beams which record what they send instead of building packets.
+ * The manager is never started, so the tick never advances and the packet budget is spent across reconciles.
+ * @author Jaxon A Brown
+ */
+public class BeamTrackerTest {
+    private List<String> sent;
+    private BeamManager manager;
+    private BeamTracker tracker;
+
+    @Before
+    public void setUp() {
+        this.sent = new ArrayList<>();
+        this.manager = new BeamManager(createPlugin());
+        this.tracker = new BeamTracker(createPlayer(), this.manager) {
+            @Override
+            void sendRemoveEntities(int[] entityIds) {
+                int[] sorted = entityIds.clone();
+                Arrays.sort(sorted);
+                BeamTrackerTest.this.sent.add("remove " + Arrays.toString(sorted));
+            }
+        };
+    }
+
+    @Test
+    public void nothingIsSentUntilReconciled() {
+        RecordingBeam beam = new RecordingBeam(1);
+        this.tracker.setVisible(beam, true);
+
+        assertTrue(this.sent.isEmpty());
+        assertTrue(this.tracker.isVisible(beam));
+        assertEquals(0, this.tracker.getShownCount());
+
+        this.tracker.reconcile();
+        assertEquals(Arrays.asList("start 1"), this.sent);
+        assertEquals(1, this.tracker.getShownCount());
+
+        this.tracker.reconcile();
+        assertEquals(1, this.sent.size());
+    }
+
+    @Test
+    public void hiddenBeamsAreRemovedInOnePacket() {
+        RecordingBeam first = new RecordingBeam(1);
+        RecordingBeam second = new RecordingBeam(2);
+        this.tracker.setVisible(first, true);
+        this.tracker.setVisible(second, true);
+        this.tracker.reconcile();
+        this.sent.clear();
+
+        this.tracker.setVisible(first, false);
+        this.tracker.setVisible(second, false);
+        this.tracker.reconcile();
+
+        assertEquals(Arrays.asList("remove [2, 3, 4, 5]"), this.sent);
+        assertEquals(0, this.tracker.getShownCount());
+        assertFalse(this.tracker.isVisible(first));
+    }
+
+    @Test
+    public void changesUndoneBeforeReconcileSendNothing() {
+        RecordingBeam shown = new RecordingBeam(1);
+        this.tracker.setVisible(shown, true);
+        this.tracker.reconcile();
+        this.sent.clear();
+
+        RecordingBeam flicker = new RecordingBeam(2);
+        this.tracker.setVisible(flicker, true);
+        this.tracker.setVisible(flicker, false);
+        this.tracker.setVisible(shown, false);
+        this.tracker.setVisible(shown, true);
+        this.tracker.reconcile();
+
+        assertTrue(this.sent.isEmpty());
+        assertEquals(1, this.tracker.getShownCount());
+        assertTrue(this.tracker.isVisible(shown));
+        assertFalse(this.tracker.isVisible(flicker));
+    }
+
+    @Test
+    public void showsBeyondTheBudgetWaitNearestFirst() {
+        this.manager.setPlayerPacketBudget(4);
+        RecordingBeam far = new RecordingBeam(1);
+        RecordingBeam near = new RecordingBeam(2);
+        RecordingBeam middle = new RecordingBeam(3);
+        this.tracker.setVisible(far, true, 900);
+        this.tracker.setVisible(near, true, 1);
+        this.tracker.setVisible(middle, true, 100);
+
+        this.tracker.reconcile();
+        assertEquals(new HashSet<>(Arrays.asList("start 2", "start 3")), new HashSet<>(this.sent));
+        assertEquals(2, this.tracker.getShownCount());
+        assertTrue(this.tracker.isVisible(far));
+
+        // The budget is spent, but one beam is always shown per reconcile.
+        this.sent.clear();
+        this.tracker.reconcile();
+        assertEquals(Arrays.asList("start 1"), this.sent);
+        assertEquals(3, this.tracker.getShownCount());
+    }
+
+    @Test
+    public void deferredShowIsDroppedOnceHidden() {
+        this.manager.setPlayerPacketBudget(1);
+        RecordingBeam near = new RecordingBeam(1);
+        RecordingBeam far = new RecordingBeam(2);
+        this.tracker.setVisible(near, true, 1);
+        this.tracker.setVisible(far, true, 4);
+
+        this.tracker.reconcile();
+        assertEquals(Arrays.asList("start 1"), this.sent);
+
+        this.tracker.setVisible(far, false);
+        this.tracker.reconcile();
+        assertEquals(1, this.sent.size());
+        assertEquals(1, this.tracker.getShownCount());
+        assertFalse(this.tracker.isVisible(far));
+    }
+
+    @Test
+    public void hidesAreSentWhateverTheBudget() {
+        this.manager.setPlayerPacketBudget(1);
+        RecordingBeam beam = new RecordingBeam(1);
+        this.tracker.setVisible(beam, true);
+        this.tracker.reconcile();
+
+        this.tracker.setVisible(beam, false);
+        this.tracker.reconcile();
+        assertEquals(Arrays.asList("start 1", "remove [2, 3]"), this.sent);
+    }
+
+    /**
+     * A beam with its own squid, whose entity ids are twice its number and the one after.
+     */
+    private class RecordingBeam extends LocationTargetBeam {
+        private final int number;
+
+        private RecordingBeam(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public void start(Player player) {
+            BeamTrackerTest.this.sent.add("start " + this.number);
+        }
+
+        @Override
+        void startSquid(Player player) {
+            BeamTrackerTest.this.sent.add("squid " + this.number);
+        }
+
+        @Override
+        void startGuardian(Player player) {
+            BeamTrackerTest.this.sent.add("guardian " + this.number);
+        }
+
+        @Override
+        int getSquidEntityId() {
+            return this.number * 2;
+        }
+
+        @Override
+        int getGuardianEntityId() {
+            return this.number * 2 + 1;
+        }
+    }
+
+    private static Player createPlayer() {
+        final UUID uuid = UUID.randomUUID();
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getUniqueId":
+                        return uuid;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "player";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static Plugin createPlugin() {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[] {Plugin.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records durations and checks the percentiles stay within the histogram's error.
+ * @author Jaxon A Brown
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void smallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 0; i < 10; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        assertEquals(11, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.1));
+        assertEquals(4, histogram.getPercentile(0.5));
+        assertEquals(9, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void percentilesAreWithinOneStepAbove() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long nanos = 1; nanos <= 1000000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        assertEquals(1000000, histogram.getCount());
+        assertWithinStep(500000, histogram.getPercentile(0.5));
+        assertWithinStep(990000, histogram.getPercentile(0.99));
+        assertWithinStep(1000000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void largestDurationsFitTheLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+    }
+
+    private static void assertWithinStep(long expected, long actual) {
+        assertTrue(actual + " is below " + expected, actual >= expected);
+        assertTrue(actual + " is too far above " + expected, actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.beam;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs visibility jobs on a pool and checks what they hand to each beam, using beams which record the results
+ * instead of showing themselves.
+ * @author Jaxon A Brown
+ */
+public class VisibilityJobTest {
+    private World world;
+    private PlayerIndex playerIndex;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        this.world = createWorld();
+        this.playerIndex = new PlayerIndex(new BeamManager(createPlugin()));
+        this.pool = new ForkJoinPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    @Test
+    public void playersWithinRadiusAreApplied() {
+        RecordingBeam beam = new RecordingBeam(location(0, 0), location(10, 0), 5);
+        Player beside = addPlayer(5, 3);
+        Player behind = addPlayer(-3, 0);
+        Player away = addPlayer(20, 0);
+        Player unindexed = createPlayer(location(5, 0));
+
+        run(Collections.singletonList(beam), Arrays.asList(beside, behind, away, unindexed));
+
+        assertArrayEquals(sorted(indexOf(beside), indexOf(behind)), sorted(beam.indices));
+        assertEquals(9, beam.distances[0], 1E-9);
+        assertEquals(9, beam.distances[1], 1E-9);
+        assertTrue(beam.unchanged.get(indexOf(away)));
+    }
+
+    @Test
+    public void viewersKeepTheBeamUpToTheExitRadius() {
+        Player viewer = addPlayer(5, 5.2);
+        Player newcomer = addPlayer(5, -5.2);
+        RecordingBeam beam = new RecordingBeam(location(0, 0), location(10, 0), 5);
+        beam.snapshot.set(indexOf(viewer));
+
+        run(Collections.singletonList(beam), Arrays.asList(viewer, newcomer));
+
+        assertArrayEquals(new int[] {indexOf(viewer)}, beam.indices);
+    }
+
+    @Test
+    public void playersWhoLeftSinceTheSnapshotAreSkipped() {
+        RecordingBeam beam = new RecordingBeam(location(0, 0), location(10, 0), 5);
+        Player staying = addPlayer(2, 0);
+        Player leaving = addPlayer(4, 0);
+        Player replaced = addPlayer(6, 0);
+        VisibilityJob job = new VisibilityJob(Collections.<Beam>singletonList(beam), Arrays.asList(staying, leaving, replaced), this.playerIndex);
+        job.submit(this.pool);
+
+        int leavingIndex = indexOf(leaving);
+        int replacedIndex = indexOf(replaced);
+        this.playerIndex.remove(replaced.getUniqueId());
+        assertEquals(replacedIndex, indexOf(addPlayer(8, 0)));
+        this.playerIndex.remove(leaving.getUniqueId());
+        job.apply(this.playerIndex);
+
+        assertArrayEquals(new int[] {indexOf(staying)}, beam.indices);
+        assertTrue(beam.unchanged.get(indexOf(staying)));
+        assertFalse(beam.unchanged.get(leavingIndex));
+        assertFalse(beam.unchanged.get(replacedIndex));
+    }
+
+    @Test
+    public void everyBeamOfALargeJobGetsItsOwnResult() {
+        Player player = addPlayer(0, 0);
+        List<RecordingBeam> beams = new ArrayList<>();
+        for(int i = 0; i < 300; i++) {
+            beams.add(new RecordingBeam(location(i * 2, 0), location(i * 2, 10), 20));
+        }
+
+        run(new ArrayList<Beam>(beams), Collections.singletonList(player));
+
+        for(int i = 0; i < beams.size(); i++) {
+            RecordingBeam beam = beams.get(i);
+            assertNotNull(beam.indices);
+            if(i * 2 <= 20) {
+                assertArrayEquals(new int[] {indexOf(player)}, beam.indices);
+                assertEquals(i * 2 * i * 2, beam.distances[0], 1E-9);
+            } else {
+                assertEquals(0, beam.indices.length);
+            }
+        }
+    }
+
+    private void run(List<? extends Beam> beams, List<Player> players) {
+        VisibilityJob job = new VisibilityJob(new ArrayList<Beam>(beams), players, this.playerIndex);
+        job.submit(this.pool);
+        job.apply(this.playerIndex);
+    }
+
+    private Player addPlayer(double x, double z) {
+        Player player = createPlayer(location(x, z));
+        this.playerIndex.add(player);
+        return player;
+    }
+
+    private int indexOf(Player player) {
+        return this.playerIndex.indexOf(player);
+    }
+
+    private Location location(double x, double z) {
+        return new Location(this.world, x, 64, z);
+    }
+
+    private static int[] sorted(int... values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * A beam which keeps the results handed to it, with the viewers it reports for the snapshot set by the test.
+     */
+    private static class RecordingBeam extends Beam {
+        private final BitSet snapshot;
+        private BitSet unchanged;
+        private int[] indices;
+        private double[] distances;
+
+        private RecordingBeam(Location startingPosition, Location endingPosition, double viewingRadius) {
+            super(new LocationTargetBeam(), startingPosition, endingPosition, viewingRadius, 5);
+            this.snapshot = new BitSet();
+        }
+
+        @Override
+        BitSet prepareSnapshot() {
+            return (BitSet) this.snapshot.clone();
+        }
+
+        @Override
+        void applySnapshot(BitSet snapshot, BitSet unchanged, int[] indices, double[] distancesSquared, int count) {
+            this.unchanged = (BitSet) unchanged.clone();
+            this.indices = Arrays.copyOf(indices, count);
+            // Beams nobody can see are never given an array of distances.
+            this.distances = count > 0 ? Arrays.copyOf(distancesSquared, count) : new double[0];
+        }
+    }
+
+    private static Player createPlayer(final Location location) {
+        final UUID uuid = UUID.randomUUID();
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getUniqueId":
+                        return uuid;
+                    case "getLocation":
+                        return location.clone();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "player " + uuid;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static World createWorld() {
+        final UUID uid = UUID.randomUUID();
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch(method.getName()) {
+                    case "getUID":
+                        return uid;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "world";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static Plugin createPlugin() {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[] {Plugin.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocates entity ids from many threads at once.
+ * There is no server in the test, so the allocator never sees the server's entity counter.
+ * @author Jaxon A Brown
+ */
+public class EntityIdAllocatorTest {
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 20000;
+
+    @Test
+    public void concurrentAllocationsAreUnique() throws InterruptedException {
+        int[][] ids = runThreads(new IdTask() {
+            @Override
+            public int[] run(int thread) {
+                int[] ids = new int[IDS_PER_THREAD];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = EntityIdAllocator.allocate();
+                }
+                return ids;
+            }
+        });
+
+        Set<Integer> unique = new HashSet<>();
+        for(int[] threadIds : ids) {
+            for(int id : threadIds) {
+                assertTrue("Entity id " + id + " was issued twice", unique.add(id));
+            }
+        }
+        assertEquals(THREADS * IDS_PER_THREAD, unique.size());
+    }
+
+    @Test
+    public void releasedIdsAreOnlyReusedAfterRecycling() throws InterruptedException {
+        EntityIdAllocator.recycleReleased();
+
+        // Half of the threads release ids while the other half keep allocating.
+        final int[][] released = runThreads(new IdTask() {
+            @Override
+            public int[] run(int thread) {
+                int[] ids = new int[IDS_PER_THREAD];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = EntityIdAllocator.allocate();
+                    if(thread % 2 == 0) {
+                        EntityIdAllocator.release(ids[i]);
+                    }
+                }
+                return ids;
+            }
+        });
+        Set<Integer> releasedIds = new HashSet<>();
+        Set<Integer> keptIds = new HashSet<>();
+        for(int thread = 0; thread < THREADS; thread++) {
+            for(int id : released[thread]) {
+                assertTrue("Entity id " + id + " was issued twice", (thread % 2 == 0 ? releasedIds : keptIds).add(id));
+            }
+        }
+        for(int id : keptIds) {
+            assertFalse("Entity id " + id + " was reused before it was recycled", releasedIds.contains(id));
+        }
+
+        int[][] beforeRecycling = runThreads(new IdTask() {
+            @Override
+            public int[] run(int thread) {
+                int[] ids = new int[IDS_PER_THREAD];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = EntityIdAllocator.allocate();
+                }
+                return ids;
+            }
+        });
+        for(int[] threadIds : beforeRecycling) {
+            for(int id : threadIds) {
+                assertFalse("Entity id " + id + " was reused before it was recycled", releasedIds.contains(id));
+                assertFalse("Entity id " + id + " was issued twice", keptIds.contains(id));
+            }
+        }
+
+        EntityIdAllocator.recycleReleased();
+        final Set<Integer> reused = new HashSet<>();
+        runThreads(new IdTask() {
+            @Override
+            public int[] run(int thread) {
+                int[] ids = new int[IDS_PER_THREAD];
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = EntityIdAllocator.allocate();
+                }
+                synchronized(reused) {
+                    for(int id : ids) {
+                        assertTrue("Entity id " + id + " was issued twice", reused.add(id));
+                    }
+                }
+                return ids;
+            }
+        });
+        assertTrue("Recycled ids were not issued again", reused.containsAll(releasedIds));
+    }
+
+    /**
+     * Runs a task on every thread at once.
+     * @param task task to run.
+     * @return the ids returned by each thread.
+     */
+    private static int[][] runThreads(final IdTask task) throws InterruptedException {
+        final int[][] results = new int[THREADS][];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[thread] = task.run(thread);
+                    } catch(Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            worker.start();
+            threads.add(worker);
+        }
+        start.countDown();
+        for(Thread worker : threads) {
+            worker.join();
+        }
+        assertNull("A thread failed: " + failure.get(), failure.get());
+        return results;
+    }
+
+    private interface IdTask {
+        int[] run(int thread);
+    }
+}
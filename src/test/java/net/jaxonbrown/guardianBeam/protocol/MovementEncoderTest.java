@@ -0,0 +1,177 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+import org.bukkit.Location;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Moves an entity and checks which packet the encoder chooses and what it writes into it.
+ * The packets are empty wrappers, and a recording codec stands in for the server's.
+ * @author Jaxon A Brown
+ */
+public class MovementEncoderTest {
+    private static final double DELTA = 1e-9;
+
+    private RecordingCodec codec;
+    private WrappedBeamPacket teleport;
+    private WrappedBeamPacket relativeMove;
+    private WrappedBeamPacket relativeMoveLook;
+    private MovementEncoder encoder;
+
+    @Before
+    public void setUp() {
+        this.codec = new RecordingCodec();
+        BeamProtocolCodecs.set(this.codec);
+        this.teleport = new WrappedBeamPacket(null);
+        this.relativeMove = new WrappedBeamPacket(null);
+        this.relativeMoveLook = new WrappedBeamPacket(null);
+        this.encoder = new MovementEncoder(this.teleport, this.relativeMove, this.relativeMoveLook, location(0, 64, 0, 0));
+    }
+
+    @Test
+    public void smallMoveIsRelative() {
+        assertSame(this.relativeMove, this.encoder.move(location(0.5, 63, -0.25, 0)));
+        assertEquals(2048, this.codec.dx);
+        assertEquals(-4096, this.codec.dy);
+        assertEquals(-1024, this.codec.dz);
+
+        assertSame(this.relativeMove, this.encoder.move(location(1, 63, -0.25, 0)));
+        assertEquals(2048, this.codec.dx);
+        assertEquals(0, this.codec.dy);
+        assertEquals(0, this.codec.dz);
+    }
+
+    @Test
+    public void moveTheClientCannotSeeSendsNothing() {
+        assertNull(this.encoder.move(location(0, 64, 0, 0)));
+        assertNull(this.encoder.move(location(1 / 8192.0, 64, 0, 0)));
+    }
+
+    @Test
+    public void rotationUsesMoveLook() {
+        assertSame(this.relativeMoveLook, this.encoder.move(location(0, 64, 0, 90)));
+        assertEquals(0, this.codec.dx);
+        assertEquals(64, this.codec.yaw);
+    }
+
+    @Test
+    public void largeMoveTeleportsAndBecomesTheNewBase() {
+        assertSame(this.teleport, this.encoder.move(location(8, 64, 0, 0)));
+        assertEquals(8, this.codec.x, DELTA);
+        assertEquals(64, this.codec.y, DELTA);
+
+        assertSame(this.relativeMove, this.encoder.move(location(9, 64, 0, 0)));
+        assertEquals(4096, this.codec.dx);
+    }
+
+    @Test
+    public void relativeMovesAreCorrectedPeriodically() {
+        for(int i = 1; i <= 100; i++) {
+            assertSame(this.relativeMove, this.encoder.move(location(i / 16.0, 64, 0, 0)));
+        }
+        assertSame(this.teleport, this.encoder.move(location(101 / 16.0, 64, 0, 0)));
+        assertSame(this.relativeMove, this.encoder.move(location(102 / 16.0, 64, 0, 0)));
+    }
+
+    @Test
+    public void syncTeleportsToTheLastPositionSent() {
+        this.encoder.move(location(0.5, 64, 0, 0));
+        assertNull(this.encoder.move(location(0.5 + 1 / 8192.0, 64, 0, 0)));
+
+        assertSame(this.teleport, this.encoder.sync());
+        assertEquals(0.5, this.codec.x, DELTA);
+        assertEquals(64, this.codec.y, DELTA);
+
+        assertSame(this.relativeMove, this.encoder.move(location(1, 64, 0, 0)));
+        assertEquals(2048, this.codec.dx);
+    }
+
+    private static Location location(double x, double y, double z, float yaw) {
+        return new Location(null, x, y, z, yaw, 0);
+    }
+
+    /**
+     * Remembers the last teleport and relative move written.
+     */
+    private static class RecordingCodec implements BeamProtocolCodec {
+        private double x, y, z;
+        private int dx, dy, dz;
+        private byte yaw;
+
+        @Override
+        public int getSquidType() {
+            return 94;
+        }
+
+        @Override
+        public int getGuardianType() {
+            return 68;
+        }
+
+        @Override
+        public int getGuardianTargetIndex() {
+            return 12;
+        }
+
+        @Override
+        public void writeGuardianDefaults(WrappedDataWatcher watcher) {}
+
+        @Override
+        public int readEntityId(PacketContainer packet) {
+            return 0;
+        }
+
+        @Override
+        public void writeEntityId(PacketContainer packet, int entityId) {}
+
+        @Override
+        public void writeUniqueId(PacketContainer spawn, UUID uniqueId) {}
+
+        @Override
+        public void writeEntityType(PacketContainer spawn, int type) {}
+
+        @Override
+        public void writeSpawnLocation(PacketContainer spawn, double x, double y, double z, byte yaw, byte pitch) {}
+
+        @Override
+        public void writeTeleport(PacketContainer teleport, double x, double y, double z, byte yaw, byte pitch) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+        }
+
+        @Override
+        public void writeRelativeMove(PacketContainer move, int dx, int dy, int dz, byte yaw, byte pitch) {
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+            this.yaw = yaw;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2016 Jaxon A Brown
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ *  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ *  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ *  persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all copies or portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ *  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ *  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.jaxonbrown.guardianBeam.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Writes packet ids in the VarInt format the client reads them in.
+ * @author Jaxon A Brown
+ */
+public class PacketSerializerTest {
+    @Test
+    public void smallValuesTakeOneByte() {
+        assertVarInt(0, 0x00);
+        assertVarInt(1, 0x01);
+        assertVarInt(127, 0x7F);
+    }
+
+    @Test
+    public void largerValuesContinueInLaterBytes() {
+        assertVarInt(128, 0x80, 0x01);
+        assertVarInt(300, 0xAC, 0x02);
+        assertVarInt(2097151, 0xFF, 0xFF, 0x7F);
+        assertVarInt(Integer.MAX_VALUE, 0xFF, 0xFF, 0xFF, 0xFF, 0x07);
+    }
+
+    @Test
+    public void negativeValuesTakeFiveBytes() {
+        assertVarInt(-1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertVarInt(Integer.MIN_VALUE, 0x80, 0x80, 0x80, 0x80, 0x08);
+    }
+
+    private static void assertVarInt(int value, int... expected) {
+        ByteBuf buffer = Unpooled.buffer();
+        try {
+            PacketSerializer.writeVarInt(buffer, value);
+            byte[] written = new byte[buffer.readableBytes()];
+            buffer.readBytes(written);
+            byte[] bytes = new byte[expected.length];
+            for(int i = 0; i < expected.length; i++) {
+                bytes[i] = (byte) expected[i];
+            }
+            assertArrayEquals(bytes, written);
+        } finally {
+            buffer.release();
+        }
+    }
+}